@@ -0,0 +1,73 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per query cost of building the redacted aggregation pipeline, before anything is sent to the server.  The
+ * MongoClient connects lazily and is never used, so no mongod is needed.  Run with <tt>-prof gc</tt>, the default
+ * of the benchmarks profile, to see the bytes allocated per query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineConstructionBenchmark {
+
+    private MongoClient mongoClient;
+    private DBCollection collection;
+    private RedactedDBCollection redactedDBCollection;
+    private String encodedAttributes;
+    private DBObject query;
+    private DBObject keys;
+    private DBObject orderBy;
+    /** never run, only asked for its pipeline */
+    private DBCursorBasedOnQueryResultIterator cursor;
+
+    @Setup
+    public void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost");
+        collection = mongoClient.getDB("flac_benchmark").getCollection("persons");
+        final UserSecurityAttributesMap userSecurityAttributes = new UserSecurityAttributesMap("c", "TS", "sci", "TK");
+        redactedDBCollection = new RedactedDBCollection(collection, userSecurityAttributes);
+        encodedAttributes = userSecurityAttributes.encodeFlacSecurityAttributes();
+        query = new BasicDBObject("lastName", "Humphrey").append("country.value", "IRAQ");
+        keys = new BasicDBObject("firstName", 1).append("lastName", 1);
+        orderBy = new BasicDBObject("lastName", 1);
+        cursor = (DBCursorBasedOnQueryResultIterator) redactedDBCollection.find(query, keys).sort(orderBy).skip(20).limit(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public List<DBObject> prependSecurityRedactToPipelineWorker() {
+        return RedactedDBCollection.prependSecurityRedactToPipelineWorker(new ArrayList<DBObject>(), encodedAttributes);
+    }
+
+    @Benchmark
+    public List<DBObject> prependSecurityRedactToPipeline() {
+        return redactedDBCollection.prependSecurityRedactToPipeline(new ArrayList<DBObject>());
+    }
+
+    @Benchmark
+    public List<DBObject> buildPipelineWithSortSkipLimit() {
+        return cursor.buildPipeline(false, true);
+    }
+
+    @Benchmark
+    public List<DBObject> buildCountPipeline() {
+        return cursor.buildPipeline(true, false);
+    }
+}
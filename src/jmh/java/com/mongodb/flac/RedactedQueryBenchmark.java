@@ -0,0 +1,62 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end latency of redacted queries compared to plain ones, in sample time mode, e.g.
+ * <tt><pre>
+ *     mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.args="RedactedQueryBenchmark -bm sample -p collectionSize=100000"
+ * </pre></tt>
+ * JMH reports the p50, p90, p99, ... latency of each query.  The collections are set up by
+ * {@link RedactedQueryCollections}; the documents read per second are measured by
+ * {@link RedactedQueryThroughputBenchmark}, as sample time mode does not report counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RedactedQueryBenchmark {
+
+    @Benchmark
+    public long plainFind(RedactedQueryCollections collections, Blackhole blackhole) {
+        return RedactedQueryCollections.drain(collections.plain.find().limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public long redactedFind(RedactedQueryCollections collections, Blackhole blackhole) {
+        return RedactedQueryCollections.drain(collections.redacted.find().limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public long plainCount(RedactedQueryCollections collections) {
+        return collections.plain.count(new BasicDBObject("lastName", new BasicDBObject("$gte", "last5")));
+    }
+
+    @Benchmark
+    public long redactedCount(RedactedQueryCollections collections) {
+        return collections.redacted.count(new BasicDBObject("lastName", new BasicDBObject("$gte", "last5")));
+    }
+
+    @Benchmark
+    public long plainSortLimit(RedactedQueryCollections collections, Blackhole blackhole) {
+        return RedactedQueryCollections.drain(collections.plain.find().sort(new BasicDBObject("lastName", -1))
+                .limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public long redactedSortLimit(RedactedQueryCollections collections, Blackhole blackhole) {
+        return RedactedQueryCollections.drain(collections.redacted.find().sort(new BasicDBObject("lastName", -1))
+                .limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public long redactedParallelScan(RedactedQueryCollections collections, Blackhole blackhole) throws Exception {
+        return collections.redactedParallelScan(blackhole);
+    }
+}
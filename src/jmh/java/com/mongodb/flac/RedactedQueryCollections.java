@@ -0,0 +1,113 @@
+package com.mongodb.flac;
+
+import com.mongodb.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The plain and the redacted collection queried by {@link RedactedQueryBenchmark} and
+ * {@link RedactedQueryThroughputBenchmark}, on a running mongod at <tt>-Dflac.benchmark.host=host:port</tt> (default
+ * localhost).  The collection <tt>flac_benchmark.persons_&lt;size&gt;_&lt;depth&gt;_&lt;cardinality&gt;</tt> is filled
+ * with {@link SyntheticLabelledDocuments} once per trial and reused when it is already complete.
+ */
+@State(Scope.Benchmark)
+public class RedactedQueryCollections {
+
+    @Param({"10000"})
+    public int collectionSize;
+
+    @Param({"2"})
+    public int depth;
+
+    @Param({"16"})
+    public int cardinality;
+
+    /** number of documents read by the find benchmarks, and the limit of sortLimit */
+    @Param({"1000"})
+    public int pageSize;
+
+    @Param({"4"})
+    public int numCursors;
+
+    private MongoClient mongoClient;
+    DBCollection plain;
+    RedactedDBCollection redacted;
+    private ExecutorService scanExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mongoClient = new MongoClient(System.getProperty("flac.benchmark.host", "localhost"));
+        plain = mongoClient.getDB("flac_benchmark").getCollection("persons_" + collectionSize + "_" + depth + "_" + cardinality);
+
+        final SyntheticLabelledDocuments documents = new SyntheticLabelledDocuments(depth, cardinality, 42);
+        if (plain.count() != collectionSize) {
+            plain.drop();
+            BulkWriteOperation bulk = plain.initializeUnorderedBulkOperation();
+            for (int id = 0; id < collectionSize; id++) {
+                bulk.insert(documents.next(id));
+                if ((id + 1) % 1000 == 0) {
+                    bulk.execute();
+                    bulk = plain.initializeUnorderedBulkOperation();
+                }
+            }
+            if (collectionSize % 1000 != 0) {
+                bulk.execute();
+            }
+            plain.createIndex(new BasicDBObject("lastName", 1));
+        }
+
+        redacted = new RedactedDBCollection(plain, documents.user());
+        scanExecutor = Executors.newFixedThreadPool(numCursors);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scanExecutor.shutdown();
+        mongoClient.close();
+    }
+
+    /** @return number of documents the redacted parallel scan read */
+    long redactedParallelScan(final Blackhole blackhole) throws Exception {
+        final List<Cursor> cursors = redacted.parallelScan(ParallelScanOptions.builder().numCursors(numCursors).batchSize(1000).build());
+        final List<Future<Long>> drained = new ArrayList<Future<Long>>(cursors.size());
+        for (final Cursor cursor : cursors) {
+            drained.add(scanExecutor.submit(new Callable<Long>() {
+                public Long call() {
+                    long n = 0;
+                    try {
+                        while (cursor.hasNext()) {
+                            blackhole.consume(cursor.next());
+                            n++;
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    return n;
+                }
+            }));
+        }
+        long documents = 0;
+        for (Future<Long> future : drained) {
+            documents += future.get();
+        }
+        return documents;
+    }
+
+    /** @return number of documents read */
+    static long drain(DBCursor cursor, Blackhole blackhole) {
+        long documents = 0;
+        try {
+            while (cursor.hasNext()) {
+                blackhole.consume(cursor.next());
+                documents++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return documents;
+    }
+}
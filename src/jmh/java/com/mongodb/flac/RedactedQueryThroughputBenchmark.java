@@ -0,0 +1,69 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end throughput of redacted queries compared to plain ones, in throughput mode, e.g.
+ * <tt><pre>
+ *     mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.args="RedactedQueryThroughputBenchmark -bm thrpt -p collectionSize=100000"
+ * </pre></tt>
+ * Next to the queries per second JMH reports the documents read per second, counted by {@link DocumentCounter}.
+ * The collections are set up by {@link RedactedQueryCollections}, the latencies are measured by
+ * {@link RedactedQueryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RedactedQueryThroughputBenchmark {
+
+    /** counts documents read, JMH reports it as a rate */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class DocumentCounter {
+        public long documents;
+    }
+
+    @Benchmark
+    public void plainFind(RedactedQueryCollections collections, DocumentCounter counter, Blackhole blackhole) {
+        counter.documents += RedactedQueryCollections.drain(collections.plain.find().limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public void redactedFind(RedactedQueryCollections collections, DocumentCounter counter, Blackhole blackhole) {
+        counter.documents += RedactedQueryCollections.drain(collections.redacted.find().limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public long plainCount(RedactedQueryCollections collections) {
+        return collections.plain.count(new BasicDBObject("lastName", new BasicDBObject("$gte", "last5")));
+    }
+
+    @Benchmark
+    public long redactedCount(RedactedQueryCollections collections) {
+        return collections.redacted.count(new BasicDBObject("lastName", new BasicDBObject("$gte", "last5")));
+    }
+
+    @Benchmark
+    public void plainSortLimit(RedactedQueryCollections collections, DocumentCounter counter, Blackhole blackhole) {
+        counter.documents += RedactedQueryCollections.drain(collections.plain.find().sort(new BasicDBObject("lastName", -1))
+                .limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public void redactedSortLimit(RedactedQueryCollections collections, DocumentCounter counter, Blackhole blackhole) {
+        counter.documents += RedactedQueryCollections.drain(collections.redacted.find().sort(new BasicDBObject("lastName", -1))
+                .limit(collections.pageSize), blackhole);
+    }
+
+    @Benchmark
+    public void redactedParallelScan(RedactedQueryCollections collections, DocumentCounter counter, Blackhole blackhole) throws Exception {
+        counter.documents += collections.redactedParallelScan(blackhole);
+    }
+}
@@ -0,0 +1,70 @@
+package com.mongodb.flac;
+
+import com.mongodb.flac.converter.FLACAnnotationException;
+import com.mongodb.flac.converter.FLACProperty;
+import com.mongodb.flac.converter.FLACPropertyProcessor;
+import com.mongodb.flac.converter.FLACPropertyProvider;
+import com.mongodb.mongoapp.util.CapcoVisibilityUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a user's attributes into the FLAC encoded terms the "$redact" stage is compiled from.  Run with
+ * <tt>-prof gc</tt>, the default of the benchmarks profile, to see the bytes allocated per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityAttributesBenchmark {
+
+    public static class User implements FLACPropertyProvider {
+        @FLACProperty(attributeNameInSl = "c")
+        public String getClearance() {
+            return "TS";
+        }
+
+        @FLACProperty(attributeNameInSl = "sci")
+        public List<String> getSci() {
+            return Arrays.asList("TK", "SI", "G", "HCS");
+        }
+
+        @FLACProperty(attributeNameInSl = "citizenship")
+        public List<String> getCitizenship() {
+            return Arrays.asList("US", "GBR");
+        }
+    }
+
+    private User user;
+    private UserSecurityAttributesMap userSecurityAttributes;
+    private List<String> capco;
+
+    @Setup
+    public void setUp() throws Exception {
+        user = new User();
+        userSecurityAttributes = new UserSecurityAttributesMap();
+        userSecurityAttributes.putAllSecurityAttributesMap(user);
+        capco = Arrays.asList("c:TS", "c:S");
+    }
+
+    @Benchmark
+    public String encodeFlacSecurityAttributes() {
+        return userSecurityAttributes.encodeFlacSecurityAttributes();
+    }
+
+    @Benchmark
+    public List<String> recusivelyExpandCapcoVisibility() {
+        return CapcoVisibilityUtil.recusivelyExpandCapcoVisibility(capco);
+    }
+
+    @Benchmark
+    public Map<String, Object> findMethodsAnnotatedPullOutSLFieldInfo() throws FLACAnnotationException {
+        return FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(user);
+    }
+}
@@ -0,0 +1,86 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates labelled documents shaped like the persons of RedactedDBCollectionTest, e.g.
+ * <tt><pre>
+ *   { _id: 17, firstName: "first17", lastName: "last3", sl: [ [ { c:"U" } ] ],
+ *     ssn: { sl: [ [ { c:"TS" } ], [ { sci:"SCI4" } ] ], value: "ssn17",
+ *            detail: { sl: [ [ { c:"S" } ] ], value: "detail17" } },
+ *     country: { sl: ..., value: ... }, favorites: { sl: ..., value: ... } }
+ * </pre></tt>
+ * Every labelled subdocument nests depth levels deep, every label has a "c" inner array and, half of the time, an
+ * inner array of one or two of cardinality "sci" terms.  The same seed gives the same documents.
+ */
+public class SyntheticLabelledDocuments {
+
+    static final List<String> CLASSIFICATIONS = Arrays.asList("TS", "S", "C", "U");
+    static final String[] LABELLED_FIELDS = { "ssn", "country", "favorites" };
+
+    private final int depth;
+    private final int cardinality;
+    private final Random random;
+
+    /**
+     * @param depth        levels of labelled subdocuments below each labelled field, at least 1
+     * @param cardinality  number of distinct "sci" terms
+     * @param seed         seed of the random labels
+     */
+    public SyntheticLabelledDocuments(int depth, int cardinality, long seed) {
+        this.depth = depth;
+        this.cardinality = cardinality;
+        this.random = new Random(seed);
+    }
+
+    /** @return the document with _id id */
+    public DBObject next(int id) {
+        final BasicDBObject document = new BasicDBObject("_id", id)
+                .append("firstName", "first" + id)
+                .append("lastName", "last" + (id % 100))
+                .append("sl", label(true));
+        for (String field : LABELLED_FIELDS) {
+            document.append(field, subdocument(field + id, depth));
+        }
+        return document;
+    }
+
+    /** @return a user holding c:S, expanded to the lower classifications, and every other "sci" term */
+    public UserSecurityAttributesMap user() {
+        final List<String> sci = new ArrayList<String>();
+        for (int i = 0; i < cardinality; i += 2) {
+            sci.add("SCI" + i);
+        }
+        return new UserSecurityAttributesMap("c", CLASSIFICATIONS.subList(1, CLASSIFICATIONS.size()), "sci", sci);
+    }
+
+    private DBObject subdocument(String value, int levels) {
+        final BasicDBObject subdocument = new BasicDBObject("sl", label(false)).append("value", value);
+        if (levels > 1) {
+            subdocument.append("detail", subdocument(value + "." + levels, levels - 1));
+        }
+        return subdocument;
+    }
+
+    private List<List<DBObject>> label(boolean documentLevel) {
+        final List<List<DBObject>> label = new ArrayList<List<DBObject>>();
+        // documents are never TS, so the user's c:S hides only subdocuments
+        final int classification = documentLevel ? 1 + random.nextInt(3) : random.nextInt(4);
+        label.add(Arrays.<DBObject>asList(new BasicDBObject("c", CLASSIFICATIONS.get(classification))));
+        if (cardinality > 0 && random.nextBoolean()) {
+            final List<DBObject> sci = new ArrayList<DBObject>();
+            sci.add(new BasicDBObject("sci", "SCI" + random.nextInt(cardinality)));
+            if (random.nextBoolean()) {
+                sci.add(new BasicDBObject("sci", "SCI" + random.nextInt(cardinality)));
+            }
+            label.add(sci);
+        }
+        return label;
+    }
+}
@@ -0,0 +1,29 @@
+package com.mongodb;
+
+/**
+ * Chooses the batch size of each getMore a {@link QueryResultIterator} sends, in place of the fixed
+ * {@link DBCursor#batchSize(int)}.  A cursor's limit is still honoured, the policy's size is cut down to what is left.
+ *
+ * <p> The iterator reports every batch it receives through a getMore, so a policy can adjust to the documents and the
+ * server it sees.  With {@link DBCursor#prefetch(int)} the calls come from the read-ahead thread, and cursors made by
+ * {@link DBCursor#copy()} share their policy, so implementations have to be thread safe.
+ * </p>
+ *
+ * @see DBCursor#batchSizePolicy(BatchSizePolicy)
+ */
+public interface BatchSizePolicy {
+
+    /**
+     * @return the number of documents to ask for in the next getMore, 0 for the server's default
+     */
+    int nextBatchSize();
+
+    /**
+     * called after each getMore.
+     *
+     * @param documents     number of documents in the reply
+     * @param bytes         size of the reply message in bytes
+     * @param latencyNanos  time from sending the getMore until the reply was read
+     */
+    void batchReceived(int documents, int bytes, long latencyNanos);
+}
@@ -1169,8 +1169,8 @@ public abstract class DBCollection {
      * @mongodb.driver.manual reference/command/count/ Count
      * @since 2.12
      */
-    long getCount(final DBObject query, final DBObject fields, final long limit, final long skip,
-                  final ReadPreference readPrefs, final long maxTime, final TimeUnit maxTimeUnit) {
+    protected long getCount(final DBObject query, final DBObject fields, final long limit, final long skip,
+                            final ReadPreference readPrefs, final long maxTime, final TimeUnit maxTimeUnit) {
         BasicDBObject cmd = new BasicDBObject();
         cmd.put("count", getName());
         cmd.put("query", query);
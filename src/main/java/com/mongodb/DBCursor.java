@@ -177,9 +177,12 @@ public class DBCursor implements Cursor, Iterable<DBObject> {
         c._skip = _skip;
         c._options = _options;
         c._batchSize = _batchSize;
+        c._prefetchDepth = _prefetchDepth;
+        c._batchSizePolicy = _batchSizePolicy;
         c._snapshot = _snapshot;
         c._explain = _explain;
         c._maxTimeMS = _maxTimeMS;
+        c._allowDiskUse = _allowDiskUse;
         if ( _specialFields != null )
             c._specialFields = new BasicDBObject( _specialFields.toMap() );
         return c;
@@ -271,6 +274,21 @@ public class DBCursor implements Cursor, Iterable<DBObject> {
         return this;
     }
 
+    /**
+     * Lets the server write temporary files for stages that outgrow its memory limit, e.g. a large sort, instead of
+     * failing.  Only cursors that run as an aggregation use it, like the redacted cursors of
+     * com.mongodb.flac.RedactedDBCollection; a plain query ignores it.
+     *
+     * @param allowDiskUse true to allow temporary files
+     * @return same DBCursor for chaining operations
+     *
+     * @mongodb.server.release 2.6
+     */
+    public DBCursor allowDiskUse(final boolean allowDiskUse) {
+        _allowDiskUse = allowDiskUse;
+        return this;
+    }
+
     /**
      * Use snapshot mode for the query. Snapshot mode assures no duplicates are
      * returned, or objects missed, which were present at both the start and end
@@ -331,6 +349,43 @@ public class DBCursor implements Cursor, Iterable<DBObject> {
         return this;
     }
 
+    /**
+     * Lets a policy choose the size of each getMore instead of the fixed {@link #batchSize(int)}, for instance
+     * one that adapts to the size of the documents and the latency of the server.  The first batch is still sized
+     * by {@link #batchSize(int)}.  A copy of this cursor uses the same policy object.
+     *
+     * @param policy the policy, null for the fixed batch size
+     * @return this
+     */
+    public DBCursor batchSizePolicy(BatchSizePolicy policy) {
+        if ( _it != null )
+            _it.setBatchSizePolicy(policy);
+
+        _batchSizePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Reads ahead while the cursor is being iterated: the next <tt>depth</tt> batches at most are fetched in the
+     * background, so the round trip for a batch overlaps with the caller's work on the previous one.  This helps
+     * when each document takes a while to process, it does not help when the server is the bottleneck.
+     *
+     * It has to be set before the cursor is iterated, 0, the default, turns it off.
+     *
+     * @param depth the number of batches to read ahead
+     * @return this
+     * @see QueryResultIterator#setPrefetchDepth(int)
+     */
+    public DBCursor prefetch(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("prefetch depth can't be negative");
+        if ( _it != null )
+            _it.setPrefetchDepth(depth);
+
+        _prefetchDepth = depth;
+        return this;
+    }
+
     /**
      * Limits the number of elements returned in one batch.
      * A cursor typically fetches a batch of result objects and store them locally.
@@ -470,6 +525,12 @@ public class DBCursor implements Cursor, Iterable<DBObject> {
         }
 
         _it = _collection.find(builder.get(), _keysWanted, _skip, _batchSize, _limit, _options, _readPref, getDecoder());
+        if (_batchSizePolicy != null) {
+            _it.setBatchSizePolicy(_batchSizePolicy);
+        }
+        if (_prefetchDepth > 0) {
+            _it.setPrefetchDepth(_prefetchDepth);
+        }
     }
 
     // Only create a new decoder if there is a decoder factory explicitly set on the collection.  Otherwise return null
@@ -810,10 +871,13 @@ public class DBCursor implements Cursor, Iterable<DBObject> {
     private boolean _explain = false;
     private int _limit = 0;
     private int _batchSize = 0;
+    private int _prefetchDepth = 0;
+    private BatchSizePolicy _batchSizePolicy = null;
     private int _skip = 0;
     private boolean _snapshot = false;
     private int _options = 0;
     private long _maxTimeMS;
+    private boolean _allowDiskUse = false;
     private ReadPreference _readPref;
     private DBDecoderFactory _decoderFact;
 
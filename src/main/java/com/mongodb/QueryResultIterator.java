@@ -18,12 +18,21 @@ package com.mongodb;
 
 import org.bson.BSONObject;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.mongodb.DBApiLayer.DeadCursor;
 import static java.util.Arrays.asList;
@@ -40,7 +49,8 @@ public class QueryResultIterator implements Cursor {
     private long _cursorId;
     private Iterator<DBObject> _cur;
     private int _curSize;
-    private int _batchSize;
+    // also read by the prefetch task
+    private volatile int _batchSize;
 
     private boolean closed;
 
@@ -51,6 +61,23 @@ public class QueryResultIterator implements Cursor {
     // This allows us to easily enable/disable finalizer for cleaning up un-closed cursors
     private final OptionalFinalizer _optionalFinalizer;
 
+    // read-ahead, see setPrefetchDepth: the background task puts Responses, or the Throwable that stopped it, here
+    private int _prefetchDepth = 0;
+    private BlockingQueue<Object> _prefetched;
+    private Future<?> _prefetchTask;
+
+    private volatile BatchSizePolicy _batchSizePolicy;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "QueryResultIterator-prefetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     // Constructor to use for normal queries
     QueryResultIterator(DBApiLayer db, DBCollectionImpl collection, Response res, int batchSize, int limit,
                         int options, DBDecoder decoder){
@@ -124,7 +151,11 @@ public class QueryResultIterator implements Cursor {
         }
 
         while (_cursorId != 0) {
-            getMore();
+            if (_prefetchTask != null) {
+                takePrefetched();
+            } else {
+                getMore();
+            }
             if (_curSize > 0) {
                 return true;
             }
@@ -133,16 +164,171 @@ public class QueryResultIterator implements Cursor {
         return false;
     }
 
+    /**
+     * Turns read-ahead on or off.  With a depth greater than 0 a background task keeps issuing the getMore for the
+     * following batches while the caller works through the current one, holding at most depth batches that have
+     * not been handed out yet.  The getMores are still sent one after the other, in order.  The task stops when the
+     * cursor is exhausted and is cancelled by {@link #close()}; when the iterator is dropped without being closed,
+     * the task kills the server cursor and stops as well.
+     *
+     * @param depth number of batches to read ahead, 0 (the default) turns read-ahead off
+     */
+    public void setPrefetchDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("prefetch depth can't be negative");
+        }
+        if (_prefetchTask != null || closed) {
+            return;     // already reading ahead, the depth can't change under the running task
+        }
+        _prefetchDepth = depth;
+        if (depth > 0 && _cursorId != 0) {
+            startPrefetch();
+        }
+    }
+
+    public int getPrefetchDepth() {
+        return _prefetchDepth;
+    }
+
+    private void startPrefetch() {
+        _prefetched = new LinkedBlockingQueue<Object>(_prefetchDepth);
+        _prefetchTask = PREFETCH_EXECUTOR.submit(new PrefetchTask(this, _prefetched, _cursorId, _numFetched));
+    }
+
+    /**
+     * Reads ahead for an iterator it only holds weakly, so an iterator dropped without close() can still be
+     * finalized.  While the queue is full the task checks every {@link #OWNER_CHECK_MILLIS} whether the iterator is
+     * still there; once it is gone the task kills the server cursor and stops.
+     */
+    private static class PrefetchTask implements Runnable {
+        private static final long OWNER_CHECK_MILLIS = 100;
+
+        private final WeakReference<QueryResultIterator> owner;
+        private final BlockingQueue<Object> prefetched;
+        @SuppressWarnings("deprecation")        // the same DBApiLayer the iterator holds
+        private final DBApiLayer db;
+        private final ServerAddress host;
+        private final int limit;
+        private long cursorId;
+        private int fetched;
+
+        PrefetchTask(QueryResultIterator owner, BlockingQueue<Object> prefetched, long cursorId, int fetched) {
+            this.owner = new WeakReference<QueryResultIterator>(owner);
+            this.prefetched = prefetched;
+            this.db = owner._db;
+            this.host = owner._host;
+            this.limit = owner._limit;
+            this.cursorId = cursorId;
+            this.fetched = fetched;
+        }
+
+        public void run() {
+            try {
+                long nextCursorId = cursorId;
+                while (nextCursorId != 0 && !Thread.currentThread().isInterrupted()) {
+                    Response res = getMore(nextCursorId);
+                    if (res == null) {
+                        abandoned();
+                        return;
+                    }
+                    fetched += res.size();
+                    cursorId = res.cursor();
+                    nextCursorId = cursorId;
+                    if (limit > 0 && limit - fetched <= 0) {
+                        nextCursorId = 0;
+                    }
+                    if (!hand(res)) {
+                        abandoned();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // cancelled by close()
+            } catch (Throwable t) {
+                try {
+                    if (!hand(t)) {      // waits for room like a batch would, offer would lose it on a full queue
+                        abandoned();
+                    }
+                } catch (InterruptedException e) {
+                    // cancelled by close(), nobody is waiting for the failure
+                }
+            }
+        }
+
+        // the iterator is only held for the getMore itself, null once it is gone
+        private Response getMore(long nextCursorId) {
+            final QueryResultIterator iterator = owner.get();
+            return iterator == null ? null : iterator.callGetMore(nextCursorId, fetched);
+        }
+
+        // false if the iterator went away while waiting for room in the queue
+        private boolean hand(Object item) throws InterruptedException {
+            while (!prefetched.offer(item, OWNER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (owner.get() == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void abandoned() {
+            if (cursorId != 0) {
+                db.addDeadCursor(new DeadCursor(cursorId, host));
+            }
+        }
+    }
+
+    private void takePrefetched() {
+        final Object item;
+        try {
+            item = _prefetched.take();
+        } catch (InterruptedException e) {
+            throw new MongoInterruptedException("interrupted while waiting for the next batch", e);
+        }
+        if (item instanceof RuntimeException) {
+            throw (RuntimeException) item;
+        }
+        if (item instanceof Error) {
+            throw (Error) item;
+        }
+        if (item instanceof Throwable) {
+            throw new MongoException("prefetching the next batch failed", (Throwable) item);
+        }
+        _numGetMores++;
+        initFromQueryResponse((Response) item);
+    }
+
+    private void cancelPrefetch() {
+        if (_prefetchTask != null) {
+            _prefetchTask.cancel(true);
+        }
+    }
+
     private void getMore(){
-        Response res = _db._connector.call(_collection.getDB(), _collection,
-                OutMessage.getMore(_collection, _cursorId, getGetMoreBatchSize()),
-                _host, _decoder);
+        Response res = callGetMore(_cursorId, _numFetched);
         _numGetMores++;
         initFromQueryResponse(res);
     }
 
-    private int getGetMoreBatchSize() {
-        return chooseBatchSize(_batchSize, _limit, _numFetched);
+    // package visible so tests can answer the getMores
+    Response callGetMore(long cursorId, int fetched) {
+        final BatchSizePolicy policy = _batchSizePolicy;
+        final long start = System.nanoTime();
+        Response res = _db._connector.call(_collection.getDB(), _collection,
+                OutMessage.getMore(_collection, cursorId, getGetMoreBatchSize(policy, fetched)),
+                _host, _decoder);
+        if (policy != null) {
+            policy.batchReceived(res.size(), res._len, System.nanoTime() - start);
+        }
+        return res;
+    }
+
+    private int getGetMoreBatchSize(BatchSizePolicy policy, int fetched) {
+        // a negative batch size closes the cursor after the first batch, there is nothing left to adapt
+        if (policy != null && _batchSize >= 0) {
+            return chooseBatchSize(policy.nextBatchSize(), _limit, fetched);
+        }
+        return chooseBatchSize(_batchSize, _limit, fetched);
     }
 
     public void remove(){
@@ -153,6 +339,17 @@ public class QueryResultIterator implements Cursor {
         _batchSize = size;
     }
 
+    /**
+     * @param policy chooses the size of the following getMores, null to go back to the fixed batch size
+     */
+    public void setBatchSizePolicy(BatchSizePolicy policy){
+        _batchSizePolicy = policy;
+    }
+
+    public BatchSizePolicy getBatchSizePolicy(){
+        return _batchSizePolicy;
+    }
+
     public long getCursorId(){
         return _cursorId;
     }
@@ -221,6 +418,7 @@ public class QueryResultIterator implements Cursor {
 
 
     void killCursor() {
+        cancelPrefetch();
         if (_cursorId == 0)
             return;
 
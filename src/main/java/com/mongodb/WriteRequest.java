@@ -16,10 +16,63 @@
 
 package com.mongodb;
 
+import static java.util.Arrays.asList;
+
 public abstract class WriteRequest {
     public abstract Type getType();
 
-    enum Type {
+    /**
+     * Returns a request that only touches the documents matching both this request's query and the given
+     * restriction, e.g. an access predicate.  Inserts have no query and are returned as they are.
+     *
+     * @param restriction the query the written documents have to match as well, may be null
+     * @return the restricted request
+     */
+    public WriteRequest restrictQuery(final DBObject restriction) {
+        if (restriction == null || restriction.keySet().isEmpty()) {
+            return this;
+        }
+        if (this instanceof RemoveRequest) {
+            RemoveRequest remove = (RemoveRequest) this;
+            return new RemoveRequest(and(remove.getQuery(), restriction), remove.isMulti());
+        }
+        if (this instanceof UpdateRequest) {
+            UpdateRequest update = (UpdateRequest) this;
+            return new UpdateRequest(and(update.getQuery(), restriction), update.isUpsert(), update.getUpdate(), update.isMulti());
+        }
+        if (this instanceof ReplaceRequest) {
+            ReplaceRequest replace = (ReplaceRequest) this;
+            return new ReplaceRequest(and(replace.getQuery(), restriction), replace.isUpsert(), replace.getDocument());
+        }
+        return this;
+    }
+
+    /**
+     * Returns what the request writes, so it can be changed in place before the request is sent.
+     *
+     * @return the document of an insert or replace, the update operators of an update, null for a remove
+     */
+    public DBObject getWrittenDocument() {
+        if (this instanceof InsertRequest) {
+            return ((InsertRequest) this).getDocument();
+        }
+        if (this instanceof UpdateRequest) {
+            return ((UpdateRequest) this).getUpdate();
+        }
+        if (this instanceof ReplaceRequest) {
+            return ((ReplaceRequest) this).getDocument();
+        }
+        return null;
+    }
+
+    private static DBObject and(final DBObject query, final DBObject restriction) {
+        if (query == null || query.keySet().isEmpty()) {
+            return restriction;
+        }
+        return new BasicDBObject("$and", asList(query, restriction));
+    }
+
+    public enum Type {
         INSERT,
         UPDATE,
         REPLACE,
@@ -0,0 +1,116 @@
+package com.mongodb.flac;
+
+import com.mongodb.BatchSizePolicy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdaptiveBatchSizePolicy sizes each getMore of a cursor from what the previous batches looked like, e.g.
+ * <tt><pre>
+ *     redactedDBCollection.find(query).batchSizePolicy(new AdaptiveBatchSizePolicy());
+ * </pre></tt>
+ *
+ * <p> Redacted documents differ a lot in size once their labelled subdocuments are pruned, so a fixed batch size is
+ * either too chatty for small documents or holds too much in memory for large ones.  The policy keeps a moving
+ * average of the bytes per document and asks for as many documents as fit into the target bytes per batch.  When a
+ * getMore takes longer than the target latency, i.e. the caller waits too long for the next document, the batch is
+ * scaled down in proportion.  The size moves at most by a factor of two per batch and stays within the minimum and
+ * maximum.
+ * </p>
+ *
+ * <p> A policy is thread safe, and a cursor and the copies made of it may share one.
+ * </p>
+ */
+public class AdaptiveBatchSizePolicy implements BatchSizePolicy {
+
+    /** default number of bytes to aim for in one batch */
+    public static final int DEFAULT_TARGET_BYTES_PER_BATCH = 1024 * 1024;
+
+    /** default time, in milliseconds, to aim for from sending a getMore until its reply is read */
+    public static final long DEFAULT_TARGET_LATENCY_MS = 100;
+
+    /** default size of the first getMore */
+    public static final int DEFAULT_INITIAL_BATCH_SIZE = 100;
+
+    // weight of the newest batch in the moving averages
+    private static final double SMOOTHING = 0.5;
+
+    private final int targetBytesPerBatch;
+    private final long targetLatencyNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+
+    private int batchSize;
+    private double bytesPerDocument = -1;
+
+    public AdaptiveBatchSizePolicy() {
+        this(DEFAULT_TARGET_BYTES_PER_BATCH, DEFAULT_TARGET_LATENCY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param targetBytesPerBatch  bytes to aim for in one batch
+     * @param targetLatency        longest time a getMore should take
+     * @param unit                 unit of targetLatency
+     */
+    public AdaptiveBatchSizePolicy(int targetBytesPerBatch, long targetLatency, TimeUnit unit) {
+        this(targetBytesPerBatch, targetLatency, unit, DEFAULT_INITIAL_BATCH_SIZE, 2, 10000);
+    }
+
+    /**
+     * @param targetBytesPerBatch  bytes to aim for in one batch
+     * @param targetLatency        longest time a getMore should take
+     * @param unit                 unit of targetLatency
+     * @param initialBatchSize     size of the first getMore
+     * @param minBatchSize         smallest size asked for, at least 2 (a size of 1 closes the cursor)
+     * @param maxBatchSize         largest size asked for
+     */
+    public AdaptiveBatchSizePolicy(int targetBytesPerBatch, long targetLatency, TimeUnit unit,
+                                   int initialBatchSize, int minBatchSize, int maxBatchSize) {
+        if (targetBytesPerBatch <= 0) throw new IllegalArgumentException("targetBytesPerBatch must be positive");
+        if (targetLatency <= 0) throw new IllegalArgumentException("targetLatency must be positive");
+        if (minBatchSize < 2 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("need 2 <= minBatchSize <= maxBatchSize");
+        }
+        this.targetBytesPerBatch = targetBytesPerBatch;
+        this.targetLatencyNanos = unit.toNanos(targetLatency);
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = clamp(initialBatchSize, minBatchSize, maxBatchSize);
+    }
+
+    @Override
+    public synchronized int nextBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public synchronized void batchReceived(int documents, int bytes, long latencyNanos) {
+        if (documents <= 0) return;        // the last, empty, batch says nothing about the documents
+
+        final double observed = (double) bytes / documents;
+        bytesPerDocument = bytesPerDocument < 0 ? observed : SMOOTHING * observed + (1 - SMOOTHING) * bytesPerDocument;
+
+        double wanted = targetBytesPerBatch / bytesPerDocument;
+        if (latencyNanos > targetLatencyNanos) {
+            // assume the time grows with the number of documents
+            wanted = Math.min(wanted, (double) documents * targetLatencyNanos / latencyNanos);
+        }
+
+        final int stepped = (int) Math.max(batchSize / 2, Math.min(2L * batchSize, (long) wanted));
+        batchSize = clamp(stepped, minBatchSize, maxBatchSize);
+    }
+
+    /** @return the moving average of the bytes per document, -1 before the first batch */
+    public synchronized double getBytesPerDocument() {
+        return bytesPerDocument;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveBatchSizePolicy{batchSize=" + batchSize + ", bytesPerDocument=" + bytesPerDocument + '}';
+    }
+}
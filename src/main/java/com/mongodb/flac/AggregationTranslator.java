@@ -0,0 +1,321 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.bson.BSONObject;
+import org.bson.types.Code;
+import org.bson.types.CodeWScope;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * AggregationTranslator turns group and map-reduce commands into aggregation stages, so {@link RedactedDBCollection}
+ * can run them after "$redact" without writing the redacted documents anywhere.  JavaScript can't run inside an
+ * aggregation, so only functions of a few common shapes are translated:
+ * <ul>
+ *     <li>a group "$reduce" whose statements each add to or push onto a field of the result, e.g.
+ *     <tt>function (curr, result) { result.total += curr.amount; result.count++; result.names.push(curr.name); }</tt>,
+ *     with the starting values of those fields in "initial", becomes a "$group" with "$sum" and "$push"</li>
+ *     <li>a map that emits a field, or each element of an array field, e.g.
+ *     <tt>function () { emit(this.country, this.size); }</tt> or
+ *     <tt>function () { this.tags.forEach(function (tag) { emit(tag, 1); }); }</tt>, becomes a "$group" on the field,
+ *     after an "$unwind" for the second shape</li>
+ *     <li>a map-reduce reduce returning <tt>Array.sum(values)</tt>, <tt>Math.max.apply(Math, values)</tt> or
+ *     <tt>Math.min.apply(Math, values)</tt> becomes "$sum", "$max" or "$min"</li>
+ * </ul>
+ * Anything else, e.g. a "keyf", a finalize function, a scope, or a map-reduce output other than inline or replace,
+ * is rejected with an IllegalArgumentException.  Unlike the JavaScript, sums skip missing and non numeric values,
+ * as "$sum" does.
+ */
+final class AggregationTranslator {
+
+    private static final String IDENTIFIER = "[A-Za-z_$][\\w$]*";
+    private static final String PATH = IDENTIFIER + "(?:\\." + IDENTIFIER + ")*";
+    private static final String NUMBER = "-?\\d+(?:\\.\\d+)?";
+
+    private static final Pattern FUNCTION = Pattern.compile(
+            "\\s*function\\s*\\(\\s*(?:(" + IDENTIFIER + ")\\s*(?:,\\s*(" + IDENTIFIER + ")\\s*)?)?\\)\\s*\\{(.*)\\}\\s*", Pattern.DOTALL);
+    private static final Pattern EMIT = Pattern.compile(
+            "emit\\s*\\(\\s*this\\.(" + PATH + ")\\s*,\\s*(" + NUMBER + "|this\\." + PATH + ")\\s*\\)\\s*;?", Pattern.DOTALL);
+    private static final Pattern EMIT_EACH = Pattern.compile(
+            "this\\.(" + PATH + ")\\.forEach\\s*\\(\\s*function\\s*\\(\\s*(" + IDENTIFIER + ")\\s*\\)\\s*\\{\\s*"
+                    + "emit\\s*\\(\\s*\\2\\s*,\\s*(" + NUMBER + ")\\s*\\)\\s*;?\\s*\\}\\s*\\)\\s*;?", Pattern.DOTALL);
+
+    private static final Map<String, String> REDUCE_ACCUMULATORS = new LinkedHashMap<String, String>();
+
+    static {
+        REDUCE_ACCUMULATORS.put("Array.sum(%s)", "$sum");
+        REDUCE_ACCUMULATORS.put("Math.max.apply(Math,%s)", "$max");
+        REDUCE_ACCUMULATORS.put("Math.max.apply(null,%s)", "$max");
+        REDUCE_ACCUMULATORS.put("Math.min.apply(Math,%s)", "$min");
+        REDUCE_ACCUMULATORS.put("Math.min.apply(null,%s)", "$min");
+    }
+
+    private static final Set<String> GROUP_FIELDS = new HashSet<String>(Arrays.asList(
+            "ns", "key", "cond", "initial", "$reduce", "finalize"));
+    private static final Set<String> MAP_REDUCE_FIELDS = new HashSet<String>(Arrays.asList(
+            "mapreduce", "mapReduce", "map", "reduce", "out", "query", "sort", "limit", "finalize", "scope", "verbose",
+            "jsMode", "maxTimeMS"));
+
+    private AggregationTranslator() {
+    }
+
+    /**
+     * the stages of a group command, and how to turn their output into the command's records.
+     */
+    static final class Group {
+        /** "$match" on the condition, if any, and "$group" */
+        final List<DBObject> pipeline;
+        private final List<String> keys;
+        private final DBObject initial;
+        private final Set<String> summed;
+        private final Set<String> pushed;
+
+        private Group(List<DBObject> pipeline, List<String> keys, DBObject initial, Set<String> summed, Set<String> pushed) {
+            this.pipeline = pipeline;
+            this.keys = keys;
+            this.initial = initial;
+            this.summed = summed;
+            this.pushed = pushed;
+        }
+
+        /**
+         * @param grouped  a document read from the pipeline
+         * @return the record the group command returns for it: the key fields, then the fields of initial
+         */
+        DBObject toRecord(DBObject grouped) {
+            final BasicDBObject record = new BasicDBObject();
+            final Object id = grouped.get("_id");
+            for (int i = 0; i < keys.size(); i++) {
+                record.put(keys.get(i), id instanceof BSONObject ? ((BSONObject) id).get("k" + i) : null);
+            }
+            for (String field : initial.keySet()) {
+                final Object start = initial.get(field);
+                if (summed.contains(field)) {
+                    record.put(field, add((Number) start, (Number) grouped.get(field)));
+                } else if (pushed.contains(field)) {
+                    final List<Object> values = new ArrayList<Object>((List<?>) start);
+                    if (grouped.get(field) instanceof List) values.addAll((List<?>) grouped.get(field));
+                    record.put(field, values);
+                } else {
+                    record.put(field, start);
+                }
+            }
+            return record;
+        }
+    }
+
+    /**
+     * the stages of a map-reduce: "$match", "$sort" and "$limit" on the input, if asked for, "$unwind" for a map
+     * emitting array elements, "$group" and "$sort" on "_id", and "$out" for a replace output.
+     */
+    static final class MapReduce {
+        final List<DBObject> pipeline;
+        /** the collection written by "$out", null for inline output */
+        final String outputCollection;
+
+        private MapReduce(List<DBObject> pipeline, String outputCollection) {
+            this.pipeline = pipeline;
+            this.outputCollection = outputCollection;
+        }
+    }
+
+    /**
+     * @param args  the arguments of a group command, e.g. <tt>GroupCommand.toDBObject().get("group")</tt>
+     * @return the translated command
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    static Group group(DBObject args) {
+        for (String field : args.keySet()) {
+            if (!GROUP_FIELDS.contains(field)) reject("group", field + " is not supported");
+        }
+        if (args.get("finalize") != null) reject("group", "a finalize function is not supported");
+
+        final Matcher reduce = function("group", args.get("$reduce"));
+        final String current = reduce.group(1);
+        final String result = reduce.group(2);
+        if (current == null || result == null) reject("group", "$reduce must take the document and the result");
+
+        final DBObject initial = args.get("initial") == null ? new BasicDBObject() : (DBObject) args.get("initial");
+        final Set<String> summed = new HashSet<String>();
+        final Set<String> pushed = new HashSet<String>();
+        final BasicDBObject accumulators = new BasicDBObject();
+
+        final Pattern addField = Pattern.compile(Pattern.quote(result) + "\\.(" + IDENTIFIER + ")\\s*\\+=\\s*"
+                + Pattern.quote(current) + "\\.(" + PATH + ")");
+        final Pattern addNumber = Pattern.compile(Pattern.quote(result) + "\\.(" + IDENTIFIER + ")\\s*\\+=\\s*(" + NUMBER + ")");
+        final Pattern increment = Pattern.compile("\\+\\+\\s*" + Pattern.quote(result) + "\\.(" + IDENTIFIER + ")|"
+                + Pattern.quote(result) + "\\.(" + IDENTIFIER + ")\\s*\\+\\+");
+        final Pattern push = Pattern.compile(Pattern.quote(result) + "\\.(" + IDENTIFIER + ")\\.push\\s*\\(\\s*"
+                + Pattern.quote(current) + "\\.(" + PATH + ")\\s*\\)");
+        for (String statement : reduce.group(3).split("[;\\n]")) {
+            statement = statement.trim();
+            if (statement.isEmpty()) continue;
+
+            final String field;
+            final DBObject accumulator;
+            Matcher matcher;
+            if ((matcher = addField.matcher(statement)).matches()) {
+                field = matcher.group(1);
+                accumulator = new BasicDBObject("$sum", "$" + matcher.group(2));
+                summed.add(field);
+            } else if ((matcher = addNumber.matcher(statement)).matches()) {
+                field = matcher.group(1);
+                accumulator = new BasicDBObject("$sum", number(matcher.group(2)));
+                summed.add(field);
+            } else if ((matcher = increment.matcher(statement)).matches()) {
+                field = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+                accumulator = new BasicDBObject("$sum", 1);
+                summed.add(field);
+            } else if ((matcher = push.matcher(statement)).matches()) {
+                field = matcher.group(1);
+                accumulator = new BasicDBObject("$push", "$" + matcher.group(2));
+                pushed.add(field);
+            } else {
+                throw rejection("group", "can't translate the statement \"" + statement + "\" of $reduce");
+            }
+
+            if (field.equals("_id") || accumulators.containsField(field)) {
+                reject("group", "$reduce changes " + field + " more than once");
+            }
+            if (summed.contains(field) && !(initial.get(field) instanceof Number)) {
+                reject("group", "initial must hold the number " + field + " starts from");
+            }
+            if (pushed.contains(field) && !(initial.get(field) instanceof List)) {
+                reject("group", "initial must hold the array " + field + " starts from");
+            }
+            accumulators.put(field, accumulator);
+        }
+
+        final List<String> keys = new ArrayList<String>();
+        final BasicDBObject id = new BasicDBObject();
+        if (args.get("key") instanceof DBObject) {
+            for (String key : ((DBObject) args.get("key")).keySet()) {
+                id.put("k" + keys.size(), "$" + key);
+                keys.add(key);
+            }
+        }
+        final List<DBObject> pipeline = new ArrayList<DBObject>();
+        final DBObject cond = (DBObject) args.get("cond");
+        if (cond != null && !cond.keySet().isEmpty()) {
+            pipeline.add(new BasicDBObject("$match", cond));
+        }
+        final BasicDBObject group = new BasicDBObject("_id", keys.isEmpty() ? null : id);
+        group.putAll((BSONObject) accumulators);
+        pipeline.add(new BasicDBObject("$group", group));
+        return new Group(pipeline, keys, initial, summed, pushed);
+    }
+
+    /**
+     * @param command         a map-reduce command, e.g. <tt>MapReduceCommand.toDBObject()</tt>
+     * @param collectionName  the collection the map-reduce has to run on
+     * @param databaseName    the database of that collection, "$out" can't write to another one
+     * @return the translated command
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    static MapReduce mapReduce(DBObject command, String collectionName, String databaseName) {
+        for (String field : command.keySet()) {
+            if (!MAP_REDUCE_FIELDS.contains(field)) reject("mapReduce", field + " is not supported");
+        }
+        final Object input = command.containsField("mapreduce") ? command.get("mapreduce") : command.get("mapReduce");
+        if (!collectionName.equals(input)) reject("mapReduce", "it has to run on " + collectionName + ", not " + input);
+        if (command.get("finalize") != null) reject("mapReduce", "a finalize function is not supported");
+        if (command.get("scope") instanceof BSONObject && !((BSONObject) command.get("scope")).keySet().isEmpty()) {
+            reject("mapReduce", "a scope is not supported");
+        }
+
+        final List<DBObject> pipeline = new ArrayList<DBObject>();
+        final DBObject query = (DBObject) command.get("query");
+        if (query != null && !query.keySet().isEmpty()) pipeline.add(new BasicDBObject("$match", query));
+        final DBObject sort = (DBObject) command.get("sort");
+        if (sort != null && !sort.keySet().isEmpty()) pipeline.add(new BasicDBObject("$sort", sort));
+        if (command.get("limit") instanceof Number && ((Number) command.get("limit")).intValue() > 0) {
+            pipeline.add(new BasicDBObject("$limit", ((Number) command.get("limit")).intValue()));
+        }
+
+        final String key;
+        final Object value;
+        final String body = function("mapReduce", command.get("map")).group(3).trim();
+        Matcher map;
+        if ((map = EMIT.matcher(body)).matches()) {
+            key = map.group(1);
+            value = map.group(2).startsWith("this.") ? "$" + map.group(2).substring("this.".length()) : number(map.group(2));
+        } else if ((map = EMIT_EACH.matcher(body)).matches()) {
+            key = map.group(1);
+            value = number(map.group(3));
+            pipeline.add(new BasicDBObject("$unwind", "$" + key));
+        } else {
+            throw rejection("mapReduce", "can't translate the map function " + body);
+        }
+
+        final Matcher reduce = function("mapReduce", command.get("reduce"));
+        final String values = reduce.group(2);
+        final String returned = reduce.group(3).replaceAll("\\s", "");
+        String accumulator = null;
+        if (values != null && returned.startsWith("return")) {
+            final String expression = returned.substring("return".length()).replaceAll(";$", "");
+            for (Map.Entry<String, String> entry : REDUCE_ACCUMULATORS.entrySet()) {
+                if (String.format(entry.getKey(), values).equals(expression)) accumulator = entry.getValue();
+            }
+        }
+        if (accumulator == null) reject("mapReduce", "can't translate the reduce function " + reduce.group(3).trim());
+
+        pipeline.add(new BasicDBObject("$group", new BasicDBObject("_id", "$" + key).append("value", new BasicDBObject(accumulator, value))));
+        pipeline.add(new BasicDBObject("$sort", new BasicDBObject("_id", 1)));
+
+        final String outputCollection = outputCollection(command.get("out"), databaseName);
+        if (outputCollection != null) pipeline.add(new BasicDBObject("$out", outputCollection));
+        return new MapReduce(pipeline, outputCollection);
+    }
+
+    /** @return the collection to replace, or null for inline output */
+    private static String outputCollection(Object out, String databaseName) {
+        if (out instanceof String) return (String) out;
+        if (!(out instanceof BSONObject)) throw rejection("mapReduce", "out must be a collection name or a document");
+        final BSONObject output = (BSONObject) out;
+        if (output.containsField("db") && !databaseName.equals(output.get("db"))) {
+            reject("mapReduce", "$out can't write to the database " + output.get("db"));
+        }
+        for (String field : output.keySet()) {
+            if (!field.equals("db") && !field.equals("inline") && !field.equals("replace")) {
+                reject("mapReduce", "only inline and replace output are supported, not " + JSON.serialize(out));
+            }
+        }
+        if (output.get("replace") instanceof String) return (String) output.get("replace");
+        if (output.containsField("inline")) return null;
+        throw rejection("mapReduce", "only inline and replace output are supported, not " + JSON.serialize(out));
+    }
+
+    private static Matcher function(String command, Object function) {
+        if (function instanceof CodeWScope) reject(command, "a scope is not supported");
+        final String code = function instanceof Code ? ((Code) function).getCode() : function instanceof String ? (String) function : null;
+        final Matcher matcher = code == null ? null : FUNCTION.matcher(code);
+        if (matcher == null || !matcher.matches()) throw rejection(command, "can't translate " + function);
+        return matcher;
+    }
+
+    private static Number number(String literal) {
+        return literal.contains(".") ? (Number) Double.valueOf(literal) : (Number) Integer.valueOf(literal);
+    }
+
+    private static Number add(Number a, Number b) {
+        if (b == null) return a;
+        if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+            return a.doubleValue() + b.doubleValue();
+        }
+        final long sum = a.longValue() + b.longValue();
+        return a instanceof Long || b instanceof Long || sum != (int) sum ? (Number) sum : (Number) (int) sum;
+    }
+
+    private static void reject(String command, String reason) {
+        throw rejection(command, reason);
+    }
+
+    private static IllegalArgumentException rejection(String command, String reason) {
+        return new IllegalArgumentException("can't run " + command + " on a RedactedDBCollection, " + reason
+                + ", see AggregationTranslator for what can be translated to an aggregation");
+    }
+}
@@ -0,0 +1,415 @@
+package com.mongodb.flac;
+
+import com.mongodb.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientRedactedDBCursor is a DBCursor over a plain find whose documents are redacted in Java, see
+ * {@link ClientRedactionEngine}.
+ *
+ * <p> Index and fetch related calls (sort, hint, explain, batchSize, prefetch, maxTime, allowDiskUse, comment, ...) are passed on
+ * to the underlying cursor.  skip and limit are counted here, after redaction, since documents the user may not see must not take up
+ * a place in the page.
+ * </p>
+ *
+ * <p> sort, min and max run before redaction, so they are refused on fields the collection's {@link LabelSchema} can't
+ * show are unaffected by redaction: the order, or the documents a range returns, would tell the user about values they
+ * may not see.
+ * </p>
+ */
+class ClientRedactedDBCursor extends com.mongodb.DBCursor {
+
+    private final DBObject query;
+    private final com.mongodb.DBCursor source;
+    private final RedactionEvaluator evaluator;
+    private final RedactionEvaluator.WidenedProjection projection;
+    private final DBObject keysWanted;
+    private final LabelSchema labelSchema;
+
+    private int skip = 0;
+    private int limit = 0;
+    private int numSeen = 0;
+    private boolean skipped = false;
+    private DBObject next;
+    private DBObject current;
+    private boolean arrayMode = false;
+    private final List<DBObject> all = new ArrayList<DBObject>();
+
+    /**
+     * @param query       the user's query
+     * @param source      cursor over the wrapped collection, its projection already holds the needed "sl" fields
+     * @param evaluator   redacts for the user
+     * @param projection  the widened projection used by source
+     * @param keysWanted  the projection the user asked for
+     * @param labelSchema the collection's labelled paths, sort, min and max may only use fields outside them
+     */
+    ClientRedactedDBCursor(DBObject query, com.mongodb.DBCursor source, RedactionEvaluator evaluator,
+                           RedactionEvaluator.WidenedProjection projection, DBObject keysWanted, LabelSchema labelSchema) {
+        this.query = query;
+        this.source = source;
+        this.evaluator = evaluator;
+        this.projection = projection;
+        this.keysWanted = keysWanted;
+        this.labelSchema = labelSchema;
+    }
+
+    @Override
+    public com.mongodb.DBCursor copy() {
+        final ClientRedactedDBCursor copy = new ClientRedactedDBCursor(query, source.copy(), evaluator, projection, keysWanted, labelSchema);
+        copy.skip = skip;
+        copy.limit = limit;
+        return copy;
+    }
+
+    @Override
+    public Iterator<DBObject> iterator() {
+        return copy();
+    }
+
+    @Override
+    public com.mongodb.DBCursor comment(String comment) {
+        source.comment(comment);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor maxScan(int max) {
+        source.maxScan(max);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor max(DBObject max) {
+        checkUnaffectedByRedaction("max", max);
+        source.max(max);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor min(DBObject min) {
+        checkUnaffectedByRedaction("min", min);
+        source.min(min);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor returnKey() {
+        throw new UnsupportedOperationException("returnKey would return index keys without their security labels");
+    }
+
+    @Override
+    public com.mongodb.DBCursor showDiskLoc() {
+        source.showDiskLoc();
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor sort(DBObject orderBy) {
+        checkUnaffectedByRedaction("sort", orderBy);
+        source.sort(orderBy);
+        return this;
+    }
+
+    private void checkUnaffectedByRedaction(String modifier, DBObject keys) {
+        if (keys == null) return;
+        for (String key : keys.keySet()) {
+            if (key.startsWith("$")) continue;      // $natural
+            if (!labelSchema.isUnaffectedByRedaction(key)) {
+                throw new IllegalArgumentException("can't " + modifier + " on \"" + key + "\", it may be redacted, see "
+                        + labelSchema + ", use the ServerRedactionEngine");
+            }
+        }
+    }
+
+    @Override
+    public com.mongodb.DBCursor addSpecial(String name, Object o) {
+        if ("$returnKey".equals(name)) return returnKey();
+        if ("$orderby".equals(name)) return sort((DBObject) o);
+        if ("$min".equals(name)) return min((DBObject) o);
+        if ("$max".equals(name)) return max((DBObject) o);
+        source.addSpecial(name, o);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor hint(DBObject indexKeys) {
+        source.hint(indexKeys);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor hint(String indexName) {
+        source.hint(indexName);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor maxTime(long maxTime, TimeUnit timeUnit) {
+        source.maxTime(maxTime, timeUnit);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor allowDiskUse(boolean allowDiskUse) {
+        source.allowDiskUse(allowDiskUse);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor snapshot() {
+        source.snapshot();
+        return this;
+    }
+
+    @Override
+    public DBObject explain() {
+        return source.explain();
+    }
+
+    @Override
+    public com.mongodb.DBCursor limit(int n) {
+        if (next != null || current != null) throw new IllegalStateException("can't limit a cursor that has been used");
+        this.limit = Math.abs(n);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor batchSize(int n) {
+        source.batchSize(n);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor batchSizePolicy(BatchSizePolicy policy) {
+        source.batchSizePolicy(policy);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor prefetch(int depth) {
+        source.prefetch(depth);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor skip(int n) {
+        if (next != null || current != null) throw new IllegalStateException("can't skip on a cursor that has been used");
+        this.skip = n;
+        return this;
+    }
+
+    @Override
+    public long getCursorId() {
+        return source.getCursorId();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    @Override
+    @Deprecated
+    public com.mongodb.DBCursor slaveOk() {
+        source.slaveOk();
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor addOption(int option) {
+        source.addOption(option);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor setOptions(int options) {
+        source.setOptions(options);
+        return this;
+    }
+
+    @Override
+    public com.mongodb.DBCursor resetOptions() {
+        source.resetOptions();
+        return this;
+    }
+
+    @Override
+    public int getOptions() {
+        return source.getOptions();
+    }
+
+    @Override
+    @Deprecated
+    public int numGetMores() {
+        return source.numGetMores();
+    }
+
+    @Override
+    @Deprecated
+    public List<Integer> getSizes() {
+        return source.getSizes();
+    }
+
+    @Override
+    public int numSeen() {
+        return numSeen;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (limit > 0 && numSeen >= limit) return false;
+        if (!skipped) {
+            skipped = true;
+            for (int i = 0; i < skip; i++) {
+                if (fetchNextRedacted() == null) return false;
+            }
+        }
+        next = fetchNextRedacted();
+        return next != null;
+    }
+
+    @Override
+    public DBObject next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        current = next;
+        next = null;
+        numSeen++;
+        if (arrayMode) all.add(current);
+        return current;
+    }
+
+    /** @return the next document the user may see, already redacted, or null at the end */
+    private DBObject fetchNextRedacted() {
+        while (source.hasNext()) {
+            final DBObject redacted = evaluator.redact(source.next());
+            if (redacted != null) {
+                projection.strip(redacted);
+                if (keysWanted != null && keysWanted.keySet().size() > 0) {
+                    redacted.markAsPartialObject();
+                }
+                return redacted;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DBObject curr() {
+        return current;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("can't remove from a cursor");
+    }
+
+    @Override
+    public int length() {
+        return toArray().size();
+    }
+
+    @Override
+    public List<DBObject> toArray() {
+        return toArray(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<DBObject> toArray(int max) {
+        if (!arrayMode && numSeen > 0) throw new IllegalArgumentException("can't switch cursor access methods");
+        arrayMode = true;
+        while (all.size() < max && hasNext()) {
+            next();
+        }
+        return all;
+    }
+
+    /**
+     * Counts the number of documents the user may see that match the query, skip and limit are not considered.
+     * The whole result is read to find out.
+     */
+    @Override
+    public int count() {
+        final com.mongodb.DBCursor scan = source.copy();
+        try {
+            int n = 0;
+            while (scan.hasNext()) {
+                if (evaluator.isAccessible(scan.next())) n++;
+            }
+            return n;
+        } finally {
+            scan.close();
+        }
+    }
+
+    @Override
+    public DBObject one() {
+        final com.mongodb.DBCursor first = copy().limit(1);
+        try {
+            return first.hasNext() ? first.next() : null;
+        } finally {
+            first.close();
+        }
+    }
+
+    /**
+     * Counts the number of documents the user may see that match the query, taking skip and limit into account.
+     */
+    @Override
+    public int size() {
+        final int n = Math.max(0, count() - skip);
+        return limit > 0 ? Math.min(n, limit) : n;
+    }
+
+    @Override
+    public DBObject getKeysWanted() {
+        return keysWanted;
+    }
+
+    @Override
+    public DBObject getQuery() {
+        return query;
+    }
+
+    @Override
+    public DBCollection getCollection() {
+        throw new UnsupportedOperationException("the wrapped collection of a redacted cursor is not handed out");
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return source.getServerAddress();
+    }
+
+    @Override
+    public com.mongodb.DBCursor setReadPreference(ReadPreference preference) {
+        source.setReadPreference(preference);
+        return this;
+    }
+
+    @Override
+    public ReadPreference getReadPreference() {
+        return source.getReadPreference();
+    }
+
+    @Override
+    public com.mongodb.DBCursor setDecoderFactory(DBDecoderFactory fact) {
+        source.setDecoderFactory(fact);
+        return this;
+    }
+
+    @Override
+    public DBDecoderFactory getDecoderFactory() {
+        return source.getDecoderFactory();
+    }
+
+    @Override
+    public String toString() {
+        return "ClientRedactedDBCursor{" + source + ", " + evaluator.getSecurityPrincipal() + '}';
+    }
+}
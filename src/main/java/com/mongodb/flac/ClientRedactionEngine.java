@@ -0,0 +1,87 @@
+package com.mongodb.flac;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.util.JSON;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * ClientRedactionEngine runs a plain find against the wrapped collection and redacts the documents in Java with a
+ * {@link RedactionEvaluator} as they are read.
+ *
+ * <p> Because the server sees an ordinary query, indexes, hint, $text, explain and batchSize all work as they do on
+ * an unprotected collection.  The price is that the query and sort are evaluated <b>before</b> redaction: a query on
+ * a field the user may not see would tell the user something about that field's value, even though the field itself
+ * is never returned.  So queries, sorts, min and max are refused with an IllegalArgumentException unless the
+ * collection's {@link LabelSchema} shows that every field they use is unaffected by redaction; with
+ * {@link LabelSchema#UNKNOWN} only unfiltered, unsorted finds are allowed.  Use the {@link ServerRedactionEngine} for
+ * the others.  skip and limit are applied after redaction, on the client.
+ * </p>
+ *
+ * <p> Evaluators are built once per {@link SecurityPrincipal} and shared.
+ * </p>
+ */
+public class ClientRedactionEngine implements RedactionEngine {
+
+    private final SecurityLabelDictionary dictionary;
+    private final boolean useBitsetLabels;
+    private final Cache<SecurityPrincipal, RedactionEvaluator> evaluators =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    public ClientRedactionEngine() {
+        this(SecurityLabelDictionary.getDefault());
+    }
+
+    /**
+     * @param dictionary  term to bit mapping used by the evaluators
+     */
+    public ClientRedactionEngine(SecurityLabelDictionary dictionary) {
+        this(dictionary, false);
+    }
+
+    /**
+     * @param dictionary       term to bit mapping used by the evaluators
+     * @param useBitsetLabels  check "slb" labels where present, dictionary must be the one that encoded them
+     */
+    public ClientRedactionEngine(SecurityLabelDictionary dictionary, boolean useBitsetLabels) {
+        this.dictionary = dictionary;
+        this.useBitsetLabels = useBitsetLabels;
+    }
+
+    @Override
+    public DBCursor find(RedactedDBCollection collection, DBObject query, DBObject keys, ReadPreference readPreference) {
+        final RedactionEvaluator.WidenedProjection projection = RedactionEvaluator.widenProjection(keys);
+        final DBObject redactable = collection.getQueryPlanner().plan(query).getAfterRedact();
+        if (redactable != null && !redactable.keySet().isEmpty()) {
+            throw new IllegalArgumentException("can't query " + JSON.serialize(redactable) + ", it may use redacted fields, see "
+                    + collection.getLabelSchema() + ", use the ServerRedactionEngine");
+        }
+        final DBObject preFilteredQuery = RedactionQueryPlanner.and(query, collection.getDocumentLevelPreFilter());
+        final DBCursor source = collection.getWrappedCollection().find(preFilteredQuery, projection.keys).setReadPreference(readPreference);
+        return new ClientRedactedDBCursor(query, source, getEvaluator(collection.getSecurityPrincipal()), projection, keys,
+                collection.getLabelSchema());
+    }
+
+    /**
+     * @param securityPrincipal  the user's expanded terms
+     * @return the shared evaluator for the principal
+     */
+    public RedactionEvaluator getEvaluator(final SecurityPrincipal securityPrincipal) {
+        try {
+            return evaluators.get(securityPrincipal, new Callable<RedactionEvaluator>() {
+                @Override
+                public RedactionEvaluator call() throws Exception {
+                    return new RedactionEvaluator(securityPrincipal, dictionary, useBitsetLabels);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.mongodb.flac;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.mongodb.*;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -28,6 +30,53 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     private Cursor aggregationPipelineOut;
 
+    /** batchSize asked for with {@link #batchSize(int)}, 0 for the server's default */
+    private int batchSize = 0;
+
+    /** read-ahead asked for with {@link #prefetch(int)}, 0 for none */
+    private int prefetchDepth = 0;
+
+    /** set with {@link #maxTime(long, TimeUnit)}, 0 for no limit */
+    private long maxTimeMS = 0;
+
+    /** set with {@link #allowDiskUse(boolean)} */
+    private boolean allowDiskUse = false;
+
+    /** set with {@link #batchSizePolicy(BatchSizePolicy)}, null for the fixed batch size */
+    private BatchSizePolicy batchSizePolicy = null;
+
+    /** the part of the query matched after "$redact", null if there is none */
+    private DBObject residualQuery;
+
+    /** the projection given by the caller, null if there is none; unlike fields, without a placeholder */
+    private DBObject fieldsAskedFor;
+
+    /**
+     * recorded by {@link #sort}, {@link #skip}, {@link #limit} and {@link #maxScan}, and only turned into stages when
+     * the pipeline runs, see {@link #buildPipeline(boolean, boolean)}; null or 0 when not asked for.
+     */
+    private DBObject orderBy = null;
+    private int skipCount = 0;
+    private int limitCount = 0;
+    private int maxScanCount = 0;
+
+    /** the pipeline that ran, null before it did */
+    private List<DBObject> executedPipeline = null;
+
+    /** documents read by {@link #toArray(int)} on the aggregation */
+    private final List<DBObject> all = new ArrayList<DBObject>();
+
+    /** set with {@link #share}, null when results are not cached or not shared with concurrent finds */
+    private RedactedResultCache resultCache = null;
+    private ReadCoalescer readCoalescer = null;
+    private String sharedNamespace;
+    private SecurityPrincipal sharedPrincipal;
+
+    /** the key of the result, and while a result that was not cached is read: the namespace's generation and read only copies so far */
+    private RedactedResultCache.Key resultKey = null;
+    private long resultGeneration;
+    private List<DBObject> resultDocuments = null;
+
 //    /**
 //     * Initializes a new database cursor
 //     * @param queryResultIterator collection to use for iterating over
@@ -76,6 +125,21 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
      * @param readPreference the Read Preference for this query
      */
     public DBCursorBasedOnQueryResultIterator(List<DBObject> aggregationPipeline, DBCollection dbCollectionSrc,  DBObject query, DBObject fields, ReadPreference readPreference) {
+        this(aggregationPipeline, dbCollectionSrc, query, query, fields, readPreference);
+    }
+
+    /**
+     * Initializes a new database cursor based on an aggregation pipeline, where part of the query has already been
+     * put into the pipeline, see {@link RedactionQueryPlanner}.
+     *
+     * @param aggregationPipeline  aggregation Pipeline iterating over
+     * @param dbCollectionSrc  the source DBCollection that the aggregation Pipeline iterates over
+     * @param query the user's whole query, reported by {@link #getQuery()}
+     * @param residualQuery the part of query still to be appended as a "$match", may be null
+     * @param fields projecting fields  to return from the query
+     * @param readPreference the Read Preference for this query
+     */
+    DBCursorBasedOnQueryResultIterator(List<DBObject> aggregationPipeline, DBCollection dbCollectionSrc,  DBObject query, DBObject residualQuery, DBObject fields, ReadPreference readPreference) {
         this.aggregationPipeline = aggregationPipeline;
         this.dbCollectionSrc = dbCollectionSrc;
         this.query = query;
@@ -84,31 +148,68 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
         if (this.fields == null) this.fields = new BasicDBObject("p8p8_placeholder", 0);
         this.readPreference = readPreference;
         super.setReadPreference(readPreference);
-        if (query != null) { appendQueryToAggregationPipeline(this.query); }
-        if (fields != null) { appendMatchToAggregationPipeline(this.fields); }
-
-    }
+        this.residualQuery = residualQuery;
+        this.fieldsAskedFor = fields;
+        if (residualQuery != null) { appendQueryToAggregationPipeline(residualQuery); }
 
-    private void appendMatchToAggregationPipeline(DBObject keys) {
-        if (dbObjectHasData(keys)) appendClauseToAggregationPipeline("$project", keys);
     }
 
-    private void appendQueryToAggregationPipeline(DBObject criteria) {
-        if (dbObjectHasData(criteria)) appendClauseToAggregationPipeline("$match", criteria);
+    /**
+     * look the result up in resultCache before running the pipeline, and store it there once it has been read to the
+     * end.  Share the pipeline with identical finds running at the same time through readCoalescer.
+     *
+     * @param resultCache    the cache, or null
+     * @param readCoalescer  the coalescer, or null
+     * @param namespace      full name of the wrapped collection
+     * @param principal      the user the pipeline redacts for
+     */
+    void share(RedactedResultCache resultCache, ReadCoalescer readCoalescer, String namespace, SecurityPrincipal principal) {
+        this.resultCache = resultCache;
+        this.readCoalescer = readCoalescer;
+        this.sharedNamespace = namespace;
+        this.sharedPrincipal = principal;
     }
 
+    /**
+     * the pipeline to run: the stages given to the constructor, up to and including the query's "$match", followed
+     * by the cursor modifiers in the order find applies them, no matter in which order they were called:
+     * <tt><pre>
+     *    [ $match ], [ $limit: maxScan ], [ $project: pushdown ], $redact, [ $match ], [ $sort ], [ $skip ], [ $limit ], [ $project ]
+     * </pre></tt>
+     * A "$sort" directly followed by a "$limit" lets the server keep just the top documents instead of sorting them
+     * all.  maxScan limits the documents read before they are redacted, the pushdown "$project" is described at
+     * {@link RedactionQueryPlanner#pushdownProjection}; a count gets {@link RedactionQueryPlanner#countProjection}
+     * instead, which keeps no payload at all.
+     *
+     * @param forCount  true to leave out what does not change the number of documents: the user's projection and "$sort"
+     * @param applySkipAndLimit  false to leave out "$skip" and "$limit"
+     * @return a new list of stages
+     */
+    @VisibleForTesting
+    List<DBObject> buildPipeline(boolean forCount, boolean applySkipAndLimit) {
+        final List<DBObject> pipeline = new ArrayList<DBObject>(this.aggregationPipeline);
 
+        int redactAt = 0;
+        while (redactAt < pipeline.size() && !pipeline.get(redactAt).containsField("$redact")) redactAt++;
+        final DBObject pushdown = forCount ? RedactionQueryPlanner.countProjection(residualQuery)
+                : RedactionQueryPlanner.pushdownProjection(fieldsAskedFor, residualQuery, orderBy);
+        if (pushdown != null && redactAt < pipeline.size()) pipeline.add(redactAt, new BasicDBObject("$project", pushdown));
+        if (maxScanCount > 0) pipeline.add(redactAt, new BasicDBObject("$limit", maxScanCount));
 
-    private void appendLimitToAggregationPipeline(Object criteria) {
-        if (dbObjectHasData(criteria)) appendClauseToAggregationPipeline("$limit", criteria);
+        if (!forCount && dbObjectHasData(orderBy)) pipeline.add(new BasicDBObject("$sort", orderBy));
+        if (applySkipAndLimit && skipCount > 0) pipeline.add(new BasicDBObject("$skip", skipCount));
+        if (applySkipAndLimit && limitCount > 0) pipeline.add(new BasicDBObject("$limit", limitCount));
+        if (!forCount && dbObjectHasData(fieldsAskedFor)) pipeline.add(new BasicDBObject("$project", fieldsAskedFor));
+        return pipeline;
     }
 
-    private void appendSortToAggregationPipeline(Object orderBy) {
-        if (dbObjectHasData(orderBy)) appendClauseToAggregationPipeline("$sort", orderBy);
+    private void appendQueryToAggregationPipeline(DBObject criteria) {
+        if (dbObjectHasData(criteria)) appendClauseToAggregationPipeline("$match", criteria);
     }
 
-    private void appendSkipToAggregationPipeline(Object skipBy) {
-        if (dbObjectHasData(skipBy)) appendClauseToAggregationPipeline("$skip", skipBy);
+    /** sort, skip, limit and maxScan change the pipeline, which can't be done once it runs */
+    private void checkNotRun(String modifier) {
+        if (aggregationPipelineOut != null) throw new IllegalStateException("can't " + modifier + " after executing query");
     }
 
     private boolean dbObjectHasData(DBObject dbObject) {
@@ -126,13 +227,6 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
         return false;
     }
 
-    private boolean dbObjectHasData(Object object) {
-        if (object != null) {
-                return true;
-        }
-        return false;
-    }
-
     private void appendClauseToAggregationPipeline(final String clauseKey, Object criteria) {
         if (this.aggregationPipeline == null) {
             throw new IllegalArgumentException("aggregationPipeline must not be null");
@@ -165,7 +259,7 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public com.mongodb.DBCursor maxScan(int max) {
-        if (this.aggregationPipeline != null) { appendLimitToAggregationPipeline(new Integer(max));  return this; }
+        if (this.aggregationPipeline != null) { checkNotRun("maxScan");  this.maxScanCount = max;  return this; }
         return super.maxScan(max);
     }
 
@@ -209,7 +303,7 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public com.mongodb.DBCursor sort(DBObject orderBy) {
-        if (aggregationPipeline != null) { appendSortToAggregationPipeline(orderBy); return this; }
+        if (aggregationPipeline != null) { checkNotRun("sort");  this.orderBy = orderBy;  return this; }
         return super.sort(orderBy);
     }
 
@@ -236,11 +330,17 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public com.mongodb.DBCursor maxTime(long maxTime, TimeUnit timeUnit) {
-        if (aggregationPipeline != null && _ignoreMetaDataCalls == true) { /* ignore */;  return this; }
-        if (aggregationPipeline != null) throw new UnsupportedOperationException("only collection backed DBCursor can honor maxTime");
+        // sent as the aggregate's maxTimeMS, it bounds the whole pipeline including "$redact"
+        if (aggregationPipeline != null) { checkNotRun("set maxTime");  this.maxTimeMS = TimeUnit.MILLISECONDS.convert(maxTime, timeUnit);  return this; }
         return super.maxTime(maxTime, timeUnit);
     }
 
+    @Override
+    public com.mongodb.DBCursor allowDiskUse(boolean allowDiskUse) {
+        if (aggregationPipeline != null) { checkNotRun("set allowDiskUse");  this.allowDiskUse = allowDiskUse;  return this; }
+        return super.allowDiskUse(allowDiskUse);
+    }
+
     @Override
     public com.mongodb.DBCursor snapshot() {
         if (aggregationPipeline != null && _ignoreMetaDataCalls == true) { /* ignore */;  return this; }
@@ -257,20 +357,52 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public com.mongodb.DBCursor limit(int n) {
-        if (this.aggregationPipeline != null) { appendLimitToAggregationPipeline(new Integer(n)); return this; }
+        // limit(0) is no limit, and a negative limit has no "close after one batch" form on an aggregation cursor
+        if (this.aggregationPipeline != null) { checkNotRun("limit");  this.limitCount = Math.abs(n);  return this; }
         return super.limit(n);
     }
 
     @Override
     public com.mongodb.DBCursor batchSize(int n) {
-        if (aggregationPipeline != null && _ignoreMetaDataCalls == true) { /* ignore */;  return this; }
-        //if (aggregationPipeline != null) throw new UnsupportedOperationException("only collection backed DBCursor can honor batchSize");
+        if (aggregationPipeline != null) {
+            // aggregation cursors have no "close after one batch" form, so the sign is dropped
+            this.batchSize = Math.abs(n);
+            if (aggregationPipelineOut instanceof QueryResultIterator) {
+                ((QueryResultIterator) aggregationPipelineOut).setBatchSize(this.batchSize);   // for the later getMore's
+            }
+            return this;
+        }
         return super.batchSize(n);
     }
 
+    @Override
+    public com.mongodb.DBCursor batchSizePolicy(BatchSizePolicy policy) {
+        if (aggregationPipeline != null) {
+            this.batchSizePolicy = policy;
+            if (aggregationPipelineOut instanceof QueryResultIterator) {
+                ((QueryResultIterator) aggregationPipelineOut).setBatchSizePolicy(policy);
+            }
+            return this;
+        }
+        return super.batchSizePolicy(policy);
+    }
+
+    @Override
+    public com.mongodb.DBCursor prefetch(int depth) {
+        if (aggregationPipeline != null) {
+            if (depth < 0) throw new IllegalArgumentException("prefetch depth can't be negative");
+            this.prefetchDepth = depth;
+            if (aggregationPipelineOut instanceof QueryResultIterator) {
+                ((QueryResultIterator) aggregationPipelineOut).setPrefetchDepth(depth);
+            }
+            return this;
+        }
+        return super.prefetch(depth);
+    }
+
     @Override
     public com.mongodb.DBCursor skip(int n) {
-        if (aggregationPipeline != null) { appendSkipToAggregationPipeline(new Integer(n));  return this; }
+        if (aggregationPipeline != null) { checkNotRun("skip");  this.skipCount = n;  return this; }
         return super.skip(n);
     }
 
@@ -282,7 +414,10 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public void close() {
-        if (aggregationPipeline != null) { getAggregationQueryResultIterator().close(); return; }
+        if (aggregationPipeline != null) {
+            if (aggregationPipelineOut != null) aggregationPipelineOut.close();     // nothing to close if it never ran
+            return;
+        }
         super.close();
     }
 
@@ -343,13 +478,30 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public boolean hasNext() {
-        if (aggregationPipeline != null) return getAggregationQueryResultIterator().hasNext();
+        if (aggregationPipeline != null) {
+            final boolean hasNext = getAggregationQueryResultIterator().hasNext();
+            if (!hasNext && resultDocuments != null) {
+                resultCache.put(resultKey, resultGeneration, resultDocuments);      // read to the end, keep it
+                resultDocuments = null;
+            }
+            return hasNext;
+        }
         return super.hasNext();
     }
 
     @Override
     public DBObject next() {
-        if (aggregationPipeline != null) return getAggregationQueryResultIterator().next();
+        if (aggregationPipeline != null) {
+            final DBObject next = getAggregationQueryResultIterator().next();
+            if (resultDocuments != null) {
+                if (resultDocuments.size() < resultCache.getMaxDocumentsPerEntry()) {
+                    resultDocuments.add((DBObject) ReadOnlyDBObject.freeze(next));
+                } else {
+                    resultDocuments = null;     // too large to be cached
+                }
+            }
+            return next;
+        }
         return super.next();
     }
 
@@ -379,17 +531,24 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
      * @throws MongoException
      */
     public int length() {
-        //if (aggregationPipeline != null) throw new UnsupportedOperationException("only collection backed DBCursor can honor length");
+        if (aggregationPipeline != null) return toArray().size();
         return super.length();
     }
 
     @Override
     public List<DBObject> toArray() {
-        return super.toArray();
+        return toArray(Integer.MAX_VALUE);
     }
 
     @Override
     public List<DBObject> toArray(int max) {
+        if (aggregationPipeline != null) {
+            // DBCursor's own array mode would run a find on the collection
+            while (all.size() < max && hasNext()) {
+                all.add(next());
+            }
+            return all;
+        }
         return super.toArray(max);
     }
 
@@ -400,7 +559,7 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
 
     @Override
     public int count() {
-        if (aggregationPipeline != null) { return super.itcount(); } // for aggregationPipeline we need to count as in itcount
+        if (aggregationPipeline != null) { return countByAggregation(false); }
         return super.count();
     }
 
@@ -412,7 +571,11 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
     @Override
     public DBObject one() {
         if (aggregationPipeline != null) {
-            super._it = (QueryResultIterator) getAggregationQueryResultIterator(); // when an aggregation runs (w/o any $out set) it always creates a QueryResultIterator
+            final Cursor out = getAggregationQueryResultIterator();
+            if (!(out instanceof QueryResultIterator)) {
+                return out.hasNext() ? out.next() : null;       // answered from the result cache or a shared aggregation
+            }
+            super._it = (QueryResultIterator) out; // when an aggregation runs (w/o any $out set) it always creates a QueryResultIterator
         }
 
         return super.one();
@@ -427,28 +590,146 @@ class DBCursorBasedOnQueryResultIterator  extends com.mongodb.flac.DBCursor2 {
      *
      * </p>
      *
+     * <p> With a {@link #share result cache} a cached result is returned as a plain Cursor over its
+     *     documents instead, and the pipeline does not run.  With a {@link ReadCoalescer} the cursor is a plain
+     *     Cursor over the documents of an aggregation shared with identical finds running at the same time.
+     * </p>
+     *
      *  */
     public synchronized Cursor getAggregationQueryResultIterator() {
         if (aggregationPipelineOut == null) {
 
             this.aggregationPipeline = (this.aggregationPipeline == null) ? new ArrayList<DBObject>() : this.aggregationPipeline;
-            final AggregationOptions aggregationOptions = AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build();
-            // the following call will return, in general,  a DBCursor or QueryResultIterator. It returns a
-            // QueryResultIterator here, since the aggregation pipeline has no "$out"
-            aggregationPipelineOut = this.dbCollectionSrc.aggregate(this.aggregationPipeline, aggregationOptions, getReadPreference());
+            this.executedPipeline = buildPipeline(false, true);
+            if (resultCache != null || readCoalescer != null) {
+                resultKey = RedactedResultCache.key(sharedNamespace, sharedPrincipal, executedPipeline, getReadPreference());
+            }
+            if (resultCache != null) {
+                final List<DBObject> cached = resultCache.get(resultKey);
+                if (cached != null) {
+                    aggregationPipelineOut = new CachedResultCursor(cached);
+                    return aggregationPipelineOut;
+                }
+                resultGeneration = resultCache.getGeneration(sharedNamespace);
+                resultDocuments = new ArrayList<DBObject>();
+            }
+            if (readCoalescer != null) {
+                aggregationPipelineOut = readCoalescer.open(resultKey, new Callable<Cursor>() {
+                    @Override
+                    public Cursor call() {
+                        return runAggregation();
+                    }
+                });
+                return aggregationPipelineOut;
+            }
 
-            super._it = (QueryResultIterator) aggregationPipelineOut;
+            aggregationPipelineOut = runAggregation();
+            if (aggregationPipelineOut instanceof QueryResultIterator) {
+                super._it = (QueryResultIterator) aggregationPipelineOut;
+            }
         }
 
         return aggregationPipelineOut;
     }
 
+    private Cursor runAggregation() {
+        final AggregationOptions.Builder aggregationOptions = aggregationOptions();
+        if (batchSize > 0) {
+            aggregationOptions.batchSize(batchSize);       // the first batch's size and the size of every getMore
+        }
+        // the following call will return, in general,  a DBCursor or QueryResultIterator. It returns a
+        // QueryResultIterator here, since the aggregation pipeline has no "$out"
+        final Cursor out = this.dbCollectionSrc.aggregate(this.executedPipeline, aggregationOptions.build(), getReadPreference());
+
+        if (out instanceof QueryResultIterator) {
+            final QueryResultIterator queryResultIterator = (QueryResultIterator) out;
+            if (batchSizePolicy != null) {
+                queryResultIterator.setBatchSizePolicy(batchSizePolicy);
+            }
+            if (prefetchDepth > 0) {
+                queryResultIterator.setPrefetchDepth(prefetchDepth);      // the first batch is in, read ahead from here
+            }
+        }
+        return out;
+    }
+
     @Override
     public int size() {
-        if (aggregationPipeline != null) { return super.itcount(); } // for aggregationPipeline we need to count as in itcount
+        if (aggregationPipeline != null) { return countByAggregation(true); }
         return super.size();
     }
 
+    /**
+     * count on the server, without reading the documents: the redact, query and maxScan stages are kept, sort and
+     * the user's projection are dropped, a "$project" ahead of "$redact" keeps just the labels and the queried fields,
+     * and a "$group" does the counting.
+     *
+     * @param applySkipAndLimit  true to keep the "$skip" and "$limit" stages, as size() does
+     * @return number of documents the user may see that match the query
+     */
+    private int countByAggregation(boolean applySkipAndLimit) {
+        final List<DBObject> countPipeline = buildPipeline(true, applySkipAndLimit);
+        countPipeline.add(new BasicDBObject("$group", new BasicDBObject("_id", null).append("n", new BasicDBObject("$sum", 1))));
+
+        final Cursor counted = this.dbCollectionSrc.aggregate(countPipeline, aggregationOptions().build(), getReadPreference());
+        try {
+            return counted.hasNext() ? ((Number) counted.next().get("n")).intValue() : 0;
+        } finally {
+            counted.close();
+        }
+    }
+
+    /** @return the options every aggregate of this cursor runs with, finds and counts alike */
+    private AggregationOptions.Builder aggregationOptions() {
+        // always CURSOR: an inline result has to fit into one 16MB reply and is held in memory all at once
+        final AggregationOptions.Builder aggregationOptions = AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR);
+        if (maxTimeMS > 0) {
+            aggregationOptions.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+        }
+        if (allowDiskUse) {
+            aggregationOptions.allowDiskUse(true);     // lets a large "$sort" spill instead of failing on the memory limit
+        }
+        return aggregationOptions;
+    }
+
+    /** a result answered from the result cache */
+    private static class CachedResultCursor implements Cursor {
+        private final Iterator<DBObject> documents;
+
+        CachedResultCursor(List<DBObject> documents) {
+            this.documents = documents.iterator();
+        }
+
+        @Override
+        public long getCursorId() {
+            return 0;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            return documents.hasNext();
+        }
+
+        @Override
+        public DBObject next() {
+            return documents.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("can't remove from a cursor");
+        }
+    }
+
     @Override
     public DBObject getKeysWanted() {
         if (aggregationPipeline != null) { return this.fields; } // for aggregationPipeline we need to look at items stored here
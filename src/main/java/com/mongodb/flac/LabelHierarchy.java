@@ -0,0 +1,233 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.*;
+
+/**
+ * LabelHierarchy says which security terms a user holds implicitly because they hold another one, e.g. in CAPCO
+ * <tt>c:TS</tt> implies <tt>c:S</tt>, which implies <tt>c:C</tt>, which implies <tt>c:U</tt>.  The implications form a
+ * directed acyclic graph over "key:value" terms of any key, e.g.
+ * <tt><pre>
+ *     LabelHierarchy capco = new LabelHierarchy.Builder()
+ *             .chain("c", "TS", "S", "C", "U")
+ *             .imply("sci:TK", "sci:TK-BLUE")
+ *             .build();
+ *     userSecurityAttributesMap.setLabelHierarchy(capco);
+ * </pre></tt>
+ *
+ * <p> The transitive closure is computed once, when the hierarchy is built, into one bitset per term, so expanding
+ * all of a user's terms is an OR of those bitsets, no matter how deep the graph is.  A hierarchy is immutable and may be
+ * shared by all users.
+ * </p>
+ *
+ * <p> A hierarchy can be kept in the database as <tt>{ implies: { "c:TS": [ "c:S" ], "c:S": [ "c:C" ], ... } }</tt>,
+ * see {@link #toDBObject()} and {@link #fromDBObject(DBObject)}.
+ * </p>
+ */
+public final class LabelHierarchy {
+
+    /** a hierarchy without implications, every term stands for itself */
+    public static final LabelHierarchy NONE = new Builder().build();
+
+    private static final String IMPLIES_FIELD = "implies";
+
+    /** term -> index into terms and closures */
+    private final Map<String, Integer> indexes;
+    private final String[] terms;
+    /** closures[i] has the bits of terms[i] and of every term it implies */
+    private final long[][] closures;
+    private final Map<String, List<String>> implications;
+
+    private LabelHierarchy(Map<String, List<String>> implications) {
+        this.implications = implications;
+        this.indexes = new HashMap<String, Integer>();
+        final List<String> orderedTerms = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> implication : implications.entrySet()) {
+            index(implication.getKey(), orderedTerms);
+            for (String implied : implication.getValue()) {
+                index(implied, orderedTerms);
+            }
+        }
+        this.terms = orderedTerms.toArray(new String[orderedTerms.size()]);
+        this.closures = new long[terms.length][];
+
+        final boolean[] onPath = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            computeClosure(i, onPath);
+        }
+    }
+
+    private void index(String term, List<String> orderedTerms) {
+        if (!indexes.containsKey(term)) {
+            indexes.put(term, orderedTerms.size());
+            orderedTerms.add(term);
+        }
+    }
+
+    private long[] computeClosure(int i, boolean[] onPath) {
+        if (closures[i] != null) return closures[i];
+        if (onPath[i]) throw new IllegalArgumentException("the label hierarchy has a cycle through " + terms[i]);
+        onPath[i] = true;
+
+        long[] closure = new long[(terms.length + 63) >>> 6];
+        closure[i >>> 6] |= 1L << i;
+        final List<String> implied = implications.get(terms[i]);
+        if (implied != null) {
+            for (String term : implied) {
+                or(closure, computeClosure(indexes.get(term), onPath));
+            }
+        }
+        onPath[i] = false;
+        closures[i] = closure;
+        return closure;
+    }
+
+    private static void or(long[] target, long[] bits) {
+        for (int w = 0; w < bits.length; w++) {
+            target[w] |= bits[w];
+        }
+    }
+
+    /**
+     * @param term  "key:value" term, e.g. "c:TS"
+     * @return term and every term it implies, e.g. <tt>[ c:TS, c:S, c:C, c:U ]</tt>, just term if it is not part of
+     *         the hierarchy
+     */
+    public List<String> expand(String term) {
+        return new ArrayList<String>(expand(Collections.singletonList(term)));
+    }
+
+    /**
+     * @param userTerms  "key:value" terms a user holds
+     * @return userTerms followed by the terms they imply that are not already there, duplicates suppressed
+     */
+    public Set<String> expand(Collection<String> userTerms) {
+        final Set<String> expanded = new LinkedHashSet<String>(userTerms);
+        if (terms.length == 0) return expanded;
+
+        final long[] bits = new long[(terms.length + 63) >>> 6];
+        for (String term : userTerms) {
+            final Integer i = indexes.get(term);
+            if (i != null) or(bits, closures[i]);
+        }
+        for (int w = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                expanded.add(terms[(w << 6) + Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * @return true if term implies or is implied by another term
+     */
+    public boolean contains(String term) {
+        return indexes.containsKey(term);
+    }
+
+    /**
+     * @return true if holding term gives a user implied as well, a term implies itself
+     */
+    public boolean implies(String term, String implied) {
+        if (term.equals(implied)) return true;
+        final Integer i = indexes.get(term);
+        final Integer j = indexes.get(implied);
+        return i != null && j != null && (closures[i][j >>> 6] & (1L << j)) != 0;
+    }
+
+    /**
+     * @return the hierarchy as <tt>{ implies: { "c:TS": [ "c:S" ], ... } }</tt>, holding the direct implications only
+     */
+    public DBObject toDBObject() {
+        final BasicDBObject implies = new BasicDBObject();
+        for (Map.Entry<String, List<String>> implication : implications.entrySet()) {
+            implies.put(implication.getKey(), new ArrayList<String>(implication.getValue()));
+        }
+        return new BasicDBObject(IMPLIES_FIELD, implies);
+    }
+
+    /**
+     * @param stored  a hierarchy saved with {@link #toDBObject()} or written by hand in the same form
+     * @return the hierarchy
+     * @throws IllegalArgumentException if stored is not a hierarchy or has a cycle
+     */
+    public static LabelHierarchy fromDBObject(DBObject stored) {
+        final Object implies = stored.get(IMPLIES_FIELD);
+        if (!(implies instanceof DBObject)) {
+            throw new IllegalArgumentException("not a stored LabelHierarchy: " + stored);
+        }
+        final DBObject impliesObject = (DBObject) implies;
+        final Builder builder = new Builder();
+        for (String term : impliesObject.keySet()) {
+            final Object implied = impliesObject.get(term);
+            if (!(implied instanceof List)) {
+                throw new IllegalArgumentException("the terms implied by " + term + " must be an array, got: " + implied);
+            }
+            for (Object impliedTerm : (List<?>) implied) {
+                builder.imply(term, String.valueOf(impliedTerm));
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return "LabelHierarchy" + implications;
+    }
+
+    /**
+     * collects the implications of a {@link LabelHierarchy}.
+     */
+    public static class Builder {
+        private final Map<String, List<String>> implications = new LinkedHashMap<String, List<String>>();
+
+        /**
+         * @param term     "key:value" term, e.g. "c:TS"
+         * @param implied  "key:value" term any holder of term holds as well, e.g. "c:S"
+         * @return this
+         */
+        public Builder imply(String term, String implied) {
+            checkTerm(term);
+            checkTerm(implied);
+            List<String> direct = implications.get(term);
+            if (direct == null) {
+                direct = new ArrayList<String>();
+                implications.put(term, direct);
+            }
+            if (!direct.contains(implied)) direct.add(implied);
+            return this;
+        }
+
+        /**
+         * @param key     term key, e.g. "c"
+         * @param values  values from the highest to the lowest, e.g. "TS", "S", "C", "U", each implies the next
+         * @return this
+         */
+        public Builder chain(String key, String... values) {
+            for (int i = 0; i + 1 < values.length; i++) {
+                imply(key + ':' + values[i], key + ':' + values[i + 1]);
+            }
+            return this;
+        }
+
+        /**
+         * @return the hierarchy with its transitive closure computed
+         * @throws IllegalArgumentException if the implications have a cycle
+         */
+        public LabelHierarchy build() {
+            final Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> implication : implications.entrySet()) {
+                copy.put(implication.getKey(), Collections.unmodifiableList(new ArrayList<String>(implication.getValue())));
+            }
+            return new LabelHierarchy(Collections.unmodifiableMap(copy));
+        }
+
+        private static void checkTerm(String term) {
+            if (term == null || term.indexOf(':') < 0) {
+                throw new IllegalArgumentException("security terms must be in key:value form, got: " + term);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.mongodb.flac;
+
+import java.util.*;
+
+/**
+ * LabelSchema lists where in a collection's documents "sl" labelled subdocuments may occur, e.g. for the persons
+ * sample collection:
+ * <tt><pre>
+ *     LabelSchema.of("ssn", "country", "favorites")
+ * </pre></tt>
+ * A path also covers the subdocuments held in an array at that path, and array indexes in paths are ignored.  The
+ * document level "sl" never needs listing, a document the user may not see is removed as a whole.
+ *
+ * <p> The schema lets the {@link RedactionQueryPlanner} prove that "$redact" can't change a field, so that a
+ * predicate on that field gives the same answer before and after redaction and can be evaluated first, using an
+ * index.  {@link #UNKNOWN}, the default, assumes any field may be redacted.
+ * </p>
+ */
+public final class LabelSchema {
+
+    /** nothing is known, any field may be labelled */
+    public static final LabelSchema UNKNOWN = new LabelSchema(null);
+
+    private final Set<String> labelledPaths;
+
+    private LabelSchema(Set<String> labelledPaths) {
+        this.labelledPaths = labelledPaths;
+    }
+
+    /**
+     * @param labelledPaths  dotted paths of all subdocuments, or arrays of subdocuments, that may carry an "sl"
+     * @return the schema
+     */
+    public static LabelSchema of(String... labelledPaths) {
+        return of(Arrays.asList(labelledPaths));
+    }
+
+    /**
+     * @param labelledPaths  dotted paths of all subdocuments, or arrays of subdocuments, that may carry an "sl"
+     * @return the schema
+     */
+    public static LabelSchema of(Collection<String> labelledPaths) {
+        final Set<String> paths = new LinkedHashSet<String>();
+        for (String path : labelledPaths) {
+            paths.add(normalize(path));
+        }
+        return new LabelSchema(Collections.unmodifiableSet(paths));
+    }
+
+    /** @return false for {@link #UNKNOWN} */
+    public boolean isKnown() {
+        return labelledPaths != null;
+    }
+
+    /** @return the labelled paths, without array indexes */
+    public Set<String> getLabelledPaths() {
+        return labelledPaths == null ? Collections.<String>emptySet() : labelledPaths;
+    }
+
+    /**
+     * a field is unaffected when it is not labelled itself, is not inside a labelled subdocument and holds no
+     * labelled subdocument.
+     *
+     * @param fieldPath  dotted field path as used in a query, e.g. "ssn.value"
+     * @return true if "$redact" can never change the field's value
+     */
+    public boolean isUnaffectedByRedaction(String fieldPath) {
+        if (labelledPaths == null) return false;
+
+        final String field = normalize(fieldPath);
+        for (String labelled : labelledPaths) {
+            if (isSameOrAncestor(labelled, field) || isSameOrAncestor(field, labelled)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameOrAncestor(String ancestor, String path) {
+        return path.equals(ancestor) || ancestor.length() == 0 || path.startsWith(ancestor + '.');
+    }
+
+    // drop array indexes, "notes.0.text" is treated as "notes.text"
+    private static String normalize(String path) {
+        final StringBuilder normalized = new StringBuilder(path.length());
+        for (String part : path.split("\\.")) {
+            if (isArrayIndex(part)) continue;
+            if (normalized.length() > 0) normalized.append('.');
+            normalized.append(part);
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isArrayIndex(String part) {
+        if (part.length() == 0) return false;
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return labelledPaths == null ? "LabelSchema[UNKNOWN]" : "LabelSchema" + labelledPaths;
+    }
+}
@@ -0,0 +1,522 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteRequest;
+import org.bson.BSONObject;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LabelledBulkWriter ingests large numbers of labelled documents, e.g.
+ * <tt><pre>
+ *     LabelledBulkWriter writer = new LabelledBulkWriter(collection, dictionary);
+ *     try {
+ *         for (DBObject document : documents) writer.insert(document);
+ *     } finally {
+ *         writer.close();
+ *     }
+ *     for (LabelledBulkWriter.BatchReport report : writer.getReports()) ...
+ * </pre></tt>
+ *
+ * <p> Every document, replacement and update passed in has its "sl" labels checked and normalized, see
+ * {@link #normalizeLabel(Object)}, and gets the matching "slb" labels of the dictionary, see
+ * {@link SecurityLabelDictionary#addBitsetLabels(DBObject)}, and the top level terms, see {@link TopLevelTerms}.
+ * A malformed label is rejected with an
+ * IllegalArgumentException before anything is queued.  For updates the "slb" follows the operator, see
+ * {@link #update(DBObject, DBObject, boolean)}.
+ * </p>
+ *
+ * <p> The requests are queued by {@link WriteRequest.Type} and sent as unordered bulk writes of batchSize requests,
+ * at most maxInFlight at a time.  When that many batches are in flight, the call that fills the next batch waits.
+ * Requests are therefore not applied in the order they were given; call {@link #flush()} between writes that have
+ * to be applied in order, e.g. an insert and a later update of the same document.  The outcome of every batch is
+ * kept as a {@link BatchReport}.
+ * </p>
+ *
+ * <p> When the collection is a {@link RedactedDBCollection}, its access checks apply to the updates, replaces and
+ * removes.  A writer is meant to be used by one thread.
+ * </p>
+ */
+public class LabelledBulkWriter implements Closeable {
+
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(LabelledBulkWriter.class);
+
+    /** default number of requests per batch, the server's limit for one write command */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** default number of batches sent at the same time */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private static final AtomicInteger WRITER_COUNT = new AtomicInteger();
+
+    private static final Set<String> SETTING_OPERATORS = new HashSet<String>(Arrays.asList("$set", "$setOnInsert"));
+
+    private final DBCollection collection;
+    private final SecurityLabelDictionary dictionary;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final WriteConcern writeConcern;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final Map<WriteRequest.Type, List<Request>> pending = new EnumMap<WriteRequest.Type, List<Request>>(WriteRequest.Type.class);
+    private final List<BatchReport> reports = Collections.synchronizedList(new ArrayList<BatchReport>());
+    private final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<RuntimeException>());
+    private boolean closed = false;
+
+    /**
+     * @param collection  collection written to, usually a {@link RedactedDBCollection}
+     * @param dictionary  dictionary the "slb" labels are encoded with, shared with the readers
+     */
+    public LabelledBulkWriter(DBCollection collection, SecurityLabelDictionary dictionary) {
+        this(collection, dictionary, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT, collection.getWriteConcern());
+    }
+
+    /**
+     * @param collection    collection written to, usually a {@link RedactedDBCollection}
+     * @param dictionary    dictionary the "slb" labels are encoded with, shared with the readers
+     * @param batchSize     number of requests per bulk write
+     * @param maxInFlight   number of bulk writes sent at the same time
+     * @param writeConcern  write concern of the bulk writes
+     */
+    public LabelledBulkWriter(DBCollection collection, SecurityLabelDictionary dictionary, int batchSize,
+                              int maxInFlight, WriteConcern writeConcern) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        this.collection = collection;
+        this.dictionary = dictionary;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.writeConcern = writeConcern;
+        this.inFlight = new Semaphore(maxInFlight);
+
+        final String threadName = "LabelledBulkWriter-" + WRITER_COUNT.incrementAndGet();
+        this.executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, threadName + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * queue an insert.
+     *
+     * @param document  the document, its labels are normalized and "slb" labels are added in place
+     */
+    public void insert(DBObject document) {
+        add(new Request(WriteRequest.Type.INSERT, null, TopLevelTerms.addTo(labelled(document)), false, false));
+    }
+
+    /**
+     * queue the replacement of one document.
+     *
+     * @param query     selects the document
+     * @param document  the new document, its labels are normalized and "slb" labels are added in place
+     * @param upsert    insert the document if none matches
+     */
+    public void replace(DBObject query, DBObject document, boolean upsert) {
+        add(new Request(WriteRequest.Type.REPLACE, query, TopLevelTerms.addTo(labelled(document)), upsert, false));
+    }
+
+    /**
+     * queue an update.  The "slb" of every label the update changes is kept in step, the update is changed in place:
+     * <ul>
+     *     <li>"$set" and "$setOnInsert" of a label, e.g. <tt>{ $set: { "ssn.sl": ... } }</tt>, or of a value holding
+     *     labels normalize them and set their "slb" as well</li>
+     *     <li>"$unset" of a label unsets its "slb"</li>
+     *     <li>"$push" and "$addToSet" of inner arrays, also with "$each", push their encoding to the "slb"; "$sort"
+     *     is rejected, the "slb" would not follow it</li>
+     *     <li>"$rename" of a label to a label renames its "slb"</li>
+     *     <li>any other change of a label, e.g. a "$pull" or a "$set" of "sl.0", unsets its "slb", the document is
+     *     then checked by its "sl", which the "slb" check prunes, until the label is set again</li>
+     * </ul>
+     *
+     * @param query   selects the documents
+     * @param update  the update operators
+     * @param multi   update all matching documents instead of the first one
+     */
+    public void update(DBObject query, DBObject update, boolean multi) {
+        add(new Request(WriteRequest.Type.UPDATE, query, TopLevelTerms.addToUpdate(labelledUpdate(update)), false, multi));
+    }
+
+    /**
+     * queue the removal of all documents matching query.
+     */
+    public void remove(DBObject query) {
+        add(new Request(WriteRequest.Type.REMOVE, query, null, false, true));
+    }
+
+    /**
+     * send the partly filled batches and wait until every batch sent so far has completed.
+     *
+     * @throws RuntimeException the first failure of a batch since the last flush, e.g. a BulkWriteException
+     */
+    public void flush() {
+        checkOpen();
+        for (Map.Entry<WriteRequest.Type, List<Request>> entry : pending.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                submit(entry.getKey(), entry.getValue());
+                entry.setValue(new ArrayList<Request>(batchSize));
+            }
+        }
+        acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                final RuntimeException first = failures.get(0);
+                failures.clear();
+                throw first;
+            }
+        }
+    }
+
+    /**
+     * flush and stop the writer's threads.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            executor.shutdown();
+        }
+    }
+
+    /** @return the reports of all completed batches, in the order they completed */
+    public List<BatchReport> getReports() {
+        synchronized (reports) {
+            return new ArrayList<BatchReport>(reports);
+        }
+    }
+
+    private DBObject labelled(DBObject document) {
+        normalizeLabels(document);
+        return dictionary.addBitsetLabels(document);
+    }
+
+    private DBObject labelledUpdate(DBObject update) {
+        if (!isOperators(update)) return labelled(update);       // a replacement
+
+        final BSONObject unset = new BasicDBObject();
+        final BSONObject renamed = new BasicDBObject();
+        for (String operator : update.keySet()) {
+            if (!(update.get(operator) instanceof BSONObject)) continue;
+            final BSONObject fields = (BSONObject) update.get(operator);
+            for (String path : new ArrayList<String>(fields.keySet())) {
+                final Object value = fields.get(path);
+                final String label = labelPath(path);
+                if ("$rename".equals(operator)) {
+                    final String target = value instanceof String ? labelPath((String) value) : null;
+                    if (label != null && label.equals(path) && target != null && target.equals(value)) {
+                        renamed.put(bitsetPath(label), bitsetPath(target));
+                    } else {
+                        if (label != null) unset.put(bitsetPath(label), "");
+                        if (target != null) unset.put(bitsetPath(target), "");
+                    }
+                } else if (label == null) {
+                    if (SETTING_OPERATORS.contains(operator) && value instanceof DBObject) {
+                        normalizeLabels(value);
+                        dictionary.addBitsetLabels((DBObject) value);
+                    }
+                } else if (!label.equals(path)) {
+                    unset.put(bitsetPath(label), "");           // a change within the label
+                } else if (SETTING_OPERATORS.contains(operator)) {
+                    final List<List<Object>> normalized = normalizeLabel(value);
+                    fields.put(path, normalized);
+                    fields.put(bitsetPath(label), dictionary.encodeLabel(normalized));
+                } else if ("$unset".equals(operator)) {
+                    fields.put(bitsetPath(label), "");
+                } else if ("$push".equals(operator) || "$addToSet".equals(operator)) {
+                    fields.put(bitsetPath(label), encodeAdded(fields, path));
+                } else {
+                    unset.put(bitsetPath(label), "");
+                }
+            }
+        }
+        addOperator(update, "$unset", unset);
+        addOperator(update, "$rename", renamed);
+        return update;
+    }
+
+    /** normalize the inner arrays a "$push" or "$addToSet" adds to a label, and return what to add to its "slb" */
+    private Object encodeAdded(BSONObject fields, String path) {
+        final Object value = fields.get(path);
+        if (value instanceof BSONObject && !(value instanceof List) && ((BSONObject) value).containsField("$each")) {
+            final BSONObject modifiers = (BSONObject) value;
+            if (modifiers.containsField("$sort")) {
+                throw new IllegalArgumentException("can't $sort an sl, its slb would not follow: " + value);
+            }
+            final BasicDBObject encoded = new BasicDBObject();
+            for (String modifier : modifiers.keySet()) {
+                if ("$each".equals(modifier)) {
+                    final List<List<Object>> normalized = normalizeLabel(modifiers.get(modifier));
+                    modifiers.put(modifier, normalized);
+                    encoded.put(modifier, dictionary.encodeLabel(normalized));
+                } else {
+                    encoded.put(modifier, modifiers.get(modifier));
+                }
+            }
+            return encoded;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("an inner array of sl must be an array, got: " + value);
+        }
+        final List<Object> inner = new ArrayList<Object>(new LinkedHashSet<Object>((List<?>) value));
+        fields.put(path, inner);
+        return dictionary.encodeLabel(Collections.singletonList(inner)).get(0);
+    }
+
+    /**
+     * @return the path of the label path is or lies within, e.g. "ssn.sl" for "ssn.sl" and "ssn.sl.0", or null
+     */
+    static String labelPath(String path) {
+        final String[] segments = path.split("\\.");
+        final StringBuilder label = new StringBuilder();
+        for (String segment : segments) {
+            if (label.length() > 0) label.append('.');
+            label.append(segment);
+            if (RedactionEvaluator.SECURITY_LABEL_FIELD.equals(segment)) return label.toString();
+        }
+        return null;
+    }
+
+    private static String bitsetPath(String labelPath) {
+        return labelPath.substring(0, labelPath.length() - RedactionEvaluator.SECURITY_LABEL_FIELD.length())
+                + RedactionEvaluator.BITSET_SECURITY_LABEL_FIELD;
+    }
+
+    private static boolean isOperators(BSONObject update) {
+        for (String key : update.keySet()) {
+            if (key.startsWith("$")) return true;
+        }
+        return false;
+    }
+
+    private static void addOperator(DBObject update, String operator, BSONObject fields) {
+        if (fields.keySet().isEmpty()) return;
+        if (update.get(operator) instanceof BSONObject) {
+            ((BSONObject) update.get(operator)).putAll(fields);
+        } else {
+            update.put(operator, fields);
+        }
+    }
+
+    private void add(Request request) {
+        checkOpen();
+        List<Request> batch = pending.get(request.type);
+        if (batch == null) {
+            batch = new ArrayList<Request>(batchSize);
+            pending.put(request.type, batch);
+        }
+        batch.add(request);
+        if (batch.size() >= batchSize) {
+            submit(request.type, batch);
+            pending.put(request.type, new ArrayList<Request>(batchSize));
+        }
+    }
+
+    private void submit(final WriteRequest.Type type, final List<Request> batch) {
+        acquire(1);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        execute(type, batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void execute(WriteRequest.Type type, List<Request> batch) {
+        final BulkWriteOperation operation = collection.initializeUnorderedBulkOperation();
+        for (Request request : batch) {
+            request.addTo(operation);
+        }
+
+        final long start = System.nanoTime();
+        BulkWriteResult result = null;
+        RuntimeException failure = null;
+        try {
+            result = operation.execute(writeConcern);
+        } catch (RuntimeException e) {
+            failure = e;
+            failures.add(e);
+        }
+        final BatchReport report = new BatchReport(type, batch.size(), System.nanoTime() - start, result, failure);
+        reports.add(report);
+        if (logger.isDebugEnabled()) {
+            logger.debug(report.toString());
+        }
+    }
+
+    private void acquire(int permits) {
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            throw new MongoInterruptedException(e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("the writer is closed");
+    }
+
+    /**
+     * check and normalize every "sl" in the document, recursively.
+     *
+     * @throws IllegalArgumentException if an "sl" is not an array of arrays
+     */
+    static void normalizeLabels(Object value) {
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                normalizeLabels(element);
+            }
+        } else if (value instanceof BSONObject) {
+            final BSONObject document = (BSONObject) value;
+            for (String key : new ArrayList<String>(document.keySet())) {
+                if (RedactionEvaluator.SECURITY_LABEL_FIELD.equals(key)) {
+                    document.put(key, normalizeLabel(document.get(key)));
+                } else if (!RedactionEvaluator.BITSET_SECURITY_LABEL_FIELD.equals(key)) {
+                    normalizeLabels(document.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * normalize a label without changing who may see it: repeated terms within an inner array, repeated inner arrays
+     * and empty inner arrays, which every user satisfies, are dropped.
+     *
+     * @param securityLabel  the value of an "sl" field
+     * @return the normalized label
+     * @throws IllegalArgumentException if securityLabel is not an array of arrays
+     */
+    static List<List<Object>> normalizeLabel(Object securityLabel) {
+        if (!(securityLabel instanceof List)) {
+            throw new IllegalArgumentException("sl must be an array of arrays, got: " + securityLabel);
+        }
+        final Set<List<Object>> normalized = new LinkedHashSet<List<Object>>();
+        for (Object inner : (List<?>) securityLabel) {
+            if (!(inner instanceof List)) {
+                throw new IllegalArgumentException("sl must be an array of arrays, got: " + securityLabel);
+            }
+            if (((List<?>) inner).isEmpty()) continue;
+            normalized.add(new ArrayList<Object>(new LinkedHashSet<Object>((List<?>) inner)));
+        }
+        return new ArrayList<List<Object>>(normalized);
+    }
+
+    /** a queued request */
+    private static class Request {
+        final WriteRequest.Type type;
+        final DBObject query;
+        final DBObject document;
+        final boolean upsert;
+        final boolean multi;
+
+        Request(WriteRequest.Type type, DBObject query, DBObject document, boolean upsert, boolean multi) {
+            this.type = type;
+            this.query = query;
+            this.document = document;
+            this.upsert = upsert;
+            this.multi = multi;
+        }
+
+        void addTo(BulkWriteOperation operation) {
+            switch (type) {
+                case INSERT:
+                    operation.insert(document);
+                    break;
+                case REPLACE:
+                    if (upsert) operation.find(query).upsert().replaceOne(document);
+                    else operation.find(query).replaceOne(document);
+                    break;
+                case UPDATE:
+                    if (multi) operation.find(query).update(document);
+                    else operation.find(query).updateOne(document);
+                    break;
+                case REMOVE:
+                    operation.find(query).remove();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * the outcome of one bulk write.
+     */
+    public static class BatchReport {
+        private final WriteRequest.Type type;
+        private final int size;
+        private final long latencyNanos;
+        private final BulkWriteResult result;
+        private final RuntimeException failure;
+
+        BatchReport(WriteRequest.Type type, int size, long latencyNanos, BulkWriteResult result, RuntimeException failure) {
+            this.type = type;
+            this.size = size;
+            this.latencyNanos = latencyNanos;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        /** @return the type of all requests in the batch */
+        public WriteRequest.Type getType() {
+            return type;
+        }
+
+        /** @return the number of requests in the batch */
+        public int getSize() {
+            return size;
+        }
+
+        /** @return the time the bulk write took */
+        public long getLatency(TimeUnit unit) {
+            return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** @return requests written per second */
+        public double getThroughput() {
+            return latencyNanos == 0 ? 0 : size * 1e9 / latencyNanos;
+        }
+
+        /** @return the result, null if the batch failed */
+        public BulkWriteResult getResult() {
+            return result;
+        }
+
+        /** @return why the batch failed, null if it did not */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return "BatchReport{type=" + type + ", size=" + size + ", latencyMs=" + getLatency(TimeUnit.MILLISECONDS)
+                    + ", throughput=" + Math.round(getThroughput()) + "/s" + (failure != null ? ", failure=" + failure : "") + '}';
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.mongodb.flac;
+
+import com.google.common.base.Throwables;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+import com.mongodb.ServerAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadCoalescer lets concurrent finds of users with the same security attributes share one aggregation, e.g. when
+ * a dashboard is refreshed by many users at once:
+ * <tt><pre>
+ *     redactedDBCollection.setReadCoalescer(ReadCoalescer.getDefault());
+ * </pre></tt>
+ *
+ * <p> Finds are told apart as in {@link RedactedResultCache}, by namespace, {@link SecurityPrincipal}, pipeline shape
+ * and read preference.  The first find runs the aggregation, finds with the same key started while it is in flight
+ * attach to it instead of running their own.  The documents are buffered as they are read from the server, by
+ * whichever of the finds gets to them first, and every find iterates over the whole buffer from the start, each
+ * getting its own copies.
+ * </p>
+ *
+ * <p> A find only attaches while the shared aggregation is in flight: once it is read to the end, has read more
+ * than the maximum number of shared documents, all its finds are closed, or its collection was
+ * {@link #invalidate(String) written to}, the next find runs its own.  While
+ * more than one find is attached the buffer is held, so a slow reader keeps it in memory; once a single find is
+ * left and no other can attach it streams, the documents it is done with are dropped.  Documents are read from the
+ * server by one find at a time, without keeping the others from the documents already buffered.
+ * </p>
+ */
+public class ReadCoalescer {
+
+    /** default number of documents after which no more finds attach to an aggregation */
+    public static final int DEFAULT_MAX_SHARED_DOCUMENTS = 10000;
+
+    private static final ReadCoalescer DEFAULT_COALESCER = new ReadCoalescer(DEFAULT_MAX_SHARED_DOCUMENTS);
+
+    private final ConcurrentMap<RedactedResultCache.Key, Flight> inFlight = new ConcurrentHashMap<RedactedResultCache.Key, Flight>();
+    private final int maxSharedDocuments;
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong attached = new AtomicLong();
+
+    /**
+     * @param maxSharedDocuments  after this many documents no more finds attach to an aggregation
+     */
+    public ReadCoalescer(int maxSharedDocuments) {
+        if (maxSharedDocuments < 0) throw new IllegalArgumentException("maxSharedDocuments can't be negative");
+        this.maxSharedDocuments = maxSharedDocuments;
+    }
+
+    /** @return the coalescer that can be shared by all RedactedDBCollection's */
+    public static ReadCoalescer getDefault() {
+        return DEFAULT_COALESCER;
+    }
+
+    /**
+     * attach to the aggregation in flight for key, or run one.
+     *
+     * @param key          from {@link RedactedResultCache#key}
+     * @param aggregation  runs the aggregation, called at most once and only if nothing is in flight for key
+     * @return a cursor over the shared documents
+     */
+    Cursor open(RedactedResultCache.Key key, Callable<Cursor> aggregation) {
+        while (true) {
+            final Flight current = inFlight.get(key);
+            if (current != null) {
+                if (current.attach()) {
+                    attached.incrementAndGet();
+                    return new SharedCursor(current);
+                }
+                inFlight.remove(key, current);      // closed for new finds, but not yet removed
+                continue;
+            }
+
+            final Flight flight = new Flight(key);
+            if (inFlight.putIfAbsent(key, flight) != null) continue;
+            flight.attach();
+            started.incrementAndGet();
+            try {
+                flight.start(aggregation.call());
+            } catch (Exception e) {
+                flight.fail(e);
+                throw Throwables.propagate(e);
+            }
+            return new SharedCursor(flight);
+        }
+    }
+
+    /**
+     * stop finds from attaching to the aggregations in flight on a collection, e.g. after it was written to, so the
+     * next find runs its own and sees the write.  Finds already attached read on.
+     *
+     * @param namespace  full name of the collection, e.g. "test.persons"
+     */
+    public void invalidate(String namespace) {
+        for (Flight flight : inFlight.values()) {
+            if (flight.key.namespace.equals(namespace)) {
+                flight.invalidate();
+            }
+        }
+    }
+
+    /** @return number of aggregations run */
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /** @return number of finds that attached to an aggregation run for another find */
+    public long getAttachedCount() {
+        return attached.get();
+    }
+
+    /**
+     * one shared aggregation and the documents read from it that some find still has to get to.  Documents are read
+     * from the server by one participant at a time, outside the monitor, so the others keep getting documents that
+     * are already buffered meanwhile.
+     */
+    private class Flight {
+        private final RedactedResultCache.Key key;
+        /** documents from offset on */
+        private final List<DBObject> documents = new ArrayList<DBObject>();
+        private int offset = 0;
+        private Cursor source;
+        private RuntimeException failure;
+        private boolean done = false;
+        private boolean joinable = true;
+        private boolean reading = false;
+        private boolean closeAfterRead = false;
+        private int participants = 0;
+
+        Flight(RedactedResultCache.Key key) {
+            this.key = key;
+        }
+
+        synchronized boolean attach() {
+            if (!joinable) return false;
+            participants++;
+            return true;
+        }
+
+        synchronized void start(Cursor source) {
+            this.source = source;
+            notifyAll();
+        }
+
+        synchronized void fail(Exception e) {
+            failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            finish();
+            notifyAll();
+        }
+
+        synchronized void invalidate() {
+            closeToNewFinds();
+        }
+
+        /** @return read only document i, reading from the server if it is not buffered yet, null past the end */
+        DBObject get(int i) {
+            while (true) {
+                synchronized (this) {
+                    while (true) {
+                        if (!joinable && participants == 1 && i > offset) {
+                            // nobody else can ask for the documents before i any more, don't hold on to them
+                            final int consumed = Math.min(i - offset, documents.size());
+                            documents.subList(0, consumed).clear();
+                            offset += consumed;
+                        }
+                        if (i < offset + documents.size()) return documents.get(i - offset);
+                        if (failure != null) throw failure;
+                        if (done) return null;
+                        if (source != null && !reading) break;
+                        awaitChange();
+                    }
+                    reading = true;
+                }
+                read();
+            }
+        }
+
+        private void awaitChange() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted waiting for a shared aggregation", e);
+            }
+        }
+
+        /** read the next document from the server, only one participant at a time and not holding the monitor */
+        private void read() {
+            DBObject next = null;
+            RuntimeException error = null;
+            boolean read = false;
+            try {
+                if (source.hasNext()) next = (DBObject) ReadOnlyDBObject.freeze(source.next());
+                read = true;
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                synchronized (this) {
+                    reading = false;
+                    if (!read && error == null) {
+                        // an Error, the other participants get a failure rather than waiting for this read forever
+                        error = new IllegalStateException("reading the shared aggregation failed");
+                    }
+                    if (error != null) {
+                        if (!done) failure = error;
+                        finish();
+                    } else if (next == null) {
+                        finish();
+                    } else if (!done) {
+                        documents.add(next);
+                        if (offset + documents.size() > maxSharedDocuments) closeToNewFinds();
+                    }
+                    if (closeAfterRead) source.close();     // the last find left while this read was in flight
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void detach() {
+            if (--participants > 0) return;
+            closeToNewFinds();
+            if (!done && source != null) {
+                done = true;
+                if (reading) {
+                    closeAfterRead = true;
+                } else {
+                    source.close();         // nobody reads the rest
+                }
+            }
+            documents.clear();
+        }
+
+        /** @return number of documents held */
+        synchronized int buffered() {
+            return documents.size();
+        }
+
+        private void finish() {
+            done = true;
+            closeToNewFinds();
+        }
+
+        private void closeToNewFinds() {
+            joinable = false;
+            inFlight.remove(key, this);
+        }
+    }
+
+    /** one find's iterator over a shared aggregation */
+    static class SharedCursor implements Cursor {
+        private final Flight flight;
+        private int index = 0;
+        private DBObject next;
+        private boolean closed = false;
+
+        SharedCursor(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !closed) {
+                next = flight.get(index);
+            }
+            return next != null;
+        }
+
+        @Override
+        public DBObject next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final DBObject document = (DBObject) RedactedResultCache.thaw(next);
+            next = null;
+            index++;
+            return document;
+        }
+
+        /** @return number of documents the shared aggregation holds for its finds */
+        int getBufferedCount() {
+            return flight.buffered();
+        }
+
+        @Override
+        public long getCursorId() {
+            return 0;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                flight.detach();
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("can't remove from a cursor");
+        }
+    }
+}
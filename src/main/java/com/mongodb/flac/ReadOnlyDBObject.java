@@ -0,0 +1,107 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import org.bson.BSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReadOnlyDBObject is a BasicDBObject that can no longer be changed once it is built.
+ *
+ * <p> This is used for pipeline stages that are compiled once and then handed out to many queries at the same time,
+ * e.g. the "$redact" stages held in {@link RedactStageCache}.  Use {@link #freeze(Object)} to build a deep read only
+ * copy of a DBObject tree, nested lists are turned into unmodifiable lists.
+ * </p>
+ */
+class ReadOnlyDBObject extends BasicDBObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean frozen = false;
+
+    private ReadOnlyDBObject(Map<?, ?> src) {
+        for (Map.Entry<?, ?> entry : src.entrySet()) {
+            super.put(String.valueOf(entry.getKey()), freeze(entry.getValue()));
+        }
+        frozen = true;
+    }
+
+    /**
+     * build a deep read only copy of value.
+     *
+     * @param value   a DBObject, Map, List or simple value
+     * @return a ReadOnlyDBObject for maps/DBObjects, an unmodifiable list for lists, otherwise value itself
+     */
+    static Object freeze(Object value) {
+        if (value instanceof ReadOnlyDBObject) {
+            return value;
+        }
+        if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            final List<Object> frozenList = new ArrayList<Object>(list.size());
+            for (Object o : list) {
+                frozenList.add(freeze(o));
+            }
+            return Collections.unmodifiableList(frozenList);
+        }
+        if (value instanceof Map) {
+            return new ReadOnlyDBObject((Map<?, ?>) value);
+        }
+        if (value instanceof BSONObject) {
+            return new ReadOnlyDBObject(((BSONObject) value).toMap());
+        }
+        return value;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("this DBObject is shared and read only");
+        }
+    }
+
+    @Override
+    public Object put(String key, Object val) {
+        checkNotFrozen();
+        return super.put(key, val);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")       // BasicBSONObject's signature
+    public void putAll(Map m) {
+        checkNotFrozen();
+        super.putAll(m);
+    }
+
+    @Override
+    public void putAll(BSONObject o) {
+        checkNotFrozen();
+        super.putAll(o);
+    }
+
+    @Override
+    public Object removeField(String key) {
+        checkNotFrozen();
+        return super.removeField(key);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkNotFrozen();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        checkNotFrozen();
+        super.clear();
+    }
+
+    @Override
+    public void markAsPartialObject() {
+        checkNotFrozen();
+        super.markAsPartialObject();
+    }
+}
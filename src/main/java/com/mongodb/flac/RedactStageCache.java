@@ -0,0 +1,147 @@
+package com.mongodb.flac;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * RedactStageCache holds compiled "$redact" pipeline stages, one per canonical set of user security attributes.
+ *
+ * <p> Compiling a stage means running String.format over the
+ * {@link RedactedDBCollectionConstants#getSecurityExpression()} template and then JSON.parse on the result.  That
+ * is far too expensive to repeat on every find, findOne and aggregate, so the stage is built once per distinct
+ * {@link SecurityPrincipal} (i.e. canonical encoding of the user's terms) and the same read only
+ * instance is handed out to every query of every user with those attributes.
+ * </p>
+ *
+ * <p> The cache is bounded, see {@link #RedactStageCache(long)}, and records hit/miss counters that can be read with
+ * {@link #getStats()}.  Changing the security expression template with
+ * {@link RedactedDBCollectionConstants#setSecurityExpression(String)} invalidates the {@link #getDefault() default}
+ * cache.
+ * </p>
+ */
+public class RedactStageCache {
+
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(RedactStageCache.class);
+
+    /** default upper bound on the number of compiled stages kept */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private static final RedactStageCache DEFAULT_CACHE = new RedactStageCache(DEFAULT_MAXIMUM_SIZE);
+
+    // keeps "slb" stages apart from "sl" stages, FLAC encoded strings never start with it
+    private static final String BITSET_KEY_PREFIX = "slb:";
+
+    private final Cache<String, DBObject> cache;
+
+    /**
+     * @param maximumSize  maximum number of compiled stages to keep, least recently used ones are evicted first
+     */
+    public RedactStageCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /** @return the cache shared by all RedactedDBCollection's */
+    public static RedactStageCache getDefault() {
+        return DEFAULT_CACHE;
+    }
+
+    /**
+     * get the compiled "$redact" stage for the user.
+     *
+     * @param userSecurityAttributes  the user's attributes
+     * @return shared read only stage, e.g. <tt>{ $redact: { $cond: ... } }</tt>
+     */
+    public DBObject getRedactStage(UserSecurityAttributesMap userSecurityAttributes) {
+        return getRedactStage(userSecurityAttributes.toSecurityPrincipal());
+    }
+
+    /**
+     * get the compiled "$redact" stage for the principal.
+     *
+     * @param securityPrincipal  the user's canonical terms
+     * @return shared read only stage, e.g. <tt>{ $redact: { $cond: ... } }</tt>
+     */
+    public DBObject getRedactStage(SecurityPrincipal securityPrincipal) {
+        return getRedactStage(securityPrincipal.toFlacEncodedString());
+    }
+
+    /**
+     * get the compiled "$redact" stage for a FLAC encoded attribute list.
+     *
+     * @param visibilityAttributesForUser  e.g. <tt>[ { c:"TS" }, { sci:"TK" } ]</tt>, null or blank is treated as no attributes
+     * @return shared read only stage, e.g. <tt>{ $redact: { $cond: ... } }</tt>
+     */
+    public DBObject getRedactStage(String visibilityAttributesForUser) {
+        if (visibilityAttributesForUser == null || visibilityAttributesForUser.trim().length() == 0) {
+            visibilityAttributesForUser = "[ ]";
+        }
+        final String key = visibilityAttributesForUser;
+        try {
+            return cache.get(key, new Callable<DBObject>() {
+                @Override
+                public DBObject call() throws Exception {
+                    return compileRedactStage(key);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * get the compiled "$redact" stage that checks "slb" labels, see {@link SecurityLabelDictionary}.
+     *
+     * @param securityPrincipal  the user's canonical terms
+     * @param dictionary         the dictionary that encoded the "slb" labels
+     * @return shared read only stage, e.g. <tt>{ $redact: { $cond: ... } }</tt>
+     */
+    public DBObject getBitsetRedactStage(SecurityPrincipal securityPrincipal, SecurityLabelDictionary dictionary) {
+        final String bitIds = securityPrincipal.toBitIds(dictionary).toString();
+        try {
+            return cache.get(BITSET_KEY_PREFIX + bitIds, new Callable<DBObject>() {
+                @Override
+                public DBObject call() throws Exception {
+                    return compileRedactStage(RedactedDBCollectionConstants.getBitsetSecurityExpression(), bitIds);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /** drop all compiled stages, e.g. after the security expression template changed */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /** @return number of compiled stages currently held */
+    public long size() {
+        return cache.size();
+    }
+
+    /** @return hit, miss and eviction counters */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /** build the "$redact" mongodb command based on the FLAC user visibilityAttributesForUser setting */
+    static DBObject compileRedactStage(String visibilityAttributesForUser) {
+        return compileRedactStage(RedactedDBCollectionConstants.getSecurityExpression(), visibilityAttributesForUser);
+    }
+
+    private static DBObject compileRedactStage(String securityExpression, String visibilityAttributesForUser) {
+        String userSecurityExpression = String.format(securityExpression, visibilityAttributesForUser);
+        logger.debug("**************** compiled userSecurityExpression: " + userSecurityExpression);
+        DBObject redactCommand = (DBObject) JSON.parse(userSecurityExpression);
+        return (DBObject) ReadOnlyDBObject.freeze(new BasicDBObject("$redact", redactCommand));
+    }
+}
@@ -52,8 +52,44 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
      * The current users SecurityAttributes, which is a application specific mapping of security decls.
      */
     private UserSecurityAttributesMap userSecurityAttributes;
+
+    /**
+     * Set instead of userSecurityAttributes when the collection was built directly from a SecurityPrincipal.
+     */
+    private SecurityPrincipal securityPrincipal;
+
+    /**
+     * How finds are redacted, server side "$redact" unless changed with {@link #setRedactionEngine(RedactionEngine)}.
+     */
+    private RedactionEngine redactionEngine = ServerRedactionEngine.getInstance();
+
+    /**
+     * Where the documents may carry labelled subdocuments, decides which predicates may run before "$redact".
+     */
+    private RedactionQueryPlanner queryPlanner = new RedactionQueryPlanner(LabelSchema.UNKNOWN);
+    private LabelSchema labelSchema = LabelSchema.UNKNOWN;
+
+    /**
+     * When set, documents whose own "sl" the user can't satisfy are filtered out by a query predicate before
+     * "$redact" runs, see {@link #setDocumentLevelPreFilter(boolean)}.
+     */
+    private boolean documentLevelPreFilter = false;
+
+    /**
+     * When set, finds are answered from it where possible and writes invalidate it, see
+     * {@link #setResultCache(RedactedResultCache)}.
+     */
+    private RedactedResultCache resultCache = null;
+
+    /**
+     * When set, concurrent identical finds share one aggregation, see {@link #setReadCoalescer(ReadCoalescer)}.
+     */
+    private ReadCoalescer readCoalescer = null;
     public static final BasicDBObject EMPTY_OBJECT = new BasicDBObject(); // i.e. "{}";
 
+    /** shares the evaluators findAndModify redacts with while the finds are redacted on the server */
+    private static final ClientRedactionEngine DEFAULT_CLIENT_REDACTION_ENGINE = new ClientRedactionEngine();
+
 
     /**
      * Initializes a new safe collection.
@@ -108,6 +144,22 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
         //                ((List<String>) userSecurityAttributes.get(UserSecurityAttributes.Attributes.COUNTRIES.toString())));
     }
 
+    /**
+     * Initializes a new safe collection for a user whose attributes are already in canonical
+     * {@link SecurityPrincipal} form.  Principals are immutable so one RedactedDBCollection built this way may be
+     * shared by every thread working for users with those attributes.
+     *
+     * @param wrappedDBCollection the wrapped DB collection on which we operate
+     * @param securityPrincipal   the user's expanded security terms
+     * @see #RedactedDBCollection(DBCollection, UserSecurityAttributesMap)
+     */
+    public RedactedDBCollection(DBCollection wrappedDBCollection, SecurityPrincipal securityPrincipal) {
+        super(Preconditions.checkNotNull(wrappedDBCollection, "wrappedDBCollection can't be null").getDB(), wrappedDBCollection.getName());
+        this.securityPrincipal = Preconditions.checkNotNull(securityPrincipal, "securityPrincipal can't be null");
+        this._wrapped = wrappedDBCollection;
+        namespace = wrappedDBCollection.getFullName();
+    }
+
     /**
      * Builder to construct a wrapper for safe access a standard MongoDB collection {@link com.mongodb.DBCollection} that
      * considers the information in the document honoring the
@@ -155,6 +207,7 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
         }
         final List<DBObject> aggregationPipeline = new ArrayList<DBObject>();
         final DBCursorBasedOnQueryResultIterator  dbCursorBasedOnQueryResultIterator = new DBCursorBasedOnQueryResultIterator(aggregationPipeline, /*DBCollection*/this, query, fields, readPref);
+        dbCursorBasedOnQueryResultIterator.batchSize(batchSize);
         QueryResultIterator resultIterator = (QueryResultIterator) dbCursorBasedOnQueryResultIterator.getAggregationQueryResultIterator();
 
         return resultIterator;
@@ -170,6 +223,7 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
         }
         final List<DBObject> aggregationPipeline = new ArrayList<DBObject>();
         final DBCursorBasedOnQueryResultIterator  dbCursorBasedOnQueryResultIterator = new DBCursorBasedOnQueryResultIterator(aggregationPipeline, /*DBCollection*/this, query, fields, readPref);
+        dbCursorBasedOnQueryResultIterator.batchSize(batchSize);
         QueryResultIterator resultIterator = (QueryResultIterator) dbCursorBasedOnQueryResultIterator.getAggregationQueryResultIterator();
 
         return resultIterator;
@@ -213,6 +267,8 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
      * You cannot use $where in $match queries as part of the aggregation pipeline.
      * To use $text in the $match stage, the $match stage has to be the first stage of the pipeline,
      * but for security the redact will be first, so $text can not be utilized.
+     * Predicates on fields that the collection's {@link #setLabelSchema(LabelSchema) label schema} shows are
+     * never redacted are matched before the redact, so they can use an index.
      * @param keys fields to return
      * @return a cursor to iterate over results
      * @mongodb.driver.manual tutorial/query-documents/ Query
@@ -231,15 +287,13 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
     }
 
 
-    // This does not honor FLAC controls and just accesses the DB in the standard way
+    // This honors FLAC controls, the redactionEngine decides how
     private DBCursor getDbObjectsAndHonorFLAC(DBObject query, DBObject keys) {
-        List<DBObject> pipeline = new ArrayList<DBObject>();
-
-        final List<DBObject> pipelineSecure = prependSecurityRedactToPipeline(pipeline);
-
-
-        return new DBCursorBasedOnQueryResultIterator(pipelineSecure, this._wrapped, query, keys, getReadPreference());
+        return getDbObjectsAndHonorFLAC(query, keys, getReadPreference());
+    }
 
+    private DBCursor getDbObjectsAndHonorFLAC(DBObject query, DBObject keys, ReadPreference readPref) {
+        return redactionEngine.find(this, query, keys, readPref);
     }
 
     // This does not honor FLAC controls and just accesses the DB in the standard way
@@ -350,17 +404,47 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
     DBObject findOne(DBObject query, DBObject fields, DBObject orderBy, ReadPreference readPref,
                      long maxTime, TimeUnit maxTimeUnit) {
 
-        final List<DBObject> aggregationPipeline = new ArrayList<DBObject>();
-        final DBCursorBasedOnQueryResultIterator  dbCursorBasedOnQueryResultIterator = new DBCursorBasedOnQueryResultIterator(aggregationPipeline, /*DBCollection*/this, query, fields, readPref);
-        dbCursorBasedOnQueryResultIterator.sort(orderBy);
-
-        Iterator<DBObject> i = (QueryResultIterator) dbCursorBasedOnQueryResultIterator.getAggregationQueryResultIterator();
+        final DBCursor cursor = getDbObjectsAndHonorFLAC(query, fields, readPref);
+        try {
+            cursor.sort(orderBy);
+
+            DBObject obj = (cursor.hasNext() ? cursor.next() : null);
+            if (obj != null && (fields != null && fields.keySet().size() > 0)) {
+                obj.markAsPartialObject();
+            }
+            return obj;
+        } finally {
+            cursor.close();
+        }
+    }
 
-        DBObject obj = (i.hasNext() ? i.next() : null);
-        if (obj != null && (fields != null && fields.keySet().size() > 0)) {
-            obj.markAsPartialObject();
+    /**
+     * Get the count of documents the user may see that match the query.  The count runs on the redacted data, as a
+     * find does, the plain "count" command would count documents the user can't see.
+     *
+     * @param query       specifies the selection criteria
+     * @param fields      this is ignored
+     * @param limit       limit the count to this value
+     * @param skip        number of documents to skip
+     * @param readPrefs   {@link ReadPreference} to be used for this operation
+     * @param maxTime     ignored, as for finds on redacted collections
+     * @param maxTimeUnit the unit that maxTime is specified in
+     * @return the number of documents that matches selection criteria
+     */
+    @Override
+    protected long getCount(final DBObject query, final DBObject fields, final long limit, final long skip,
+                            final ReadPreference readPrefs, final long maxTime, final TimeUnit maxTimeUnit) {
+        final DBCursor cursor = getDbObjectsAndHonorFLAC(query, null, readPrefs);
+        try {
+            if (skip <= 0 && limit <= 0) {
+                return cursor.count();
+            }
+            if (skip > 0) cursor.skip((int) skip);
+            if (limit > 0) cursor.limit((int) limit);
+            return cursor.size();
+        } finally {
+            cursor.close();
         }
-        return obj;
     }
 
     /**
@@ -382,9 +466,156 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
             throw new IllegalArgumentException("options can not be null");
         }
 
-        final List<DBObject> pipelineSecure = prependSecurityRedactToPipeline(pipeline);
-        return _wrapped.aggregate(pipelineSecure, options, readPreference);
+        return _wrapped.aggregate(getSecurePipeline(pipeline), options, readPreference);
+    }
+
+    /**
+     * @return the pipeline as run on the wrapped collection: "$redact" first, the leading "$match" moved ahead of it
+     * where that is safe, and the {@link #getDocumentLevelPreFilter() pre-filter}
+     */
+    private List<DBObject> getSecurePipeline(final List<DBObject> pipeline) {
+        final List<DBObject> pipelineSecure = pushLeadingMatchAheadOfRedact(prependSecurityRedactToPipeline(pipeline));
+        final DBObject preFilter = getDocumentLevelPreFilter();
+        if (preFilter == null) {
+            return pipelineSecure;
+        }
+
+        final List<DBObject> preFiltered = new ArrayList<DBObject>(pipelineSecure.size() + 1);
+        final Object leadingMatch = pipelineSecure.get(0).get("$match");
+        if (leadingMatch instanceof DBObject) {
+            preFiltered.add(new BasicDBObject("$match", RedactionQueryPlanner.and((DBObject) leadingMatch, preFilter)));
+            preFiltered.addAll(pipelineSecure.subList(1, pipelineSecure.size()));
+        } else {
+            preFiltered.add(new BasicDBObject("$match", preFilter));
+            preFiltered.addAll(pipelineSecure);
+        }
+        return preFiltered;
+    }
+
+    /**
+     * Find the distinct values of a field among the documents the user may see, after redaction.  The plain
+     * "distinct" command would return values from documents and subdocuments the user can't see, so this runs a
+     * "$redact" first aggregation ending in a "$group" on the field.  As with "distinct", documents without the
+     * field are skipped and the elements of an array value are returned one by one.
+     *
+     * @param key       the field for which to return the distinct values
+     * @param query     selects the documents from which to retrieve the distinct values
+     * @param readPrefs {@link ReadPreference} to be used for this operation
+     * @return A {@code List} of the distinct values
+     */
+    @Override
+    public List<Object> distinct(final String key, final DBObject query, final ReadPreference readPrefs) {
+        final List<DBObject> pipeline = new ArrayList<DBObject>();
+        pipeline.add(new BasicDBObject("$match", RedactionQueryPlanner.and(query, new BasicDBObject(key, new BasicDBObject("$exists", true)))));
+        pipeline.add(new BasicDBObject("$group", new BasicDBObject("_id", "$" + key)));
+
+        final Set<Object> values = new LinkedHashSet<Object>();
+        final Cursor cursor = aggregate(pipeline, AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build(), readPrefs);
+        try {
+            while (cursor.hasNext()) {
+                final Object value = cursor.next().get("_id");
+                if (value instanceof List) {
+                    values.addAll((List<?>) value);       // "$group" keeps arrays whole, "distinct" does not
+                } else {
+                    values.add(value);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new ArrayList<Object>(values);
+    }
+
+    /**
+     * Run a group command on the documents the user may see, after redaction.  The command is translated into a
+     * "$redact" first aggregation ending in a "$group", see {@link AggregationTranslator} for the reduce functions
+     * that can be translated, so it runs inside mongod on the redacted documents without writing them anywhere.
+     * The records are returned as the group command returns them, though not in the same order.
+     *
+     * @param cmd       the group command
+     * @param readPrefs {@link ReadPreference} to be used for this operation
+     * @return a document with the grouped records
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    @Override
+    public DBObject group(final GroupCommand cmd, final ReadPreference readPrefs) {
+        return group((DBObject) cmd.toDBObject().get("group"), readPrefs);
+    }
 
+    /**
+     * Run a group command on the documents the user may see, as {@link #group(GroupCommand, ReadPreference)} does.
+     *
+     * @param args the arguments of the group command
+     * @return a document with the grouped records
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    @Override
+    @Deprecated
+    public DBObject group(final DBObject args) {
+        return group(args, getReadPreference());
+    }
+
+    private DBObject group(final DBObject args, final ReadPreference readPrefs) {
+        final AggregationTranslator.Group group = AggregationTranslator.group(args);
+        final BasicDBList records = new BasicDBList();
+        final Cursor cursor = aggregate(group.pipeline, AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build(), readPrefs);
+        try {
+            while (cursor.hasNext()) {
+                records.add(group.toRecord(cursor.next()));
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * Run a map-reduce on the documents the user may see, after redaction.  The command is translated into a
+     * "$redact" first aggregation ending in a "$group" on the emitted key, see {@link AggregationTranslator} for the
+     * map and reduce functions that can be translated, so it runs inside mongod on the redacted documents without
+     * writing them anywhere.  Inline output is returned from the aggregation and honours the command's read
+     * preference; replace output is written by "$out", on the primary, to a collection of this database, and holds
+     * results computed from redacted documents only.  The counts of the output are not available.
+     *
+     * @param command the map-reduce command
+     * @return the output of the map-reduce
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    @Override
+    public MapReduceOutput mapReduce(final MapReduceCommand command) {
+        return mapReduce(command.toDBObject(), command.getReadPreference() != null ? command.getReadPreference() : getReadPreference());
+    }
+
+    /**
+     * Run a map-reduce on the documents the user may see, as {@link #mapReduce(MapReduceCommand)} does.
+     *
+     * @param command the map-reduce command
+     * @return the output of the map-reduce
+     * @throws IllegalArgumentException if the command can't be translated
+     */
+    @Override
+    public MapReduceOutput mapReduce(final DBObject command) {
+        return mapReduce(command, getReadPreference());
+    }
+
+    private MapReduceOutput mapReduce(final DBObject command, final ReadPreference readPrefs) {
+        final AggregationTranslator.MapReduce mapReduce = AggregationTranslator.mapReduce(command, getName(), getDB().getName());
+        final BasicDBObject aggregate = new BasicDBObject("aggregate", getName()).append("pipeline", getSecurePipeline(mapReduce.pipeline));
+        if (command.get("maxTimeMS") instanceof Number) {
+            aggregate.append("maxTimeMS", command.get("maxTimeMS"));
+        }
+        final boolean inline = mapReduce.outputCollection == null;
+        final CommandResult res = getDB().command(aggregate, getOptions(), inline ? readPrefs : ReadPreference.primary());
+        res.throwOnError();
+
+        // MapReduceOutput reads inline documents from "results", the output collection's name from "result"
+        final Object results = res.removeField("result");
+        if (inline) {
+            res.put("results", results);
+        } else {
+            res.put("result", mapReduce.outputCollection);
+        }
+        return new MapReduceOutput(this, aggregate, res);
     }
 
     /**
@@ -395,10 +626,241 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
      * @return new pipeline with SecurityRedact on front.
      */
     protected List<DBObject> prependSecurityRedactToPipeline(List<DBObject> pipeline) {
-        String visibilityAttributesForUser = this.userSecurityAttributes.encodeFlacSecurityAttributes();
+        String visibilityAttributesForUser = getSecurityPrincipal().toFlacEncodedString();
         return prependSecurityRedactToPipelineWorker(pipeline, visibilityAttributesForUser);
     }
 
+    /**
+     * get the canonical form of the current user's security attributes.
+     *
+     * @return the principal this collection redacts for
+     */
+    public SecurityPrincipal getSecurityPrincipal() {
+        if (securityPrincipal != null) return securityPrincipal;
+        return userSecurityAttributes.toSecurityPrincipal();
+    }
+
+    /**
+     * move the predicates of a "$match" directly behind the "$redact" that are unaffected by redaction in front of it.
+     *
+     * @param pipelineSecure  pipeline starting with the "$redact" stage
+     * @return pipelineSecure, or a new pipeline with a leading "$match"
+     */
+    private List<DBObject> pushLeadingMatchAheadOfRedact(List<DBObject> pipelineSecure) {
+        if (!labelSchema.isKnown() || pipelineSecure.size() < 2) return pipelineSecure;
+        final Object match = pipelineSecure.get(1).get("$match");
+        if (!(match instanceof DBObject) || pipelineSecure.get(1).keySet().size() != 1) return pipelineSecure;
+
+        final RedactionQueryPlanner.QueryPlan plan = queryPlanner.plan((DBObject) match);
+        if (plan.getBeforeRedact() == null) return pipelineSecure;
+
+        final List<DBObject> planned = new ArrayList<DBObject>(pipelineSecure.size() + 1);
+        planned.add(new BasicDBObject("$match", plan.getBeforeRedact()));
+        planned.add(pipelineSecure.get(0));
+        if (plan.getAfterRedact() != null) {
+            planned.add(new BasicDBObject("$match", plan.getAfterRedact()));
+        }
+        planned.addAll(pipelineSecure.subList(2, pipelineSecure.size()));
+        return planned;
+    }
+
+    /**
+     * @return true if documents the user can't see are filtered out before "$redact", see
+     *         {@link #setDocumentLevelPreFilter(boolean)}
+     */
+    public boolean isDocumentLevelPreFilter() {
+        return documentLevelPreFilter;
+    }
+
+    /**
+     * turn the document level pre-filter on or off.  When on, every find and aggregate starts by matching only the
+     * documents whose top level "sl" the user satisfies, see {@link #getDocumentLevelPreFilter()}, so a user with a
+     * low clearance no longer has every document of the collection pushed through "$redact".  "$redact" still
+     * runs afterwards for the subdocuments.  Create the supporting index once with
+     * {@link #createSecurityLabelIndex()}.  Writes through this collection keep the indexed "slt" field, documents
+     * written to the wrapped collection directly need {@link TopLevelTerms#addTo(DBObject)}.
+     *
+     * @param documentLevelPreFilter  true to turn the pre-filter on, it is off by default
+     */
+    public void setDocumentLevelPreFilter(boolean documentLevelPreFilter) {
+        this.documentLevelPreFilter = documentLevelPreFilter;
+    }
+
+    /**
+     * get the query predicate that keeps the documents whose top level "sl" the user satisfies, e.g. for a user
+     * with c:TS and sci:TK
+     * <tt><pre>
+     *  { $or: [ { slt: null }, { slt: { $in: [ "c:TS", "sci:TK" ] } } ],
+     *    sl: { $not: { $elemMatch: { $ne: [ ], $not: { $elemMatch: { $in: [ { c:"TS" }, { sci:"TK" } ] } } } } } }
+     * </pre></tt>
+     * The "$or" picks the candidates from the "slt" index, see {@link TopLevelTerms}: the documents holding one of
+     * the user's terms and the ones without terms.  The "sl" clause then drops the documents with an inner array the
+     * user shares no term with, it is {@link #getWriteAccessPredicate()}.
+     *
+     * @return the predicate, or null if the pre-filter is off
+     */
+    public DBObject getDocumentLevelPreFilter() {
+        if (!documentLevelPreFilter) return null;
+
+        final String sl = RedactionEvaluator.SECURITY_LABEL_FIELD;
+        final String slt = TopLevelTerms.TOP_LEVEL_TERMS_FIELD;
+        final List<DBObject> candidates = new ArrayList<DBObject>();
+        candidates.add(new BasicDBObject(slt, null));       // matches a missing "slt", the index holds it as null
+        candidates.add(new BasicDBObject(slt, new BasicDBObject("$in", getSecurityPrincipal().getTerms())));
+
+        return new BasicDBObject("$or", candidates).append(sl, getWriteAccessPredicate().get(sl));
+    }
+
+    /**
+     * get the query predicate that keeps the documents whose top level "sl" the user satisfies, i.e. the ones that
+     * have no inner array the user shares no term with, e.g. for a user with c:TS and sci:TK
+     * <tt><pre>
+     *  { sl: { $not: { $elemMatch: { $ne: [ ], $not: { $elemMatch: { $in: [ { c:"TS" }, { sci:"TK" } ] } } } } } }
+     * </pre></tt>
+     * The inner "$elemMatch" is needed to look at the terms of an inner array, "$in" or "$nin" on the inner array
+     * itself would compare the whole array with the terms.  Every update, remove and findAndModify of this
+     * collection has it added to its query, so the server checks access in the same operation that writes.
+     *
+     * @return the predicate
+     */
+    public DBObject getWriteAccessPredicate() {
+        final List<DBObject> terms = getSecurityPrincipal().getFlacEncodedTerms();
+        final DBObject sharesATerm = new BasicDBObject("$elemMatch", new BasicDBObject("$in", terms));
+        final DBObject unsatisfiedInnerArray = new BasicDBObject("$ne", new ArrayList<DBObject>()).append("$not", sharesATerm);
+        return new BasicDBObject(RedactionEvaluator.SECURITY_LABEL_FIELD,
+                new BasicDBObject("$not", new BasicDBObject("$elemMatch", unsatisfiedInnerArray)));
+    }
+
+    /** @return query restricted to the documents the user may write */
+    private DBObject restrictToWritable(DBObject query) {
+        if (query == null || query.keySet().isEmpty()) return getWriteAccessPredicate();
+        return new BasicDBObject("$and", Arrays.asList(query, getWriteAccessPredicate()));
+    }
+
+    /**
+     * create the multikey index on "slt" used by the document level pre-filter, see {@link TopLevelTerms}.
+     */
+    public void createSecurityLabelIndex() {
+        _wrapped.createIndex(new BasicDBObject(TopLevelTerms.TOP_LEVEL_TERMS_FIELD, 1));
+    }
+
+    /**
+     * @return where this collection's documents may carry labelled subdocuments
+     */
+    public LabelSchema getLabelSchema() {
+        return labelSchema;
+    }
+
+    /**
+     * declare where this collection's documents may carry labelled subdocuments, e.g.
+     * <tt><pre>
+     *     redactedDBCollection.setLabelSchema(LabelSchema.of("ssn", "country", "favorites"));
+     * </pre></tt>
+     * Query predicates on other fields are then matched before the "$redact" stage, using indexes.  An incomplete
+     * schema lets a query see values the user may not, so list every labelled path.
+     *
+     * @param labelSchema  the schema, {@link LabelSchema#UNKNOWN} (the default) keeps the whole query behind "$redact"
+     */
+    public void setLabelSchema(LabelSchema labelSchema) {
+        this.labelSchema = Preconditions.checkNotNull(labelSchema, "labelSchema can't be null");
+        this.queryPlanner = new RedactionQueryPlanner(labelSchema);
+    }
+
+    /** @return the planner for this collection's label schema */
+    RedactionQueryPlanner getQueryPlanner() {
+        return queryPlanner;
+    }
+
+    /**
+     * @return how finds on this collection are redacted
+     */
+    public RedactionEngine getRedactionEngine() {
+        return redactionEngine;
+    }
+
+    /**
+     * choose how finds on this collection are redacted, e.g. to compare the two engines:
+     * <tt><pre>
+     *     redactedDBCollection.setRedactionEngine(new ClientRedactionEngine());
+     * </pre></tt>
+     * aggregate always uses a server side "$redact" stage, whatever the engine.
+     *
+     * @param redactionEngine  {@link ServerRedactionEngine} (the default) or {@link ClientRedactionEngine}
+     */
+    public void setRedactionEngine(RedactionEngine redactionEngine) {
+        this.redactionEngine = Preconditions.checkNotNull(redactionEngine, "redactionEngine can't be null");
+    }
+
+    /**
+     * @return the cache finds are answered from, or null
+     */
+    public RedactedResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * share the redacted results of finds between users with the same security attributes, e.g.
+     * <tt><pre>
+     *     redactedDBCollection.setResultCache(new RedactedResultCache(1000, 30, TimeUnit.SECONDS));
+     * </pre></tt>
+     * Only finds run by the {@link ServerRedactionEngine} are cached.  insert, update, remove, findAndModify,
+     * executeBulkWriteOperation and drop on this collection invalidate the results of the wrapped collection.
+     *
+     * @param resultCache  the cache, may be shared by many collections, or null (the default) to turn caching off
+     */
+    public void setResultCache(RedactedResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return the coalescer concurrent finds are shared through, or null
+     */
+    public ReadCoalescer getReadCoalescer() {
+        return readCoalescer;
+    }
+
+    /**
+     * let finds of users with the same security attributes that run at the same time share one aggregation, e.g.
+     * <tt><pre>
+     *     redactedDBCollection.setReadCoalescer(ReadCoalescer.getDefault());
+     * </pre></tt>
+     * Only finds run by the {@link ServerRedactionEngine} are shared.  A find that finds its result in the
+     * {@link #setResultCache(RedactedResultCache) result cache} does not run anything.  A find started after a
+     * write through this collection runs its own aggregation.
+     *
+     * @param readCoalescer  the coalescer, may be shared by many collections, or null (the default) to turn sharing off
+     */
+    public void setReadCoalescer(ReadCoalescer readCoalescer) {
+        this.readCoalescer = readCoalescer;
+    }
+
+    /**
+     * drop the cached results of the wrapped collection and keep finds from attaching to the aggregations in flight
+     * on it, after it has been written to
+     */
+    private void invalidateResultCache() {
+        if (resultCache != null) {
+            resultCache.invalidate(namespace);
+        }
+        if (readCoalescer != null) {
+            readCoalescer.invalidate(namespace);
+        }
+    }
+
+    /**
+     * @return the shared evaluator for the user, from the {@link ClientRedactionEngine} when that redacts the finds
+     */
+    private RedactionEvaluator getEvaluator() {
+        final ClientRedactionEngine engine = redactionEngine instanceof ClientRedactionEngine
+                ? (ClientRedactionEngine) redactionEngine : DEFAULT_CLIENT_REDACTION_ENGINE;
+        return engine.getEvaluator(getSecurityPrincipal());
+    }
+
+    /** @return the unprotected collection this collection wraps */
+    DBCollection getWrappedCollection() {
+        return _wrapped;
+    }
+
     protected static List<DBObject> prependSecurityRedactToPipelineWorker(List<DBObject> pipeline, String visibilityAttributesForUser) {
         final DBObject redactCommandForPipeline = getRedactCommand(visibilityAttributesForUser);
         ArrayList<DBObject> newPipelineToReturn = new ArrayList<DBObject>();
@@ -408,16 +870,137 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
     }
 
 
+    /**
+     * Scan the whole collection with several cursors that can be read concurrently, each one redacted for the user.
+     *
+     * <p> The server's "parallelCollectionScan" hands out raw documents, so instead the collection is split into
+     * numCursors "_id" ranges of about the same number of documents and each range is read by its own aggregation.
+     * The range "$match" goes ahead of "$redact", so that it can use the "_id" index and every document falls into
+     * exactly one range, whatever "$redact" does to it.  A collection whose "_id"s are not all of one type is read by
+     * a single cursor, since range queries only match values of the bound's type.
+     * </p>
+     *
+     * @param options  numCursors, batchSize and readPreference, the collection's read preference if that is null
+     * @return at most numCursors cursors, together returning each document the user may see once
+     */
     @Override
-    @SuppressWarnings("unchecked")
     public List<Cursor> parallelScan(final ParallelScanOptions options) {
-        return _wrapped.parallelScan(options);
+        final ReadPreference readPreference = options.getReadPreference() != null ? options.getReadPreference() : getReadPreference();
+        final AggregationOptions.Builder aggregationOptions = AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR);
+        if (options.getBatchSize() > 0) {
+            aggregationOptions.batchSize(options.getBatchSize());
+        }
+
+        final List<Cursor> cursors = new ArrayList<Cursor>();
+        for (DBObject range : getIdRanges(findIdSplitPoints(options.getNumCursors(), readPreference))) {
+            final List<DBObject> pipeline = new ArrayList<DBObject>();
+            final DBObject match = RedactionQueryPlanner.and(range, getDocumentLevelPreFilter());
+            if (match != null) {
+                pipeline.add(new BasicDBObject("$match", match));
+            }
+            pipeline.addAll(prependSecurityRedactToPipeline(new ArrayList<DBObject>()));
+            cursors.add(_wrapped.aggregate(pipeline, aggregationOptions.build(), readPreference));
+        }
+        return cursors;
+    }
+
+    /**
+     * The document count comes from the "count" command, which reads the collection's metadata, the smallest and
+     * largest "_id" from an "_id" sorted $limit 1 in each direction, which the "_id" index answers.  Each split point
+     * is an "_id" sorted $skip, which still walks the index up to it.
+     *
+     * @return the "_id"s that start the 2nd, 3rd, ... range, sorted and without duplicates, empty for a single range
+     */
+    List<Object> findIdSplitPoints(int numCursors, ReadPreference readPreference) {
+        final List<Object> splitPoints = new ArrayList<Object>();
+        if (numCursors < 2) return splitPoints;
+
+        final long count = _wrapped.getCount(readPreference);
+        if (count == 0) return splitPoints;
+        final DBObject min = findOneId(1, 0, readPreference);
+        final DBObject max = findOneId(-1, 0, readPreference);
+        if (min == null || max == null || !isSameIdType(min.get("_id"), max.get("_id"))) return splitPoints;
+
+        for (int i = 1; i < numCursors; i++) {
+            final long skip = count * i / numCursors;
+            if (skip == 0) continue;
+            final DBObject boundary = findOneId(1, skip, readPreference);
+            if (boundary == null) break;
+            final Object id = boundary.get("_id");
+            if (splitPoints.isEmpty() || !splitPoints.get(splitPoints.size() - 1).equals(id)) {
+                splitPoints.add(id);
+            }
+        }
+        return splitPoints;
+    }
+
+    /**
+     * @param direction  1 to count from the smallest "_id", -1 from the largest
+     * @param skip       the number of "_id"s to pass over
+     * @return the document holding just the "_id", null past the end of the collection
+     */
+    private DBObject findOneId(int direction, long skip, ReadPreference readPreference) {
+        final List<DBObject> pipeline = new ArrayList<DBObject>();
+        pipeline.add(new BasicDBObject("$sort", new BasicDBObject("_id", direction)));
+        if (skip > 0) {
+            pipeline.add(new BasicDBObject("$skip", skip));
+        }
+        pipeline.add(new BasicDBObject("$limit", 1));
+        pipeline.add(new BasicDBObject("$project", new BasicDBObject("_id", 1)));
+        return first(_wrapped.aggregate(pipeline,
+                AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build(), readPreference));
+    }
+
+    /**
+     * @param splitPoints  see {@link #findIdSplitPoints(int, ReadPreference)}
+     * @return one "_id" range query per cursor, a single null for the whole collection
+     */
+    static List<DBObject> getIdRanges(List<Object> splitPoints) {
+        if (splitPoints.isEmpty()) return Collections.singletonList(null);
+
+        final List<DBObject> ranges = new ArrayList<DBObject>(splitPoints.size() + 1);
+        ranges.add(new BasicDBObject("_id", new BasicDBObject("$lt", splitPoints.get(0))));
+        for (int i = 1; i < splitPoints.size(); i++) {
+            ranges.add(new BasicDBObject("_id", new BasicDBObject("$gte", splitPoints.get(i - 1)).append("$lt", splitPoints.get(i))));
+        }
+        ranges.add(new BasicDBObject("_id", new BasicDBObject("$gte", splitPoints.get(splitPoints.size() - 1))));
+        return ranges;
+    }
 
+    private static boolean isSameIdType(Object min, Object max) {
+        if (min == null || max == null) return false;
+        if (min instanceof Number && max instanceof Number) return true;     // all numbers compare with each other
+        return min.getClass().equals(max.getClass()) && !(min instanceof DBObject);
     }
 
+    private static DBObject first(Cursor cursor) {
+        try {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * the updates, replaces and removes only touch documents the user may see, see {@link #getWriteAccessPredicate()}.
+     * The written documents get their "slt" field, see {@link TopLevelTerms}.
+     */
     @Override        // podpod
     public BulkWriteResult executeBulkWriteOperation(boolean ordered, List<WriteRequest> requests, WriteConcern writeConcern, DBEncoder encoder) {
-        return _wrapped.executeBulkWriteOperation(ordered, requests, writeConcern, encoder);
+        final DBObject writeAccessPredicate = getWriteAccessPredicate();
+        final List<WriteRequest> restricted = new ArrayList<WriteRequest>(requests.size());
+        for (WriteRequest request : requests) {
+            final DBObject written = request.getWrittenDocument();
+            if (written != null) {
+                TopLevelTerms.addToUpdate(written);
+            }
+            restricted.add(request.restrictQuery(writeAccessPredicate));
+        }
+        try {
+            return _wrapped.executeBulkWriteOperation(ordered, restricted, writeConcern, encoder);
+        } finally {
+            invalidateResultCache();
+        }
     }
 
 
@@ -430,17 +1013,38 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
     //                writeConcern, encoder);
     //    }
 
+    /**
+     * insert the documents, each gets its "slt" field, see {@link TopLevelTerms}.
+     */
     @Override
     public WriteResult insert(List<DBObject> list, WriteConcern concern, DBEncoder encoder) {
-        return _wrapped.insert(list, concern, encoder);
+        for (DBObject document : list) {
+            TopLevelTerms.addTo(document);
+        }
+        try {
+            return _wrapped.insert(list, concern, encoder);
+        } finally {
+            invalidateResultCache();
+        }
     }
 
+    /**
+     * remove only documents the user may see, see {@link #getWriteAccessPredicate()}.
+     */
     @Override
     public WriteResult remove(DBObject query, WriteConcern concern, DBEncoder encoder) {
-        return _wrapped.remove(query, concern, encoder);
+        try {
+            return _wrapped.remove(restrictToWritable(query), concern, encoder);
+        } finally {
+            invalidateResultCache();
+        }
     }
 
 
+    /**
+     * update only documents the user may see, see {@link #getWriteAccessPredicate()}.  The update keeps the "slt"
+     * field in step with "sl", see {@link TopLevelTerms#addToUpdate(DBObject)}.
+     */
     @Override
     public WriteResult update(DBObject query, DBObject o, boolean upsert, boolean multi, WriteConcern concern,
                               DBEncoder encoder) {
@@ -454,13 +1058,48 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
         if (willTrace()) {
             trace("update: " + namespace + " " + JSON.serialize(query) + " " + JSON.serialize(o));
         }
-        return _wrapped.update(query, o, upsert, multi, concern, encoder);
+        try {
+            return _wrapped.update(restrictToWritable(query), TopLevelTerms.addToUpdate(o), upsert, multi, concern, encoder);
+        } finally {
+            invalidateResultCache();
+        }
+    }
+
+    /**
+     * Atomically modify and return a single document the user may see.  The access check is part of the query, see
+     * {@link #getWriteAccessPredicate()}, so it happens on the server in the same operation.  The returned document
+     * is redacted for the user, and is null if the user may not see it any more after the update.
+     */
+    @Override
+    public DBObject findAndModify(final DBObject query, final DBObject fields, final DBObject sort,
+                                  final boolean remove, final DBObject update,
+                                  final boolean returnNew, final boolean upsert,
+                                  final long maxTime, final TimeUnit maxTimeUnit) {
+        final RedactionEvaluator.WidenedProjection projection = RedactionEvaluator.widenProjection(fields);
+        final DBObject document;
+        try {
+            document = _wrapped.findAndModify(restrictToWritable(query), projection.keys, sort, remove,
+                    update == null ? null : TopLevelTerms.addToUpdate(update), returnNew, upsert, maxTime, maxTimeUnit);
+        } finally {
+            invalidateResultCache();
+        }
+        if (document == null) return null;
+
+        final DBObject redacted = getEvaluator().redact(document);
+        if (redacted != null) {
+            projection.strip(redacted);
+        }
+        return redacted;
     }
 
 
     @Override
     public void drop() {
-        _wrapped.drop();
+        try {
+            _wrapped.drop();
+        } finally {
+            invalidateResultCache();
+        }
     }
 
     @Override
@@ -534,15 +1173,12 @@ public class RedactedDBCollection extends com.mongodb.DBCollection {
         pipeline.add(limit);
     }
 
-    /** build the "$redact" mongodb command based on current FLAC user visibilityAttributesForUser setting */
+    /**
+     * get the "$redact" mongodb command based on current FLAC user visibilityAttributesForUser setting, the
+     * command is compiled once and then shared (read only) via the {@link RedactStageCache}.
+     */
     private static DBObject getRedactCommand(String visibilityAttributesForUser) {
-        if (visibilityAttributesForUser == null || visibilityAttributesForUser.trim().length() == 0) {
-            visibilityAttributesForUser = "[ ]";
-        }
-        String userSecurityExpression = String.format(com.mongodb.flac.RedactedDBCollectionConstants.getSecurityExpression(), visibilityAttributesForUser);
-        logger.debug("**************** find() userSecurityExpression: " + userSecurityExpression);
-        DBObject redactCommand = (DBObject) JSON.parse(userSecurityExpression);
-        return new BasicDBObject("$redact", redactCommand);
+        return RedactStageCache.getDefault().getRedactStage(visibilityAttributesForUser);
     }
 
 
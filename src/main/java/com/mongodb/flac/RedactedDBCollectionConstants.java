@@ -5,6 +5,7 @@ package com.mongodb.flac;
  */
 public class RedactedDBCollectionConstants {
     private static String securityExpression;
+    private static String bitsetSecurityExpression;
 
     public static String getSecurityExpression() {
         if (securityExpression == null) { securityExpression = getDefaultSecurityExpression(); }
@@ -14,6 +15,26 @@ public class RedactedDBCollectionConstants {
 
     public void setSecurityExpression(String securityExpression) {          // non static so users can use spring easily
         RedactedDBCollectionConstants.securityExpression = securityExpression;
+        RedactStageCache.getDefault().invalidateAll();      // stages compiled from the old template are stale now
+    }
+
+    /**
+     * the "$redact" template used with "slb" labels, %s is replaced by the user's bit positions, e.g. <tt>[ 0, 3, 7 ]</tt>.
+     * A document that has "sl" but no "slb" falls back to comparing its "sl" documents against those numbers, which
+     * never match, so unconverted documents are pruned rather than shown.
+     */
+    public static String getBitsetSecurityExpression() {
+        if (bitsetSecurityExpression == null) { bitsetSecurityExpression = getDefaultBitsetSecurityExpression(); }
+        return bitsetSecurityExpression;
+    }
+
+    public void setBitsetSecurityExpression(String bitsetSecurityExpression) {          // non static so users can use spring easily
+        RedactedDBCollectionConstants.bitsetSecurityExpression = bitsetSecurityExpression;
+        RedactStageCache.getDefault().invalidateAll();      // stages compiled from the old template are stale now
+    }
+
+    private static String getDefaultBitsetSecurityExpression() {
+        return getDefaultSecurityExpression().replace("{$ifNull:[\"$sl\",[[]]]}", "{$ifNull:[\"$slb\",{$ifNull:[\"$sl\",[[]]]}]}");
     }
 
     private static String getDefaultSecurityExpression() {
@@ -0,0 +1,232 @@
+package com.mongodb.flac;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.util.JSON;
+import org.bson.BSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RedactedResultCache holds the redacted results of finds, so users with the same security attributes running the
+ * same query, e.g. the queries behind a dashboard, share one aggregation instead of each running their own:
+ * <tt><pre>
+ *     RedactedResultCache resultCache = new RedactedResultCache(1000, 30, TimeUnit.SECONDS);
+ *     redactedDBCollection.setResultCache(resultCache);
+ * </pre></tt>
+ *
+ * <p> A result is keyed by the collection's namespace, the user's {@link SecurityPrincipal}, the shape of the
+ * pipeline (query, projection, sort, skip and limit, the "$redact" stage is represented by the principal) and the
+ * read preference.  A result is only stored once its cursor has been read to the end, and only if it has no more
+ * than the maximum number of documents per entry.  Results are dropped when they are older than the time to live,
+ * when the cache is full (least recently used first), and when {@link RedactedDBCollection} writes to the
+ * namespace through insert, update, remove, findAndModify, executeBulkWriteOperation or drop.  Writes that don't go
+ * through a RedactedDBCollection, e.g. by a {@link LabelledBulkWriter}, are only seen once the time to live is up,
+ * call {@link #invalidate(String)} after them if that is too late.
+ * </p>
+ *
+ * <p> Cached documents are held as read only copies; every hit hands out fresh copies that the caller may change.
+ * A cache is thread safe and may be shared by many collections and users.
+ * </p>
+ */
+public class RedactedResultCache {
+
+    /** default upper bound on the documents of one result that is still stored */
+    public static final int DEFAULT_MAX_DOCUMENTS_PER_ENTRY = 1000;
+
+    private final Cache<Key, List<DBObject>> cache;
+    private final int maxDocumentsPerEntry;
+
+    /** namespace -> counter bumped on every invalidation, results read across a bump are not stored */
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * @param maximumSize  maximum number of results to keep, least recently used ones are evicted first
+     * @param timeToLive   how long a result is used after it was read
+     * @param unit         unit of timeToLive
+     */
+    public RedactedResultCache(long maximumSize, long timeToLive, TimeUnit unit) {
+        this(maximumSize, timeToLive, unit, DEFAULT_MAX_DOCUMENTS_PER_ENTRY);
+    }
+
+    /**
+     * @param maximumSize           maximum number of results to keep, least recently used ones are evicted first
+     * @param timeToLive            how long a result is used after it was read
+     * @param unit                  unit of timeToLive
+     * @param maxDocumentsPerEntry  results with more documents are not stored
+     */
+    public RedactedResultCache(long maximumSize, long timeToLive, TimeUnit unit, int maxDocumentsPerEntry) {
+        if (timeToLive <= 0) throw new IllegalArgumentException("timeToLive must be positive");
+        if (maxDocumentsPerEntry < 0) throw new IllegalArgumentException("maxDocumentsPerEntry can't be negative");
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(timeToLive, unit).recordStats().build();
+        this.maxDocumentsPerEntry = maxDocumentsPerEntry;
+    }
+
+    /**
+     * @param namespace       full name of the wrapped collection
+     * @param principal       the user's canonical terms
+     * @param pipeline        the complete find pipeline
+     * @param readPreference  read preference of the find, may be null
+     * @return the key for the find's result
+     */
+    static Key key(String namespace, SecurityPrincipal principal, List<DBObject> pipeline, ReadPreference readPreference) {
+        final StringBuilder shape = new StringBuilder();
+        for (DBObject stage : pipeline) {
+            // the stage is compiled from the principal, which is part of the key already
+            shape.append(stage.containsField("$redact") ? "{ \"$redact\" : 1 }" : JSON.serialize(stage)).append(',');
+        }
+        return new Key(namespace, principal, shape.toString(), readPreference == null ? "" : readPreference.toString());
+    }
+
+    /**
+     * @param key  from {@link #key}
+     * @return copies of the cached documents, or null when the result is not cached
+     */
+    List<DBObject> get(Key key) {
+        final List<DBObject> cached = cache.getIfPresent(key);
+        if (cached == null) return null;
+
+        final List<DBObject> copies = new ArrayList<DBObject>(cached.size());
+        for (DBObject document : cached) {
+            copies.add((DBObject) thaw(document));
+        }
+        return copies;
+    }
+
+    /** @return the current generation of namespace, to hand to {@link #put} when the read is done */
+    long getGeneration(String namespace) {
+        return generation(namespace).get();
+    }
+
+    /**
+     * @return the largest number of documents of a result that is stored, readers may stop recording beyond it
+     */
+    int getMaxDocumentsPerEntry() {
+        return maxDocumentsPerEntry;
+    }
+
+    /**
+     * store a result, unless its namespace was invalidated since the read started.
+     *
+     * @param key         from {@link #key}
+     * @param generation  from {@link #getGeneration(String)}, taken before the read started
+     * @param documents   read only copies, see {@link ReadOnlyDBObject#freeze(Object)}
+     */
+    void put(Key key, long generation, List<DBObject> documents) {
+        if (documents.size() > maxDocumentsPerEntry) return;
+        if (generation(key.namespace).get() != generation) return;
+        cache.put(key, Collections.unmodifiableList(documents));
+        if (generation(key.namespace).get() != generation) {
+            cache.invalidate(key);      // invalidated while storing
+        }
+    }
+
+    /**
+     * drop every result read from a collection, e.g. after it was written to.
+     *
+     * @param namespace  full name of the collection, e.g. "test.persons"
+     */
+    public void invalidate(String namespace) {
+        generation(namespace).incrementAndGet();
+        for (Key key : cache.asMap().keySet()) {
+            if (key.namespace.equals(namespace)) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /** drop all results */
+    public void invalidateAll() {
+        for (AtomicLong generation : generations.values()) {
+            generation.incrementAndGet();
+        }
+        cache.invalidateAll();
+    }
+
+    /** @return number of results currently held */
+    public long size() {
+        return cache.size();
+    }
+
+    /** @return hit, miss and eviction counters */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    private AtomicLong generation(String namespace) {
+        AtomicLong generation = generations.get(namespace);
+        if (generation == null) {
+            final AtomicLong created = new AtomicLong();
+            generation = generations.putIfAbsent(namespace, created);
+            if (generation == null) generation = created;
+        }
+        return generation;
+    }
+
+    /** @return a changeable deep copy of a read only value */
+    static Object thaw(Object value) {
+        if (value instanceof List) {
+            final BasicDBList copy = new BasicDBList();
+            for (Object element : (List<?>) value) {
+                copy.add(thaw(element));
+            }
+            return copy;
+        } else if (value instanceof BSONObject) {
+            final BSONObject document = (BSONObject) value;
+            final BasicDBObject copy = new BasicDBObject();
+            for (String key : document.keySet()) {
+                copy.put(key, thaw(document.get(key)));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /** identifies one find's result */
+    static final class Key {
+        final String namespace;
+        private final SecurityPrincipal principal;
+        private final String pipelineShape;
+        private final String readPreference;
+
+        Key(String namespace, SecurityPrincipal principal, String pipelineShape, String readPreference) {
+            this.namespace = namespace;
+            this.principal = principal;
+            this.pipelineShape = pipelineShape;
+            this.readPreference = readPreference;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return namespace.equals(other.namespace) && principal.equals(other.principal)
+                    && pipelineShape.equals(other.pipelineShape) && readPreference.equals(other.readPreference);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = namespace.hashCode();
+            result = 31 * result + principal.hashCode();
+            result = 31 * result + pipelineShape.hashCode();
+            return 31 * result + readPreference.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" + namespace + ", " + principal + ", " + pipelineShape + ", " + readPreference + '}';
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.mongodb.flac;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+
+/**
+ * RedactionEngine decides how a {@link RedactedDBCollection} enforces the FLAC "sl" rules on a find.
+ *
+ * <p> Two engines are provided:
+ *  <ul>
+ *     <li> {@link ServerRedactionEngine}, the default, turns the find into an aggregation pipeline that starts with a
+ *          "$redact" stage so the server removes everything the user may not see. </li>
+ *     <li> {@link ClientRedactionEngine} runs a plain find, keeping index use, hints, $text and explain, and applies
+ *          the same rules in Java with a {@link RedactionEvaluator} as the documents are read. </li>
+ *  </ul>
+ * The engine is chosen per collection with {@link RedactedDBCollection#setRedactionEngine(RedactionEngine)}.
+ * </p>
+ */
+public interface RedactionEngine {
+
+    /**
+     * Queries the collection, honoring the user's FLAC security controls.
+     *
+     * @param collection      the redacted collection, gives the wrapped collection and the user's principal
+     * @param query           object for which to search, may be null
+     * @param keys            fields to return, may be null
+     * @param readPreference  the Read Preference for this query
+     * @return a cursor that only returns what the user may see
+     */
+    DBCursor find(RedactedDBCollection collection, DBObject query, DBObject keys, ReadPreference readPreference);
+}
@@ -0,0 +1,350 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+
+import java.util.*;
+
+/**
+ * RedactionEvaluator applies the FLAC "sl" rules in Java to documents that were read without a server side
+ * "$redact" stage.
+ *
+ * <p> The rules are the same as the ones in {@link RedactedDBCollectionConstants#getSecurityExpression()}: a document
+ * or subdocument with an "sl" field such as
+ * <tt><pre>
+ *     sl: [ [ { c:"TS" } ], [ { sci:"TK" }, { sci:"SI" } ] ]
+ * </pre></tt>
+ * is kept only if every inner array is empty or shares at least one term with the user, otherwise it is removed
+ * together with everything below it.  A document without "sl" is kept and its subdocuments, including the ones held
+ * in arrays, are checked in turn.  An "sl" that does not have this shape is treated as inaccessible.
+ * </p>
+ *
+ * <p> The user's terms are turned into a bitset over a {@link SecurityLabelDictionary} once, when the evaluator is
+ * built, so checking an inner array is one dictionary lookup per term plus a bitwise AND.  The dictionary is only
+ * read: user terms it has no bit for are left out of the bitset, and a label term that had no bit when the
+ * evaluator was built is looked up in the principal instead.
+ * </p>
+ *
+ * <p> When built with <tt>useBitsetLabels</tt> a document's "slb" label, see
+ * {@link SecurityLabelDictionary#addBitsetLabels(DBObject)}, is checked instead of its "sl" when it has one, which
+ * takes a single bitwise AND per term and no lookups at all.  The dictionary must then be the one the writers used.
+ * </p>
+ *
+ * <p> An evaluator is immutable and thread safe.
+ * </p>
+ */
+public class RedactionEvaluator {
+
+    /** name of the field holding a document's security label */
+    public static final String SECURITY_LABEL_FIELD = "sl";
+
+    /** name of the field holding a document's security label as bit positions */
+    public static final String BITSET_SECURITY_LABEL_FIELD = "slb";
+
+    private static final String[] LABEL_FIELDS = { SECURITY_LABEL_FIELD, BITSET_SECURITY_LABEL_FIELD };
+
+    private final SecurityPrincipal securityPrincipal;
+    private final SecurityLabelDictionary dictionary;
+    private final long[] userBits;
+    /** bits below this were assigned when userBits was built, userBits is exact for them */
+    private final int knownBits;
+    private final boolean useBitsetLabels;
+
+    /**
+     * @param securityPrincipal  the user's expanded terms
+     */
+    public RedactionEvaluator(SecurityPrincipal securityPrincipal) {
+        this(securityPrincipal, SecurityLabelDictionary.getDefault());
+    }
+
+    /**
+     * @param securityPrincipal  the user's expanded terms
+     * @param dictionary         term to bit mapping, it is only read
+     */
+    public RedactionEvaluator(SecurityPrincipal securityPrincipal, SecurityLabelDictionary dictionary) {
+        this(securityPrincipal, dictionary, false);
+    }
+
+    /**
+     * @param securityPrincipal  the user's expanded terms
+     * @param dictionary         term to bit mapping, it is only read
+     * @param useBitsetLabels    check "slb" instead of "sl" when a document has it, dictionary must be the one
+     *                           that encoded the "slb" labels
+     */
+    public RedactionEvaluator(SecurityPrincipal securityPrincipal, SecurityLabelDictionary dictionary, boolean useBitsetLabels) {
+        this.securityPrincipal = securityPrincipal;
+        this.dictionary = dictionary;
+        this.knownBits = dictionary.size();
+        this.userBits = securityPrincipal.toBitset(dictionary);
+        this.useBitsetLabels = useBitsetLabels;
+    }
+
+    /** @return the principal this evaluator redacts for */
+    public SecurityPrincipal getSecurityPrincipal() {
+        return securityPrincipal;
+    }
+
+    /**
+     * check only the document's own "sl", not the ones of its subdocuments.
+     *
+     * @param document  a document or subdocument
+     * @return true if the user may see the document
+     */
+    public boolean isAccessible(BSONObject document) {
+        if (useBitsetLabels) {
+            final Object bitsetLabel = document.get(BITSET_SECURITY_LABEL_FIELD);
+            if (bitsetLabel != null) return isAccessibleBitsetLabel(bitsetLabel);
+        }
+        return isAccessibleLabel(document.get(SECURITY_LABEL_FIELD));
+    }
+
+    /**
+     * @param bitsetLabel  the value of an "slb" field, may be null
+     * @return true if a document with this label may be seen by the user
+     */
+    public boolean isAccessibleBitsetLabel(Object bitsetLabel) {
+        if (bitsetLabel == null) return true;
+        if (!(bitsetLabel instanceof List)) return false;
+
+        final long[] user = userBits;
+        for (Object inner : (List<?>) bitsetLabel) {
+            if (!(inner instanceof List)) return false;
+            final List<?> bitIds = (List<?>) inner;
+            if (bitIds.isEmpty()) continue;
+            boolean intersects = false;
+            for (Object bitId : bitIds) {
+                if (!(bitId instanceof Number)) continue;
+                if (holdsBit(user, ((Number) bitId).intValue())) {
+                    intersects = true;
+                    break;
+                }
+            }
+            if (!intersects) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param securityLabel  the value of an "sl" field, may be null
+     * @return true if a document with this label may be seen by the user
+     */
+    public boolean isAccessibleLabel(Object securityLabel) {
+        if (securityLabel == null) return true;
+        if (!(securityLabel instanceof List)) return false;
+
+        for (Object inner : (List<?>) securityLabel) {
+            if (!(inner instanceof List)) return false;
+            final List<?> terms = (List<?>) inner;
+            if (terms.isEmpty()) continue;
+            if (!intersectsUser(terms)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * redact the document in place, removing every subdocument the user may not see.
+     *
+     * @param document  a decoded document, it is modified
+     * @return document, or null if the user may not see the document at all
+     */
+    public DBObject redact(DBObject document) {
+        return redactDocument(document) ? document : null;
+    }
+
+    private boolean redactDocument(BSONObject document) {
+        if (!isAccessible(document)) return false;
+
+        Iterator<String> keys = new ArrayList<String>(document.keySet()).iterator();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (SECURITY_LABEL_FIELD.equals(key) || BITSET_SECURITY_LABEL_FIELD.equals(key)) continue;
+            final Object value = document.get(key);
+            if (!redactValue(value)) {
+                document.removeField(key);
+            }
+        }
+        return true;
+    }
+
+    /** @return false if value is a subdocument that has to be removed */
+    private boolean redactValue(Object value) {
+        if (value instanceof List) {
+            final Iterator<?> elements = ((List<?>) value).iterator();
+            while (elements.hasNext()) {
+                if (!redactValue(elements.next())) {
+                    elements.remove();
+                }
+            }
+            return true;
+        }
+        if (value instanceof BSONObject) {
+            return redactDocument((BSONObject) value);
+        }
+        return true;
+    }
+
+    private boolean intersectsUser(List<?> terms) {
+        final long[] user = userBits;
+        for (Object term : terms) {
+            // like the server's $setIntersection only a whole { key:value } document matches a user term
+            if (!(term instanceof BSONObject)) continue;
+            final Set<String> keys = ((BSONObject) term).keySet();
+            if (keys.size() != 1) continue;
+            final String key = keys.iterator().next();
+            final Object value = ((BSONObject) term).get(key);
+            final int bit = dictionary.getBit(key, value);
+            if (bit >= 0 && bit < knownBits) {
+                if ((bit >>> 6) < user.length && (user[bit >>> 6] & (1L << bit)) != 0) return true;
+            } else if (value instanceof String && securityPrincipal.contains(key + ':' + value)) {
+                return true;        // no bit when the evaluator was built, user terms are always strings
+            }
+        }
+        return false;
+    }
+
+    private boolean holdsBit(long[] user, int bit) {
+        if (bit < 0) return false;
+        if (bit >= knownBits) {
+            // assigned after this evaluator was built, only the principal knows whether the user holds it
+            return bit < dictionary.size() && securityPrincipal.contains(dictionary.getTerm(bit));
+        }
+        return (bit >>> 6) < user.length && (user[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * widen a find projection so that the "sl" fields needed to redact the projected fields are returned as well.
+     *
+     * <p> Of the projection operators "$slice" and "$elemMatch" are supported, both return whole array elements
+     * together with their own "sl".  As on the server "$elemMatch" makes the projection an inclusion while "$slice"
+     * alone leaves every other field in.  Other operators and positional "$" paths are rejected.
+     * </p>
+     *
+     * @param keys  user's projection, may be null
+     * @return widened projection plus the paths that were added, which have to be removed again after redaction
+     * @throws IllegalArgumentException for projection operators other than "$slice" and "$elemMatch"
+     */
+    static WidenedProjection widenProjection(DBObject keys) {
+        if (keys == null || keys.keySet().isEmpty()) {
+            return new WidenedProjection(keys, Collections.<String>emptyList());
+        }
+
+        boolean inclusion = false;
+        for (String key : keys.keySet()) {
+            checkProjection(key, keys.get(key));
+            if (!"_id".equals(key) && isIncluded(keys.get(key))) {
+                inclusion = true;
+            }
+        }
+
+        final BasicDBObject widened = new BasicDBObject();
+        final List<String> added = new ArrayList<String>();
+        if (inclusion) {
+            widened.putAll(keys);
+            for (String key : keys.keySet()) {
+                if ("_id".equals(key) || !(isIncluded(keys.get(key)) || isSlice(keys.get(key)))) continue;
+                String prefix = "";
+                for (String part : key.split("\\.")) {
+                    for (String labelField : LABEL_FIELDS) {
+                        final String labelPath = prefix + labelField;
+                        if (!isCovered(widened, labelPath)) {
+                            widened.put(labelPath, 1);
+                            added.add(labelPath);
+                        }
+                    }
+                    prefix = prefix + part + '.';
+                }
+            }
+        } else {
+            for (String key : keys.keySet()) {
+                if (isLabelPath(key)) {
+                    added.add(key);
+                } else {
+                    widened.put(key, keys.get(key));
+                }
+            }
+        }
+        return new WidenedProjection(widened, added);
+    }
+
+    private static void checkProjection(String key, Object value) {
+        for (String part : key.split("\\.")) {
+            if (part.startsWith("$")) {
+                throw new IllegalArgumentException("positional projections are not supported on redacted finds: " + key);
+            }
+        }
+        if (value instanceof BSONObject) {
+            final Set<String> operators = ((BSONObject) value).keySet();
+            if (operators.size() != 1 || !(operators.contains("$slice") || operators.contains("$elemMatch"))) {
+                throw new IllegalArgumentException("only $slice and $elemMatch projections are supported on redacted finds, got: "
+                        + key + ": " + value);
+            }
+        }
+    }
+
+    private static boolean isSlice(Object value) {
+        return value instanceof BSONObject && ((BSONObject) value).containsField("$slice");
+    }
+
+    private static boolean isLabelPath(String path) {
+        for (String labelField : LABEL_FIELDS) {
+            if (path.equals(labelField) || path.endsWith('.' + labelField)) return true;
+        }
+        return false;
+    }
+
+    /** @return true if path or one of its ancestors is already included */
+    private static boolean isCovered(DBObject projection, String path) {
+        String candidate = path;
+        while (true) {
+            if (isIncluded(projection.get(candidate))) return true;
+            final int dot = candidate.lastIndexOf('.');
+            if (dot < 0) return false;
+            candidate = candidate.substring(0, dot);
+        }
+    }
+
+    /** @return true for a value that includes its path: 1, true or an "$elemMatch", a "$slice" includes nothing by itself */
+    private static boolean isIncluded(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).intValue() != 0;
+        return value instanceof BSONObject && ((BSONObject) value).containsField("$elemMatch");
+    }
+
+    /**
+     * remove a dotted path from a document, descending through arrays.
+     */
+    static void removePath(Object node, String path) {
+        final int dot = path.indexOf('.');
+        if (node instanceof List) {
+            for (Object element : (List<?>) node) {
+                removePath(element, path);
+            }
+        } else if (node instanceof BSONObject) {
+            final BSONObject document = (BSONObject) node;
+            if (dot < 0) {
+                document.removeField(path);
+            } else {
+                removePath(document.get(path.substring(0, dot)), path.substring(dot + 1));
+            }
+        }
+    }
+
+    /** a find projection widened with the "sl" fields redaction needs */
+    static class WidenedProjection {
+        final DBObject keys;
+        final List<String> addedPaths;
+
+        WidenedProjection(DBObject keys, List<String> addedPaths) {
+            this.keys = keys;
+            this.addedPaths = addedPaths;
+        }
+
+        /** remove the fields the user did not ask for from a redacted document */
+        void strip(DBObject document) {
+            for (String path : addedPaths) {
+                removePath(document, path);
+            }
+        }
+    }
+}
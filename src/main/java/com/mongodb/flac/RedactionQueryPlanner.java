@@ -0,0 +1,264 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+
+import java.util.*;
+
+/**
+ * RedactionQueryPlanner splits a find query into the part that can run before the "$redact" stage and the part
+ * that has to run after it.
+ *
+ * <p> The query is taken apart into its top level conjuncts, looking inside "$and".  A conjunct goes before
+ * "$redact" when every field it uses is, according to the collection's {@link LabelSchema}, never changed by
+ * redaction; the answer is then the same either way, but the leading "$match" can use an index instead of
+ * redacting the whole collection.  Everything else, including "$where" and "$text", stays behind "$redact".
+ * With {@link LabelSchema#UNKNOWN} the whole query stays behind "$redact", as before.
+ * </p>
+ *
+ * <p> It also builds the "$project" that goes ahead of "$redact" when a find only asks for some fields, see
+ * {@link #pushdownProjection(DBObject, DBObject, DBObject)}, or counts, see {@link #countProjection(DBObject)}, so
+ * "$redact" does not descend into subdocuments nobody reads.
+ * </p>
+ */
+public class RedactionQueryPlanner {
+
+    private final LabelSchema labelSchema;
+
+    /**
+     * @param labelSchema  where the collection's documents may carry labelled subdocuments
+     */
+    public RedactionQueryPlanner(LabelSchema labelSchema) {
+        this.labelSchema = labelSchema;
+    }
+
+    /**
+     * @param query  the user's query, may be null
+     * @return the split query
+     */
+    public QueryPlan plan(DBObject query) {
+        if (query == null || query.keySet().isEmpty() || !labelSchema.isKnown()) {
+            return new QueryPlan(null, query);
+        }
+
+        final List<DBObject> conjuncts = new ArrayList<DBObject>();
+        collectConjuncts(query, conjuncts);
+
+        final List<DBObject> beforeRedact = new ArrayList<DBObject>();
+        final List<DBObject> afterRedact = new ArrayList<DBObject>();
+        for (DBObject conjunct : conjuncts) {
+            if (isUnaffectedByRedaction(conjunct)) {
+                beforeRedact.add(conjunct);
+            } else {
+                afterRedact.add(conjunct);
+            }
+        }
+        return new QueryPlan(combine(beforeRedact), combine(afterRedact));
+    }
+
+    private static void collectConjuncts(BSONObject query, List<DBObject> conjuncts) {
+        for (String key : query.keySet()) {
+            final Object value = query.get(key);
+            if ("$and".equals(key) && isListOfDocuments(value)) {
+                for (Object clause : (List<?>) value) {
+                    collectConjuncts((BSONObject) clause, conjuncts);
+                }
+            } else {
+                conjuncts.add(new BasicDBObject(key, value));
+            }
+        }
+    }
+
+    private static boolean isListOfDocuments(Object value) {
+        if (!(value instanceof List)) return false;
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof BSONObject)) return false;
+        }
+        return true;
+    }
+
+    private boolean isUnaffectedByRedaction(BSONObject query) {
+        for (String key : query.keySet()) {
+            final Object value = query.get(key);
+            if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                if (!(value instanceof List)) return false;
+                for (Object clause : (List<?>) value) {
+                    if (!(clause instanceof BSONObject) || !isUnaffectedByRedaction((BSONObject) clause)) return false;
+                }
+            } else if ("$comment".equals(key)) {
+                continue;
+            } else if (key.startsWith("$")) {
+                return false;       // $where, $text, ... look at fields we can't name
+            } else if (!labelSchema.isUnaffectedByRedaction(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param first   a query, may be null
+     * @param second  a query, may be null
+     * @return a query matching both, null if both are null
+     */
+    static DBObject and(DBObject first, DBObject second) {
+        if (first == null || first.keySet().isEmpty()) return second;
+        if (second == null || second.keySet().isEmpty()) return first;
+        final List<DBObject> conjuncts = new ArrayList<DBObject>(2);
+        conjuncts.add(first);
+        conjuncts.add(second);
+        return combine(conjuncts);
+    }
+
+    /**
+     * build a "$project" to run ahead of "$redact" for a find with an inclusion projection, e.g. for the projection
+     * <tt>{ name:1, "address.city":1 }</tt> and the query <tt>{ age: { $gt:21 } }</tt> left behind "$redact"
+     * <tt><pre>
+     *     { name:1, "address.city":1, age:1, sl:1, slb:1, "address.sl":1, "address.slb":1 }
+     * </pre></tt>
+     * It keeps the projected fields, the fields the query still has to match or the find sorts by, and the "sl"
+     * fields on the way to them, so "$redact" decides exactly as on the whole document and the user's "$project"
+     * behind it gives the same result.
+     *
+     * @param fields       the user's projection, may be null
+     * @param afterRedact  the part of the query matched behind "$redact", may be null
+     * @param orderBy      the find's sort, may be null
+     * @return the projection, or null when it can't be built: no or an exclusion projection, projection operators,
+     *         array positions in a path, or query operators like "$where" and sorts like "$natural" that name no fields
+     */
+    static DBObject pushdownProjection(DBObject fields, DBObject afterRedact, DBObject orderBy) {
+        if (fields == null || fields.keySet().isEmpty()) return null;
+
+        final Set<String> paths = new LinkedHashSet<String>();
+        for (String key : fields.keySet()) {
+            if ("_id".equals(key)) continue;
+            final Object value = fields.get(key);
+            final boolean included = value instanceof Boolean ? (Boolean) value
+                    : value instanceof Number && ((Number) value).doubleValue() != 0;
+            if (!included || !isPlainPath(key)) return null;
+            paths.add(key);
+        }
+        if (paths.isEmpty()) return null;
+        if (afterRedact != null && !collectQueryFields(afterRedact, paths)) return null;
+        if (orderBy != null) {
+            for (String key : orderBy.keySet()) {
+                if (!isPlainPath(key)) return null;
+                paths.add(key);
+            }
+        }
+
+        return project(paths);
+    }
+
+    /**
+     * build the "$project" to run ahead of "$redact" when counting: a count needs no payload, just the fields the
+     * query still has to match behind "$redact" and the "sl" fields on the way to them, e.g. for the query
+     * <tt>{ "address.city":"Boston" }</tt>
+     * <tt><pre>
+     *     { "address.city":1, sl:1, slb:1, "address.sl":1, "address.slb":1 }
+     * </pre></tt>
+     *
+     * @param afterRedact  the part of the query matched behind "$redact", may be null
+     * @return the projection, or null when the query uses operators like "$where" that name no fields
+     */
+    static DBObject countProjection(DBObject afterRedact) {
+        final Set<String> paths = new LinkedHashSet<String>();
+        paths.add(RedactionEvaluator.SECURITY_LABEL_FIELD);
+        paths.add(RedactionEvaluator.BITSET_SECURITY_LABEL_FIELD);
+        if (afterRedact != null && !collectQueryFields(afterRedact, paths)) return null;
+        return project(paths);
+    }
+
+    // a path whose ancestor is kept is kept with it, and "$project" rejects naming both
+    private static DBObject project(Set<String> paths) {
+        final BasicDBObject projection = new BasicDBObject();
+        for (String path : paths) {
+            if (!hasAncestorIn(paths, path)) projection.put(path, 1);
+        }
+        return RedactionEvaluator.widenProjection(projection).keys;
+    }
+
+    private static boolean hasAncestorIn(Set<String> paths, String path) {
+        for (int dot = path.lastIndexOf('.'); dot > 0; dot = path.lastIndexOf('.', dot - 1)) {
+            if (paths.contains(path.substring(0, dot))) return true;
+        }
+        return false;
+    }
+
+    private static boolean collectQueryFields(BSONObject query, Set<String> paths) {
+        for (String key : query.keySet()) {
+            final Object value = query.get(key);
+            if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                if (!isListOfDocuments(value)) return false;
+                for (Object clause : (List<?>) value) {
+                    if (!collectQueryFields((BSONObject) clause, paths)) return false;
+                }
+            } else if ("$comment".equals(key)) {
+                continue;
+            } else if (!isPlainPath(key)) {
+                return false;       // $where, $text, ... look at fields we can't name
+            } else {
+                paths.add(key);
+            }
+        }
+        return true;
+    }
+
+    /** @return true for a dotted path of field names, without operators or array positions */
+    private static boolean isPlainPath(String path) {
+        for (String part : path.split("\\.", -1)) {
+            if (part.isEmpty() || part.startsWith("$")) return false;
+            boolean digits = true;
+            for (int i = 0; i < part.length() && digits; i++) {
+                digits = Character.isDigit(part.charAt(i));
+            }
+            if (digits) return false;
+        }
+        return true;
+    }
+
+    private static DBObject combine(List<DBObject> conjuncts) {
+        if (conjuncts.isEmpty()) return null;
+        if (conjuncts.size() == 1) return conjuncts.get(0);
+
+        final BasicDBObject merged = new BasicDBObject();
+        for (DBObject conjunct : conjuncts) {
+            for (String key : conjunct.keySet()) {
+                if (merged.containsField(key)) {
+                    return new BasicDBObject("$and", conjuncts);
+                }
+                merged.put(key, conjunct.get(key));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * the result of {@link #plan(DBObject)}, either part may be null.
+     */
+    public static class QueryPlan {
+        private final DBObject beforeRedact;
+        private final DBObject afterRedact;
+
+        QueryPlan(DBObject beforeRedact, DBObject afterRedact) {
+            this.beforeRedact = beforeRedact;
+            this.afterRedact = afterRedact;
+        }
+
+        /** @return the predicates to "$match" ahead of "$redact", or null */
+        public DBObject getBeforeRedact() {
+            return beforeRedact;
+        }
+
+        /** @return the predicates to "$match" behind "$redact", or null */
+        public DBObject getAfterRedact() {
+            return afterRedact;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryPlan{beforeRedact=" + beforeRedact + ", afterRedact=" + afterRedact + '}';
+        }
+    }
+}
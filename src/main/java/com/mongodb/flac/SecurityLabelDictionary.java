@@ -0,0 +1,266 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SecurityLabelDictionary assigns every "key:value" security term, e.g. <tt>c:TS</tt>, a bit position so that sets of
+ * terms can be held as <tt>long[]</tt> bitsets and checked against each other with a bitwise AND instead of a set
+ * intersection.
+ *
+ * <p> Bits are handed out in the order terms are first seen and never change afterwards.  Lookups are lock free, only
+ * assigning a new bit is synchronized.
+ * </p>
+ *
+ * <p> The dictionary also defines the compact "slb" label that writers can store next to "sl": the same array of
+ * inner arrays, but holding bit positions instead of <tt>{ key:value }</tt> documents, e.g.
+ * <tt><pre>
+ *     sl:  [ [ { c:"TS" } ], [ { sci:"TK" }, { sci:"SI" } ] ]
+ *     slb: [ [ 0 ], [ 4, 5 ] ]
+ * </pre></tt>
+ * see {@link #addBitsetLabels(DBObject)}.  Bit positions are only meaningful for the dictionary that assigned them, so
+ * every writer and reader of "slb" has to share one dictionary, stored with {@link #toDBObject()} and loaded with
+ * {@link #fromDBObject(DBObject)}.  A dictionary is append only, a stored copy must never be edited.
+ * </p>
+ */
+public class SecurityLabelDictionary {
+
+    /** stored in "slb" for terms no user can hold, e.g. <tt>{ c:5 }</tt> or <tt>{ c:"TS", sci:"TK" }</tt> */
+    public static final int NO_BIT = -1;
+
+    private static final String TERMS_FIELD = "terms";
+
+    private static final SecurityLabelDictionary DEFAULT_DICTIONARY = new SecurityLabelDictionary();
+
+    /** key (e.g. "c") -> value (e.g. "TS") -> bit */
+    private final ConcurrentMap<String, ConcurrentMap<Object, Integer>> bits = new ConcurrentHashMap<String, ConcurrentMap<Object, Integer>>();
+    private final List<String> terms = new ArrayList<String>();
+
+    public SecurityLabelDictionary() {
+    }
+
+    /**
+     * @param terms  "key:value" terms that get bits 0, 1, 2, ... in this order
+     */
+    public SecurityLabelDictionary(List<String> terms) {
+        for (String term : terms) {
+            getOrAssignBit(term);
+        }
+    }
+
+    /** @return the dictionary shared by default by all evaluators */
+    public static SecurityLabelDictionary getDefault() {
+        return DEFAULT_DICTIONARY;
+    }
+
+    /**
+     * @param term  "key:value" term, e.g. "c:TS"
+     * @return the bit for term, assigning the next free bit if the term is new
+     */
+    public int getOrAssignBit(String term) {
+        final int split = term.indexOf(':');
+        if (split < 0) {
+            throw new IllegalArgumentException("security terms must be in key:value form, got: " + term);
+        }
+        return getOrAssignBit(term.substring(0, split), term.substring(split + 1));
+    }
+
+    /**
+     * @param key    term key, e.g. "c"
+     * @param value  term value, e.g. "TS"
+     * @return the bit for the term, assigning the next free bit if the term is new
+     */
+    public int getOrAssignBit(String key, Object value) {
+        final int bit = getBit(key, value);
+        if (bit >= 0) return bit;
+
+        synchronized (terms) {
+            ConcurrentMap<Object, Integer> values = bits.get(key);
+            if (values == null) {
+                values = new ConcurrentHashMap<Object, Integer>();
+                bits.put(key, values);
+            }
+            Integer assigned = values.get(value);
+            if (assigned == null) {
+                assigned = terms.size();
+                terms.add(key + ':' + value);
+                values.put(value, assigned);
+            }
+            return assigned;
+        }
+    }
+
+    /**
+     * @param term  "key:value" term, e.g. "c:TS"
+     * @return the bit for the term or -1 if the term has never been seen, the dictionary is not changed
+     */
+    public int getBit(String term) {
+        final int split = term.indexOf(':');
+        if (split < 0) {
+            throw new IllegalArgumentException("security terms must be in key:value form, got: " + term);
+        }
+        return getBit(term.substring(0, split), term.substring(split + 1));
+    }
+
+    /**
+     * @param key    term key, e.g. "c"
+     * @param value  term value, e.g. "TS"
+     * @return the bit for the term or -1 if the term has never been seen
+     */
+    public int getBit(String key, Object value) {
+        final Map<Object, Integer> values = bits.get(key);
+        if (values == null || value == null) return -1;
+        final Integer bit = values.get(value);
+        return bit == null ? -1 : bit;
+    }
+
+    /**
+     * @param bit  a bit position
+     * @return the "key:value" term for bit
+     */
+    public String getTerm(int bit) {
+        synchronized (terms) {
+            return terms.get(bit);
+        }
+    }
+
+    /** @return number of terms known */
+    public int size() {
+        synchronized (terms) {
+            return terms.size();
+        }
+    }
+
+    /**
+     * @param terms  "key:value" terms, e.g. a user's
+     * @return bitset holding the bits of the terms, terms that have never been seen are left out and the
+     *         dictionary is not changed: only writers assign bits
+     */
+    public long[] toBitset(Collection<String> terms) {
+        long[] bitset = new long[0];
+        for (String term : terms) {
+            final int bit = getBit(term);
+            if (bit >= 0) bitset = setBit(bitset, bit);
+        }
+        return bitset;
+    }
+
+    /**
+     * @param bitset  bitset, may be too short to hold bit
+     * @param bit     bit to set
+     * @return bitset, or a longer copy of it when bit did not fit
+     */
+    public static long[] setBit(long[] bitset, int bit) {
+        final int word = bit >>> 6;
+        if (word >= bitset.length) {
+            bitset = Arrays.copyOf(bitset, word + 1);
+        }
+        bitset[word] |= 1L << bit;
+        return bitset;
+    }
+
+    /**
+     * @return true if the two bitsets have at least one bit in common
+     */
+    public static boolean intersects(long[] a, long[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if ((a[i] & b[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * encode a "sl" label as "slb" bit positions, assigning bits to new terms.
+     *
+     * @param securityLabel  value of a "sl" field, e.g. <tt>[ [ { c:"TS" } ], [ { sci:"TK" }, { sci:"SI" } ] ]</tt>
+     * @return the matching "slb" value, e.g. <tt>[ [ 0 ], [ 4, 5 ] ]</tt>
+     * @throws IllegalArgumentException if securityLabel is not an array of arrays
+     */
+    public List<List<Integer>> encodeLabel(Object securityLabel) {
+        if (!(securityLabel instanceof List)) {
+            throw new IllegalArgumentException("sl must be an array of arrays, got: " + securityLabel);
+        }
+        final List<?> outer = (List<?>) securityLabel;
+        final List<List<Integer>> encoded = new ArrayList<List<Integer>>(outer.size());
+        for (Object inner : outer) {
+            if (!(inner instanceof List)) {
+                throw new IllegalArgumentException("sl must be an array of arrays, got: " + securityLabel);
+            }
+            final List<?> terms = (List<?>) inner;
+            final List<Integer> bitIds = new ArrayList<Integer>(terms.size());
+            for (Object term : terms) {
+                bitIds.add(encodeTerm(term));
+            }
+            encoded.add(bitIds);
+        }
+        return encoded;
+    }
+
+    private int encodeTerm(Object term) {
+        if (!(term instanceof BSONObject)) return NO_BIT;
+        final BSONObject termObject = (BSONObject) term;
+        if (termObject.keySet().size() != 1) return NO_BIT;
+        final String key = termObject.keySet().iterator().next();
+        final Object value = termObject.get(key);
+        // user terms are always strings, as on the server no other value can ever match
+        if (!(value instanceof String)) return NO_BIT;
+        return getOrAssignBit(key, value);
+    }
+
+    /**
+     * store a "slb" next to every "sl" of the document and its subdocuments, including the ones held in arrays.
+     *
+     * @param document  the document to be written, it is modified
+     * @return document
+     * @throws IllegalArgumentException if a "sl" is not an array of arrays
+     */
+    public DBObject addBitsetLabels(DBObject document) {
+        addBitsetLabelsTo(document);
+        return document;
+    }
+
+    private void addBitsetLabelsTo(Object value) {
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                addBitsetLabelsTo(element);
+            }
+        } else if (value instanceof BSONObject) {
+            final BSONObject document = (BSONObject) value;
+            for (String key : new ArrayList<String>(document.keySet())) {
+                if (RedactionEvaluator.SECURITY_LABEL_FIELD.equals(key)) {
+                    document.put(RedactionEvaluator.BITSET_SECURITY_LABEL_FIELD, encodeLabel(document.get(key)));
+                } else if (!RedactionEvaluator.BITSET_SECURITY_LABEL_FIELD.equals(key)) {
+                    addBitsetLabelsTo(document.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the dictionary as <tt>{ terms: [ "c:TS", "sci:TK", ... ] }</tt>, the index of a term is its bit
+     */
+    public DBObject toDBObject() {
+        synchronized (terms) {
+            return new BasicDBObject(TERMS_FIELD, new ArrayList<String>(terms));
+        }
+    }
+
+    /**
+     * @param stored  a dictionary saved with {@link #toDBObject()}
+     * @return a dictionary assigning the same bits
+     */
+    @SuppressWarnings("unchecked")
+    public static SecurityLabelDictionary fromDBObject(DBObject stored) {
+        final Object storedTerms = stored.get(TERMS_FIELD);
+        if (!(storedTerms instanceof List)) {
+            throw new IllegalArgumentException("not a stored SecurityLabelDictionary: " + stored);
+        }
+        return new SecurityLabelDictionary((List<String>) storedTerms);
+    }
+}
@@ -0,0 +1,202 @@
+package com.mongodb.flac;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.mongodb.DBObject;
+import com.mongodb.flac.converter.FLACAnnotationException;
+import com.mongodb.flac.converter.FLACPropertyProcessor;
+import com.mongodb.flac.converter.FLACPropertyProvider;
+
+import java.util.*;
+
+/**
+ * SecurityPrincipal is the immutable, canonical form of a user's expanded FLAC security terms.
+ *
+ * <p> Where {@link UserSecurityAttributesMap} is a mutable map of untyped values, a SecurityPrincipal only holds the
+ * sorted, duplicate free, interned "key:value" terms (e.g. <tt>c:C, c:S, c:TS, c:U, sci:TK</tt>) with a precomputed
+ * hash, so it can be shared freely between threads and used as a cheap cache key.
+ * </p>
+ *
+ * <p> Principals are interned: building a principal for a set of terms that is already in use returns the existing
+ * instance, so the many users at the same clearance level all share one object.  Get one with:
+ * <tt><pre>
+ *     SecurityPrincipal.of(userSecurityAttributesMap)
+ *     SecurityPrincipal.fromProvider(flacPropertyProvider)
+ * </pre></tt>
+ * </p>
+ */
+public final class SecurityPrincipal {
+
+    private static final Interner<SecurityPrincipal> PRINCIPALS = Interners.newWeakInterner();
+    private static final Interner<String> TERMS = Interners.newWeakInterner();
+
+    private final List<String> terms;
+    private final int hash;
+    private final String flacEncodedString;
+    private volatile List<DBObject> flacEncodedTerms;
+    private volatile Bitset bitset;
+
+    private SecurityPrincipal(List<String> sortedTerms) {
+        this.terms = Collections.unmodifiableList(sortedTerms);
+        this.hash = sortedTerms.hashCode();
+        this.flacEncodedString = UserSecurityAttributesMap.encodeFlacSecurityTerms(sortedTerms);
+    }
+
+    /**
+     * get the canonical principal for the user's expanded terms.
+     *
+     * @param userSecurityAttributes  the user's attributes, expanded with its
+     *                                {@link UserSecurityAttributesMap#expandVisibilityString(String)}
+     * @return the shared principal
+     */
+    public static SecurityPrincipal of(UserSecurityAttributesMap userSecurityAttributes) {
+        return userSecurityAttributes.toSecurityPrincipal();
+    }
+
+    /**
+     * get the canonical principal for a collection of already expanded terms.
+     *
+     * @param terms   "key:value" terms, e.g. "c:TS", order and duplicates do not matter
+     * @return the shared principal
+     */
+    public static SecurityPrincipal of(Collection<String> terms) {
+        final TreeSet<String> sorted = new TreeSet<String>();
+        for (String term : terms) {
+            if (term == null || term.indexOf(':') < 0) {
+                throw new IllegalArgumentException("security terms must be in key:value form, got: " + term);
+            }
+            sorted.add(term);
+        }
+        final List<String> interned = new ArrayList<String>(sorted.size());
+        for (String term : sorted) {
+            interned.add(TERMS.intern(term));
+        }
+        return PRINCIPALS.intern(new SecurityPrincipal(interned));
+    }
+
+    /**
+     * get the canonical principal from a class whose getters carry the
+     * {@link com.mongodb.flac.converter.FLACProperty} annotation.  The values are not expanded.
+     *
+     * @param flacPropertyProvider   provides the user's attributes
+     * @return the shared principal
+     * @throws FLACAnnotationException if the annotated getters can't be run
+     */
+    public static SecurityPrincipal fromProvider(FLACPropertyProvider flacPropertyProvider) throws FLACAnnotationException {
+        return fromProvider(flacPropertyProvider, new UserSecurityAttributesMap());
+    }
+
+    /**
+     * get the canonical principal from a class whose getters carry the
+     * {@link com.mongodb.flac.converter.FLACProperty} annotation.
+     *
+     * @param flacPropertyProvider   provides the user's attributes
+     * @param userSecurityAttributes receives the provider's attributes, its
+     *                               {@link UserSecurityAttributesMap#expandVisibilityString(String)} is used to
+     *                               expand them, e.g. pass a CAPCO aware map so c:TS also gives c:S, c:C and c:U
+     * @return the shared principal
+     * @throws FLACAnnotationException if the annotated getters can't be run
+     */
+    public static SecurityPrincipal fromProvider(FLACPropertyProvider flacPropertyProvider,
+                                                 UserSecurityAttributesMap userSecurityAttributes) throws FLACAnnotationException {
+        userSecurityAttributes.putAll(FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(flacPropertyProvider));
+        return userSecurityAttributes.toSecurityPrincipal();
+    }
+
+    /** @return sorted, duplicate free "key:value" terms */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @param term  a "key:value" term
+     * @return true if the principal holds term
+     */
+    public boolean contains(String term) {
+        return Collections.binarySearch(terms, term) >= 0;
+    }
+
+    /** @return the FLAC encoded terms, e.g. <tt>[ { c:"S" }, { c:"TS" } ]</tt> */
+    public String toFlacEncodedString() {
+        return flacEncodedString;
+    }
+
+    /** @return the terms as a shared read only BSON array, e.g. <tt>[ { c:"S" }, { c:"TS" } ]</tt> */
+    @SuppressWarnings("unchecked")
+    public List<DBObject> getFlacEncodedTerms() {
+        List<DBObject> encodedTerms = flacEncodedTerms;
+        if (encodedTerms == null) {
+            final List<DBObject> list = new ArrayList<DBObject>(terms.size());
+            for (String term : terms) {
+                list.add(UserSecurityAttributesMap.termToDBObject(term));
+            }
+            encodedTerms = (List<DBObject>) ReadOnlyDBObject.freeze(list);
+            flacEncodedTerms = encodedTerms;
+        }
+        return encodedTerms;
+    }
+
+    /**
+     * @param dictionary  term to bit mapping, it is only read, terms it has no bit for are left out
+     * @return the terms as a bitset, a fresh copy the caller may change
+     */
+    public long[] toBitset(SecurityLabelDictionary dictionary) {
+        return getBitset(dictionary).bits.clone();
+    }
+
+    /**
+     * @param dictionary  term to bit mapping, it is only read, terms it has no bit for are left out
+     * @return the sorted bit positions of the terms, e.g. to match against "slb" labels on the server
+     */
+    public List<Integer> toBitIds(SecurityLabelDictionary dictionary) {
+        return getBitset(dictionary).bitIds;
+    }
+
+    // a term's bit never changes once assigned, so the result only changes when a writer assigns new bits
+    private Bitset getBitset(SecurityLabelDictionary dictionary) {
+        Bitset current = bitset;
+        if (current == null || current.dictionary != dictionary || current.dictionarySize != dictionary.size()) {
+            current = new Bitset(dictionary, terms);
+            bitset = current;
+        }
+        return current;
+    }
+
+    private static final class Bitset {
+        final SecurityLabelDictionary dictionary;
+        final int dictionarySize;
+        final long[] bits;
+        final List<Integer> bitIds;
+
+        Bitset(SecurityLabelDictionary dictionary, List<String> terms) {
+            this.dictionary = dictionary;
+            this.dictionarySize = dictionary.size();       // taken first, a bit assigned meanwhile only causes a recompute
+            this.bits = dictionary.toBitset(terms);
+            final List<Integer> ids = new ArrayList<Integer>(terms.size());
+            for (String term : terms) {
+                final int bit = dictionary.getBit(term);
+                if (bit >= 0) ids.add(bit);
+            }
+            Collections.sort(ids);
+            this.bitIds = Collections.unmodifiableList(ids);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SecurityPrincipal)) return false;
+        final SecurityPrincipal that = (SecurityPrincipal) o;
+        return hash == that.hash && terms.equals(that.terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "SecurityPrincipal" + terms;
+    }
+}
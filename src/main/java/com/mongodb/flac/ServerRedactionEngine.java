@@ -0,0 +1,69 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ServerRedactionEngine runs finds as an aggregation pipeline headed by the user's "$redact" stage, so all FLAC
+ * checks are done by the server.  The query and projection become "$match" and "$project" stages behind the
+ * "$redact", hence they only ever see data the user may see.  The exceptions are query predicates the collection's
+ * {@link RedactionQueryPlanner} proves are unaffected by redaction, which become a "$match" ahead of the "$redact"
+ * so an index can be used.
+ *
+ * <p> Built with a {@link SecurityLabelDictionary} the "$redact" stage checks the numeric "slb" labels instead of
+ * the "sl" documents, see {@link RedactedDBCollectionConstants#getBitsetSecurityExpression()}.
+ * </p>
+ *
+ * <p> When the collection has a {@link RedactedResultCache}, the cursors answer repeated finds from it, and when it
+ * has a {@link ReadCoalescer}, concurrent identical finds share one aggregation.
+ * </p>
+ */
+public class ServerRedactionEngine implements RedactionEngine {
+
+    private static final ServerRedactionEngine INSTANCE = new ServerRedactionEngine();
+
+    private final SecurityLabelDictionary bitsetDictionary;
+
+    public ServerRedactionEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bitsetDictionary  the dictionary that encoded the collection's "slb" labels, or null to check "sl"
+     */
+    public ServerRedactionEngine(SecurityLabelDictionary bitsetDictionary) {
+        this.bitsetDictionary = bitsetDictionary;
+    }
+
+    /** @return the shared, stateless engine */
+    public static ServerRedactionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public DBCursor find(RedactedDBCollection collection, DBObject query, DBObject keys, ReadPreference readPreference) {
+        final RedactionQueryPlanner.QueryPlan plan = collection.getQueryPlanner().plan(query);
+        final List<DBObject> pipelineSecure = new ArrayList<DBObject>();
+        final DBObject beforeRedact = RedactionQueryPlanner.and(plan.getBeforeRedact(), collection.getDocumentLevelPreFilter());
+        if (beforeRedact != null) {
+            pipelineSecure.add(new BasicDBObject("$match", beforeRedact));
+        }
+        if (bitsetDictionary == null) {
+            pipelineSecure.addAll(collection.prependSecurityRedactToPipeline(new ArrayList<DBObject>()));
+        } else {
+            pipelineSecure.add(RedactStageCache.getDefault().getBitsetRedactStage(collection.getSecurityPrincipal(), bitsetDictionary));
+        }
+        final DBCursorBasedOnQueryResultIterator cursor = new DBCursorBasedOnQueryResultIterator(pipelineSecure,
+                collection.getWrappedCollection(), query, plan.getAfterRedact(), keys, readPreference);
+        if (collection.getResultCache() != null || collection.getReadCoalescer() != null) {
+            cursor.share(collection.getResultCache(), collection.getReadCoalescer(),
+                    collection.getWrappedCollection().getFullName(), collection.getSecurityPrincipal());
+        }
+        return cursor;
+    }
+}
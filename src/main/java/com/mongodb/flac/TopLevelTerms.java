@@ -0,0 +1,134 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+
+import java.util.*;
+
+/**
+ * TopLevelTerms keeps the "slt" field of a document: the terms of its top level "sl" as a flat array of strings, e.g.
+ * for <tt>sl: [ [ { c:"TS" } ], [ { sci:"TK" }, { sci:"SI" } ] ]</tt>
+ * <tt><pre>
+ *     slt: [ "c:TS", "sci:TK", "sci:SI" ]
+ * </pre></tt>
+ * The multikey index on "slt" has one key per term, which the "sl" index can't give, as its keys are whole inner
+ * arrays.  A document the user may see holds one of the user's terms in "slt" or, being unlabelled, has no "slt", so
+ * the {@link RedactedDBCollection#getDocumentLevelPreFilter() pre-filter} can look its candidates up in the index.
+ *
+ * <p> "slt" only narrows the candidates, "sl" still decides.  A document without "slt", e.g. one written before, is
+ * always a candidate; a stale "slt" can only hide a document, never show one.  Terms no user can hold, e.g.
+ * <tt>{ c:5 }</tt>, are left out.  {@link RedactedDBCollection} and {@link LabelledBulkWriter} keep "slt" on every
+ * write; call {@link #addTo(DBObject)} for documents written to the collection directly.
+ * </p>
+ */
+public final class TopLevelTerms {
+
+    /** name of the field holding the terms of a document's top level security label */
+    public static final String TOP_LEVEL_TERMS_FIELD = "slt";
+
+    private static final Set<String> SETTING_OPERATORS = new HashSet<String>(Arrays.asList("$set", "$setOnInsert"));
+
+    private TopLevelTerms() {
+    }
+
+    /**
+     * set "slt" from the document's "sl", or remove it if the document has no terms.
+     *
+     * @param document  the document to be written, it is modified
+     * @return document
+     */
+    public static DBObject addTo(DBObject document) {
+        final List<String> terms = getTerms(document.get(RedactionEvaluator.SECURITY_LABEL_FIELD));
+        if (terms.isEmpty()) {
+            document.removeField(TOP_LEVEL_TERMS_FIELD);
+        } else {
+            document.put(TOP_LEVEL_TERMS_FIELD, terms);
+        }
+        return document;
+    }
+
+    /**
+     * keep "slt" in step with an update: a replacement gets it from its "sl", a "$set" or "$setOnInsert" of "sl" sets
+     * it as well, and any other change to "sl", e.g. a "$push" or "$unset", unsets it.
+     *
+     * @param update  the replacement document or the update operators, it is modified
+     * @return update
+     */
+    public static DBObject addToUpdate(DBObject update) {
+        if (!isOperators(update)) return addTo(update);
+
+        boolean unset = false;
+        for (String operator : new ArrayList<String>(update.keySet())) {
+            final Object fields = update.get(operator);
+            if (!(fields instanceof BSONObject)) continue;
+            final BSONObject changed = (BSONObject) fields;
+            if (SETTING_OPERATORS.contains(operator) && changed.containsField(RedactionEvaluator.SECURITY_LABEL_FIELD)) {
+                final List<String> terms = getTerms(changed.get(RedactionEvaluator.SECURITY_LABEL_FIELD));
+                if (terms.isEmpty()) {
+                    changed.removeField(TOP_LEVEL_TERMS_FIELD);
+                    unset = true;
+                } else {
+                    changed.put(TOP_LEVEL_TERMS_FIELD, terms);
+                }
+            } else if (changesSecurityLabel(operator, changed)) {
+                unset = true;
+            }
+        }
+        if (unset) {
+            BSONObject unsetFields = (BSONObject) update.get("$unset");
+            if (unsetFields == null) {
+                unsetFields = new BasicDBObject();
+                update.put("$unset", unsetFields);
+            }
+            unsetFields.put(TOP_LEVEL_TERMS_FIELD, "");
+        }
+        return update;
+    }
+
+    private static boolean changesSecurityLabel(String operator, BSONObject changed) {
+        for (String field : changed.keySet()) {
+            if (isSecurityLabelPath(field)) return true;
+            // $rename names the target in the value
+            if ("$rename".equals(operator) && changed.get(field) instanceof String && isSecurityLabelPath((String) changed.get(field))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSecurityLabelPath(String field) {
+        return field.equals(RedactionEvaluator.SECURITY_LABEL_FIELD) || field.startsWith(RedactionEvaluator.SECURITY_LABEL_FIELD + '.');
+    }
+
+    private static boolean isOperators(BSONObject update) {
+        for (String key : update.keySet()) {
+            if (key.startsWith("$")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param securityLabel  the value of a top level "sl"
+     * @return the "key:value" terms a user can hold, in label order without duplicates
+     */
+    static List<String> getTerms(Object securityLabel) {
+        final Set<String> terms = new LinkedHashSet<String>();
+        if (securityLabel instanceof List) {
+            for (Object inner : (List<?>) securityLabel) {
+                if (!(inner instanceof List)) continue;
+                for (Object term : (List<?>) inner) {
+                    if (!(term instanceof BSONObject) || term instanceof List) continue;
+                    final BSONObject termObject = (BSONObject) term;
+                    if (termObject.keySet().size() != 1) continue;
+                    final String key = termObject.keySet().iterator().next();
+                    // user terms are always strings, no other value can ever match
+                    if (termObject.get(key) instanceof String) {
+                        terms.add(key + ':' + termObject.get(key));
+                    }
+                }
+            }
+        }
+        return new ArrayList<String>(terms);
+    }
+}
@@ -1,13 +1,64 @@
 package com.mongodb.flac;
 
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingMapEntry;
+import com.google.common.collect.ForwardingSet;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import com.mongodb.flac.converter.FLACAnnotationException;
+import com.mongodb.flac.converter.FLACPropertyProcessor;
 import com.mongodb.flac.converter.FLACPropertyProvider;
 
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * UserSecurityAttributesMap describes the User Security attributes for the user
+ *
+ * <p> The FLAC encodings of the map ({@link #toFlacEncodedString()}, {@link #toCanonicalFlacEncodedString()},
+ * {@link #getCanonicalSecurityTerms()} and {@link #getFlacEncodedTerms()}) are computed once and then reused until
+ * the map changes.  Every change through the map, including the Java 8 methods like <tt>compute</tt> or
+ * <tt>merge</tt>, and through its keySet, values and entrySet views is tracked; if you change a List value in
+ * place call {@link #markModified()}.
+ * </p>
+ *
+ * <p> A subclass that overrides {@link #encodeFlacSecurityAttributes()} is honored everywhere: its encoding is
+ * parsed back into the terms of the {@link #toSecurityPrincipal() principal} the collections redact with.
+ * </p>
+ *
+ * <p> Terms a user holds implicitly, e.g. <tt>c:S</tt> for a user cleared for <tt>c:TS</tt>, are added by the
+ * {@link LabelHierarchy} set with {@link #setLabelHierarchy(LabelHierarchy)}, for any attribute key.
+ * </p>
  */
 public class UserSecurityAttributesMap extends HashMap<String, Object> {
+
+    /** true for the subclasses that override {@link #encodeFlacSecurityAttributes()} */
+    private static final ClassValue<Boolean> OVERRIDES_ENCODING = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("encodeFlacSecurityAttributes").getDeclaringClass() != UserSecurityAttributesMap.class;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * bumped after every tracked change to the map, see {@link #getVersion()}; volatile since the encodings may be
+     * asked for by other threads
+     */
+    private transient volatile int version = 0;
+
+    /** encodings computed for {@link #version}, null until first asked for */
+    private transient volatile EncodedAttributes encodedAttributes;
+
+    /** expands the user's terms, null (e.g. after deserialization) is the same as {@link LabelHierarchy#NONE} */
+    private transient volatile LabelHierarchy labelHierarchy = LabelHierarchy.NONE;
+
     public UserSecurityAttributesMap(int i, float v) {
         super(i, v);
     }
@@ -21,10 +72,25 @@ public class UserSecurityAttributesMap extends HashMap<String, Object> {
 
     public UserSecurityAttributesMap(Map<? extends String, ?> map) {
         super(map);
+        if (map instanceof UserSecurityAttributesMap) {
+            labelHierarchy = ((UserSecurityAttributesMap) map).getLabelHierarchy();
+        }
     }
 
+    /**
+     * put all the attributes from a class whose getters carry the {@link com.mongodb.flac.converter.FLACProperty}
+     * annotation into this map.
+     *
+     * @param flacPropertyProvider   provides the user's attributes
+     * @throws IllegalArgumentException if the annotated getters can't be run, the cause is the
+     *                                  {@link FLACAnnotationException}
+     */
     public void putAllSecurityAttributesMap(FLACPropertyProvider flacPropertyProvider) {
-
+        try {
+            putAll(FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(flacPropertyProvider));
+        } catch (FLACAnnotationException e) {
+            throw new IllegalArgumentException("can't read the FLAC attributes of " + flacPropertyProvider.getClass().getName(), e);
+        }
     }
 
     /**
@@ -67,10 +133,388 @@ public class UserSecurityAttributesMap extends HashMap<String, Object> {
      * @return  mapping encoded for each attribute
      */
     public String toFlacEncodedString() {
+        // the encoding is only rebuilt once the map has changed
+        return getEncodedAttributes().flacEncodedString;
+    }
+
+    /**
+     * get the encoded terms as a BSON array ready to use in a query or pipeline, e.g.
+     * <tt>[ { c:"C" }, { c:"S" }, { c:"TS" }, { sci:"TK" } ]</tt> in canonical order.
+     *
+     * @return shared read only list, reused until the map changes
+     */
+    public List<DBObject> getFlacEncodedTerms() {
+        return getEncodedAttributes().securityPrincipal.getFlacEncodedTerms();
+    }
 
-        // this method could eventually cache the value of encodeFlacSecurityAttributes() provided the map has not
-        // changed
-        return encodeFlacSecurityAttributes();
+    /**
+     * get the immutable, canonical {@link SecurityPrincipal} for the user's expanded terms.
+     *
+     * @return the shared principal, reused until the map changes
+     */
+    public SecurityPrincipal toSecurityPrincipal() {
+        return getEncodedAttributes().securityPrincipal;
+    }
+
+    /**
+     * get the expanded terms as a bitset, so they can be checked against labels with a bitwise AND.
+     *
+     * @param dictionary  term to bit mapping, the user's terms are added to it
+     * @return bitset of the expanded terms, a fresh copy the caller may change
+     * @see SecurityLabelDictionary
+     */
+    public long[] toBitset(SecurityLabelDictionary dictionary) {
+        return toSecurityPrincipal().toBitset(dictionary);
+    }
+
+    /**
+     * @return a counter that changes every time the map is changed, useful to detect that a cached value built
+     *         from this map is stale
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the hierarchy the user's terms are expanded with, {@link LabelHierarchy#NONE} by default
+     */
+    public LabelHierarchy getLabelHierarchy() {
+        final LabelHierarchy hierarchy = labelHierarchy;
+        return hierarchy == null ? LabelHierarchy.NONE : hierarchy;
+    }
+
+    /**
+     * @param labelHierarchy  the implications between terms, e.g. <tt>c:TS</tt> implies <tt>c:S</tt>, used to expand
+     *                        the user's terms in {@link #getExpandedSecurityTerms()}
+     */
+    public void setLabelHierarchy(LabelHierarchy labelHierarchy) {
+        if (labelHierarchy == null) throw new IllegalArgumentException("labelHierarchy must not be null, use LabelHierarchy.NONE");
+        this.labelHierarchy = labelHierarchy;
+        version++;
+    }
+
+    /**
+     * tell the map it has been changed in a way it can not see itself, e.g. a List value was modified in place,
+     * so that the cached encodings are rebuilt.
+     */
+    public void markModified() {
+        version++;
+    }
+
+    // every mutator bumps the version after the change, so a reader that sees the new version sees the new content
+
+    @Override
+    public Object put(String key, Object value) {
+        try {
+            return super.put(key, value);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        try {
+            super.putAll(m);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        try {
+            return super.remove(key);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            super.clear();
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        try {
+            return super.putIfAbsent(key, value);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        try {
+            return super.remove(key, value);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        try {
+            return super.replace(key, oldValue, newValue);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        try {
+            return super.replace(key, value);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+        try {
+            return super.computeIfAbsent(key, mappingFunction);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        try {
+            return super.computeIfPresent(key, remappingFunction);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        try {
+            return super.compute(key, remappingFunction);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        try {
+            return super.merge(key, value, remappingFunction);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+        try {
+            super.replaceAll(function);
+        } finally {
+            version++;
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        final Set<String> keys = super.keySet();
+        return new ForwardingSet<String>() {
+            @Override
+            protected Set<String> delegate() {
+                return keys;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return new TrackingIterator<String>(keys.iterator());
+            }
+
+            @Override
+            public boolean remove(Object object) {
+                try {
+                    return keys.remove(object);
+                } finally {
+                    version++;
+                }
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> collection) {
+                return standardRemoveAll(collection);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> collection) {
+                return standardRetainAll(collection);
+            }
+
+            @Override
+            public void clear() {
+                UserSecurityAttributesMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        final Collection<Object> values = super.values();
+        return new ForwardingCollection<Object>() {
+            @Override
+            protected Collection<Object> delegate() {
+                return values;
+            }
+
+            @Override
+            public Iterator<Object> iterator() {
+                return new TrackingIterator<Object>(values.iterator());
+            }
+
+            @Override
+            public boolean remove(Object object) {
+                return standardRemove(object);
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> collection) {
+                return standardRemoveAll(collection);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> collection) {
+                return standardRetainAll(collection);
+            }
+
+            @Override
+            public void clear() {
+                UserSecurityAttributesMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        final Set<Map.Entry<String, Object>> entries = super.entrySet();
+        return new ForwardingSet<Map.Entry<String, Object>>() {
+            @Override
+            protected Set<Map.Entry<String, Object>> delegate() {
+                return entries;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new TrackingIterator<Map.Entry<String, Object>>(entries.iterator()) {
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        return new TrackingEntry(super.next());
+                    }
+                };
+            }
+
+            @Override
+            public Object[] toArray() {
+                return standardToArray();       // hands out tracking entries, not the map's own
+            }
+
+            @Override
+            public <T> T[] toArray(T[] array) {
+                return standardToArray(array);
+            }
+
+            @Override
+            public boolean remove(Object object) {
+                try {
+                    return entries.remove(object);
+                } finally {
+                    version++;
+                }
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> collection) {
+                return standardRemoveAll(collection);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> collection) {
+                return standardRetainAll(collection);
+            }
+
+            @Override
+            public void clear() {
+                UserSecurityAttributesMap.this.clear();
+            }
+        };
+    }
+
+    /** a view iterator whose remove is tracked */
+    private class TrackingIterator<E> extends ForwardingIterator<E> {
+        private final Iterator<E> iterator;
+
+        TrackingIterator(Iterator<E> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        protected Iterator<E> delegate() {
+            return iterator;
+        }
+
+        @Override
+        public void remove() {
+            try {
+                iterator.remove();
+            } finally {
+                version++;
+            }
+        }
+    }
+
+    /** an entry whose setValue is tracked */
+    private class TrackingEntry extends ForwardingMapEntry<String, Object> {
+        private final Map.Entry<String, Object> entry;
+
+        TrackingEntry(Map.Entry<String, Object> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        protected Map.Entry<String, Object> delegate() {
+            return entry;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            try {
+                return entry.setValue(value);
+            } finally {
+                version++;
+            }
+        }
+    }
+
+    private EncodedAttributes getEncodedAttributes() {
+        EncodedAttributes encoded = encodedAttributes;
+        final int currentVersion = version;
+        if (encoded == null || encoded.version != currentVersion) {
+            // the terms are expanded once, the string is formatted from them unless a subclass does its own encoding
+            final String flacEncodedString;
+            final Set<String> terms;
+            if (OVERRIDES_ENCODING.get(getClass())) {
+                flacEncodedString = encodeFlacSecurityAttributes();
+                terms = decodeFlacSecurityTerms(flacEncodedString);
+            } else {
+                terms = getExpandedSecurityTerms();
+                flacEncodedString = encodeFlacSecurityTerms(terms);
+            }
+            encoded = new EncodedAttributes(currentVersion, flacEncodedString, terms);
+            encodedAttributes = encoded;
+        }
+        return encoded;
     }
 
     /**
@@ -100,18 +544,27 @@ public class UserSecurityAttributesMap extends HashMap<String, Object> {
      * </tt>
      * </p>
      * <p/>
-     * <p> NOTES: we fully support generating lower level of TS S C and U  , for all others you need to expand yourself.</p>
+     * <p> NOTES: lower levels, e.g. S C and U for TS, are only generated by the {@link #setLabelHierarchy label hierarchy}
+     * or by an {@link #expandVisibilityString(String)} override.  An override of this method must keep the format,
+     * the terms of the {@link #toSecurityPrincipal() principal} are parsed from it.</p>
      *
      * @param
      * @return    user Flac Security Strings defined by the map
      */
     public String encodeFlacSecurityAttributes() {
+        return encodeFlacSecurityTerms(getExpandedSecurityTerms());
+    }
 
-        StringBuilder stringBuilder = new StringBuilder();
-
-        final HashSet<String> secAttrSetFormattedKeyValue = new LinkedHashSet<String>();
+    /**
+     * get the expanded "key:value" security terms for this user, e.g. <tt>[ c:TS, c:S, c:C, c:U, sci:TK ]</tt>, in the
+     * order they were generated with duplicates suppressed.
+     *
+     * @return expanded terms, each run through {@link #expandVisibilityString(String)}, then all together through
+     *         the {@link #getLabelHierarchy() label hierarchy}
+     */
+    public Set<String> getExpandedSecurityTerms() {
+        final Set<String> secAttrSetFormattedKeyValue = new LinkedHashSet<String>();
 
-        boolean first = true;
         for (String key : this.keySet()) {
             final Object obj = this.get(key);
             List<String> valList = null;
@@ -123,29 +576,77 @@ public class UserSecurityAttributesMap extends HashMap<String, Object> {
             for (String val : valList) {
                 if (val != null) {
                     val = val.trim();
-                    final String formattedKeyValue = String.format("%s:%s", key, val);  // generates a term like c:TS
+                    final String formattedKeyValue = key + ':' + val;  // generates a term like c:TS
                     final List<String> userVisibilityStrings = expandVisibilityString(formattedKeyValue);
                     secAttrSetFormattedKeyValue.addAll(userVisibilityStrings);
                 }
             }
         }
-        // Now that we have all terms, format into a list
-        stringBuilder.append("[ ");
-        for (String val : secAttrSetFormattedKeyValue) {
+        final LabelHierarchy hierarchy = getLabelHierarchy();
+        return hierarchy == LabelHierarchy.NONE ? secAttrSetFormattedKeyValue : hierarchy.expand(secAttrSetFormattedKeyValue);
+    }
+
+    /**
+     * get the expanded security terms in a canonical (sorted, duplicate free) order, so two users with the same
+     * effective attributes produce equal lists no matter how their maps were populated.
+     *
+     * @return sorted unmodifiable list of terms like "c:TS"
+     */
+    public List<String> getCanonicalSecurityTerms() {
+        return getEncodedAttributes().securityPrincipal.getTerms();
+    }
+
+    /**
+     * convert to a FLAC encoded string built from the {@link #getCanonicalSecurityTerms() canonical terms}, this is
+     * what is used as the key for the compiled "$redact" stages in {@link RedactStageCache}.
+     *
+     * @return e.g. <tt>"[ { c:\"C\" }, { c:\"S\" }, { c:\"TS\" }, { c:\"U\" } ]"</tt>
+     */
+    public String toCanonicalFlacEncodedString() {
+        return getEncodedAttributes().securityPrincipal.toFlacEncodedString();
+    }
+
+    /**
+     * format terms like "c:TS" into the FLAC encoded list  <tt>[ { c:"TS" }, ... ]</tt>
+     *
+     * @param terms  terms in "key:value" form
+     * @return the encoded list
+     */
+    protected static String encodeFlacSecurityTerms(Collection<String> terms) {
+        StringBuilder stringBuilder = new StringBuilder();
 
-            final String[] splitTerms = val.split(":");
-            final String formattedKeyValue = String.format("{ %s:\"%s\" }", splitTerms[0], splitTerms[1]);  // generates a term like { c:"TS" } from  "c:TS"
+        boolean first = true;
+        stringBuilder.append("[ ");
+        for (String val : terms) {
+            final int split = val.indexOf(':');
 
             if (!first) {
                 stringBuilder.append(", ");
             }
             first = false;
-            stringBuilder.append(formattedKeyValue);
+            // generates a term like { c:"TS" } from  "c:TS"
+            stringBuilder.append("{ ").append(val, 0, split).append(":\"").append(val, split + 1, val.length()).append("\" }");
         }
         stringBuilder.append(" ]");
 
         return stringBuilder.toString();
+    }
 
+    /**
+     * parse a FLAC encoded list <tt>[ { c:"TS" }, ... ]</tt> back into terms like "c:TS"
+     *
+     * @param flacEncodedString  the list, e.g. from an {@link #encodeFlacSecurityAttributes()} override
+     * @return the terms in list order
+     */
+    static Set<String> decodeFlacSecurityTerms(String flacEncodedString) {
+        final Set<String> terms = new LinkedHashSet<String>();
+        for (Object element : (List<?>) JSON.parse(flacEncodedString)) {
+            final DBObject term = (DBObject) element;
+            for (String key : term.keySet()) {
+                terms.add(key + ':' + term.get(key));
+            }
+        }
+        return terms;
     }
 
     /**
@@ -159,5 +660,28 @@ public class UserSecurityAttributesMap extends HashMap<String, Object> {
 
     }
 
-}
+    /**
+     * split a term like "c:TS" into the BSON document <tt>{ c:"TS" }</tt>
+     *
+     * @param term    "key:value" term
+     * @return the term as a document
+     */
+    static DBObject termToDBObject(String term) {
+        final int split = term.indexOf(':');
+        return new BasicDBObject(term.substring(0, split), term.substring(split + 1));
+    }
+
+    /** the encodings of one version of the map */
+    private static final class EncodedAttributes {
+        final int version;
+        final String flacEncodedString;
+        final SecurityPrincipal securityPrincipal;
+
+        EncodedAttributes(int version, String flacEncodedString, Set<String> expandedTerms) {
+            this.version = version;
+            this.flacEncodedString = flacEncodedString;
+            this.securityPrincipal = SecurityPrincipal.of(expandedTerms);
+        }
+    }
 
+}
@@ -0,0 +1,155 @@
+package com.mongodb.flac.converter;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * FLACAttributesProcessor is an annotation processor that generates a {@link FLACAttributesWriter} named
+ * <tt>&lt;Type&gt;FLACAttributes</tt>, in the same package, for each class implementing {@link FLACPropertyProvider}
+ * that has {@link FLACProperty} getters of its own or inherited.  For a nested class the names of the enclosing
+ * classes are joined with '_', e.g. <tt>Users_AnalystFLACAttributes</tt> for <tt>Users.Analyst</tt>.
+ *
+ * <p> The processor is registered in META-INF/services, so it runs whenever flac-core is on the compile classpath.
+ * Classes the generated code could not call into are skipped with a note and left to the reflective
+ * {@link FLACPropertyProcessor}: private, local, anonymous and generic classes, and classes with an annotated getter
+ * that takes arguments, returns void or declares checked exceptions.
+ * </p>
+ */
+@SupportedAnnotationTypes("*")
+public class FLACAttributesProcessor extends AbstractProcessor {
+
+    static final String GENERATED_SUFFIX = "FLACAttributes";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final TypeElement providerElement = processingEnv.getElementUtils().getTypeElement(FLACPropertyProvider.class.getName());
+        if (providerElement == null) return false;
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            processType(type, providerElement.asType());
+        }
+        return false;       // other processors may look at the same annotations
+    }
+
+    private void processType(TypeElement type, TypeMirror provider) {
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(member, provider);
+        }
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) return;
+        if (!processingEnv.getTypeUtils().isAssignable(type.asType(), provider)) return;
+
+        final List<ExecutableElement> getters = new ArrayList<ExecutableElement>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getAnnotation(FLACProperty.class) != null && method.getModifiers().contains(Modifier.PUBLIC)) {
+                getters.add(method);
+            }
+        }
+        if (getters.isEmpty()) return;
+
+        final String problem = whyNotGenerated(type, getters);
+        if (problem != null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "no " + GENERATED_SUFFIX + " generated, " + problem + ", the reflective FLACPropertyProcessor is used", type);
+            return;
+        }
+        write(type, getters);
+    }
+
+    private String whyNotGenerated(TypeElement type, List<ExecutableElement> getters) {
+        if (!type.getTypeParameters().isEmpty()) return "the class is generic";
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            final TypeElement enclosing = (TypeElement) element;
+            if (enclosing.getNestingKind() != NestingKind.TOP_LEVEL && enclosing.getNestingKind() != NestingKind.MEMBER) {
+                return "the class is local or anonymous";
+            }
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) return "the class is private";
+            if (enclosing.getNestingKind() == NestingKind.MEMBER && !enclosing.getModifiers().contains(Modifier.STATIC)
+                    && enclosing.getKind() == ElementKind.CLASS) {
+                return "the class is an inner class";
+            }
+        }
+        for (ExecutableElement getter : getters) {
+            if (!getter.getParameters().isEmpty() || getter.getReturnType().getKind() == TypeKind.VOID) {
+                return getter.getSimpleName() + " is not a getter";
+            }
+            for (TypeMirror thrown : getter.getThrownTypes()) {
+                if (isChecked(thrown)) return getter.getSimpleName() + " throws " + thrown;
+            }
+        }
+        return null;
+    }
+
+    private boolean isChecked(TypeMirror thrown) {
+        final TypeMirror runtimeException = processingEnv.getElementUtils().getTypeElement(RuntimeException.class.getName()).asType();
+        final TypeMirror error = processingEnv.getElementUtils().getTypeElement(Error.class.getName()).asType();
+        return !processingEnv.getTypeUtils().isAssignable(thrown, runtimeException)
+                && !processingEnv.getTypeUtils().isAssignable(thrown, error);
+    }
+
+    private void write(TypeElement type, List<ExecutableElement> getters) {
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String generatedName = getGeneratedSimpleName(type);
+        final String providerName = type.getQualifiedName().toString();
+        try {
+            final PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                    .createSourceFile(packageName.isEmpty() ? generatedName : packageName + "." + generatedName, type)
+                    .openWriter());
+            try {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("/**");
+                out.println(" * Writes the FLACProperty values of {@link " + providerName + "}, generated by "
+                        + FLACAttributesProcessor.class.getSimpleName() + ", do not edit.");
+                out.println(" */");
+                out.println("public final class " + generatedName + " implements "
+                        + FLACAttributesWriter.class.getName() + "<" + providerName + "> {");
+                out.println();
+                out.println("    @Override");
+                out.println("    public void putAttributes(" + providerName + " provider, java.util.Map<String, Object> attributes) {");
+                for (ExecutableElement getter : getters) {
+                    final String attributeNameInSl = getter.getAnnotation(FLACProperty.class).attributeNameInSl();
+                    out.println("        attributes.put(\"" + escape(attributeNameInSl) + "\", provider." + getter.getSimpleName() + "());");
+                }
+                out.println("    }");
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "can't write " + generatedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    /** @return e.g. Users_AnalystFLACAttributes for Users.Analyst */
+    static String getGeneratedSimpleName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name = enclosing.getSimpleName() + "_" + name;
+        }
+        return name + GENERATED_SUFFIX;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
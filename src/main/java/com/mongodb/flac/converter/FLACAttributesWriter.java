@@ -0,0 +1,20 @@
+package com.mongodb.flac.converter;
+
+import java.util.Map;
+
+/**
+ * Writes the FLACProperty values of a provider into a map, e.g. a {@link com.mongodb.flac.UserSecurityAttributesMap},
+ * by calling its annotated getters directly.  {@link FLACAttributesProcessor} generates one for each provider class
+ * at compile time, named <tt>&lt;Type&gt;FLACAttributes</tt>, and {@link FLACPropertyProcessor} picks it up instead of
+ * using reflection.
+ *
+ * @param <T> the provider class
+ */
+public interface FLACAttributesWriter<T extends FLACPropertyProvider> {
+
+    /**
+     * @param provider    the provider to read
+     * @param attributes  where each attributeNameInSl is put with its getter's value
+     */
+    void putAttributes(T provider, Map<String, Object> attributes);
+}
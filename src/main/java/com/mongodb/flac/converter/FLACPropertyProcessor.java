@@ -1,18 +1,47 @@
 package com.mongodb.flac.converter;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.mongodb.flac.converter.FLACAnnotationException;
 import com.mongodb.flac.converter.FLACPropertyProvider;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Created by tompopovich on 5/29/14.
+ *
+ * <p> The annotated getters of a class are looked up once, the first time an instance of the class is processed,
+ * and kept as MethodHandles, so later calls neither scan the methods nor go through Method.invoke.  Classes are
+ * held weakly and may still be unloaded.
+ * </p>
+ *
+ * <p> When {@link FLACAttributesProcessor} generated a <tt>&lt;Type&gt;FLACAttributes</tt> writer for the class at
+ * compile time, that writer is used instead and no reflection is involved at all.  The MethodHandles are the
+ * fallback for classes compiled without the processor or that it had to skip.
+ * </p>
  */
 public class FLACPropertyProcessor {
 
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final LoadingCache<Class<?>, Extractor> EXTRACTORS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<Class<?>, Extractor>() {
+                @Override
+                public Extractor load(Class<?> loadedClass) throws FLACAnnotationException {
+                    final FLACAttributesWriter<FLACPropertyProvider> generated = findGeneratedWriter(loadedClass);
+                    return generated != null ? new GeneratedExtractor(generated) : new ReflectiveExtractor(findAccessors(loadedClass));
+                }
+            });
+
     /**
      * find all getter-Methods that are Annotated with the FLACProperty Annotation and pull out the values
      * @param classInstanceWithAnnotation   where some getters have been labeled with FLACProperty Annotation
@@ -21,41 +50,155 @@ public class FLACPropertyProcessor {
      * @see FLACProperty
      */
     public static Map<String, Object> findMethodsAnnotatedPullOutSLFieldInfo(FLACPropertyProvider classInstanceWithAnnotation) throws FLACAnnotationException {
+        return getExtractor(classInstanceWithAnnotation.getClass()).extract(classInstanceWithAnnotation);
+    }
 
-        Map<String, Object> attrAndValueMap = new HashMap<String, Object>();
+    /**
+     * the same as {@link #findMethodsAnnotatedPullOutSLFieldInfo(FLACPropertyProvider)} for many instances, e.g. all
+     * the users of a batch job.  The getters are looked up once per run of instances of the same class.
+     *
+     * @param classInstancesWithAnnotation  where some getters have been labeled with FLACProperty Annotation
+     * @return  one map per instance, in the same order
+     */
+    public static List<Map<String, Object>> findMethodsAnnotatedPullOutSLFieldInfo(
+            List<? extends FLACPropertyProvider> classInstancesWithAnnotation) throws FLACAnnotationException {
+
+        final List<Map<String, Object>> attrAndValueMaps = new ArrayList<Map<String, Object>>(classInstancesWithAnnotation.size());
+        Class<?> lastClass = null;
+        Extractor extractor = null;
+        for (FLACPropertyProvider classInstanceWithAnnotation : classInstancesWithAnnotation) {
+            if (classInstanceWithAnnotation.getClass() != lastClass) {
+                lastClass = classInstanceWithAnnotation.getClass();
+                extractor = getExtractor(lastClass);
+            }
+            attrAndValueMaps.add(extractor.extract(classInstanceWithAnnotation));
+        }
+        return attrAndValueMaps;
+    }
 
-        //Load provided on the command line class
-        Class loadedClass = classInstanceWithAnnotation.getClass();
+    /**
+     * @return true if the FLACProperty values of loadedClass are read by a writer generated at compile time
+     */
+    public static boolean isGenerated(Class<? extends FLACPropertyProvider> loadedClass) throws FLACAnnotationException {
+        return getExtractor(loadedClass) instanceof GeneratedExtractor;
+    }
 
-        // Get references to class methods
-        Method[] methods = loadedClass.getMethods();
+    private static Extractor getExtractor(Class<?> loadedClass) throws FLACAnnotationException {
+        try {
+            return EXTRACTORS.get(loadedClass);
+        } catch (ExecutionException e) {
+            throw (FLACAnnotationException) e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw new FLACAnnotationException("processing " + loadedClass.getName(), e.getCause());
+        }
+    }
 
-        // Check every method of the class.If the annotation is present,
-        // print the values of its parameters
+    /**
+     * @return the <tt>&lt;Type&gt;FLACAttributes</tt> generated for loadedClass by {@link FLACAttributesProcessor},
+     *         null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private static FLACAttributesWriter<FLACPropertyProvider> findGeneratedWriter(Class<?> loadedClass) {
+        final String binaryName = loadedClass.getName();
+        final int lastDot = binaryName.lastIndexOf('.');
+        final String generatedName = binaryName.substring(0, lastDot + 1)
+                + binaryName.substring(lastDot + 1).replace('$', '_') + FLACAttributesProcessor.GENERATED_SUFFIX;
+        try {
+            final Class<?> generated = Class.forName(generatedName, true, loadedClass.getClassLoader());
+            if (!FLACAttributesWriter.class.isAssignableFrom(generated)) return null;
+            return (FLACAttributesWriter<FLACPropertyProvider>) generated.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;        // compiled against another version of the class, use reflection
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
 
-        for (Method m : methods) {
+    private static List<Accessor> findAccessors(Class<?> loadedClass) throws FLACAnnotationException {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final List<Accessor> accessors = new ArrayList<Accessor>();
+
+        // Check every method of the class, keep the ones carrying the annotation
+        for (Method m : loadedClass.getMethods()) {
             if (m.isAnnotationPresent(FLACProperty.class)) {
-                FLACProperty flacAnnotation =
-                        m.getAnnotation(FLACProperty.class);
+                final FLACProperty flacAnnotation = m.getAnnotation(FLACProperty.class);
                 try {
-                    Object invokeOutput = m.invoke(classInstanceWithAnnotation);    // runs method w/ Annotation
-                    //System.out.printf("m.invoke: %s", invokeOutput);
-                    attrAndValueMap.put(flacAnnotation.attributeNameInSl(), invokeOutput);
+                    accessors.add(new Accessor(flacAnnotation.attributeNameInSl(), lookup.unreflect(m).asType(GETTER_TYPE)));
                 } catch (IllegalAccessException e) {
                     throw new FLACAnnotationException("processing " + flacAnnotation.attributeNameInSl(), e);
-                } catch (InvocationTargetException e) {
+                } catch (IllegalArgumentException e) {
+                    // not a getter, e.g. it takes arguments
                     throw new FLACAnnotationException("processing " + flacAnnotation.attributeNameInSl(), e);
                 }
             }
         }
+        return Collections.unmodifiableList(accessors);
+    }
 
-        return attrAndValueMap;
+    /** reads the FLACProperty values of the instances of one class */
+    private interface Extractor {
+        Map<String, Object> extract(FLACPropertyProvider classInstanceWithAnnotation) throws FLACAnnotationException;
+    }
 
+    private static class GeneratedExtractor implements Extractor {
+        private final FLACAttributesWriter<FLACPropertyProvider> writer;
+
+        GeneratedExtractor(FLACAttributesWriter<FLACPropertyProvider> writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public Map<String, Object> extract(FLACPropertyProvider classInstanceWithAnnotation) throws FLACAnnotationException {
+            final Map<String, Object> attrAndValueMap = new HashMap<String, Object>();
+            try {
+                writer.putAttributes(classInstanceWithAnnotation, attrAndValueMap);
+            } catch (RuntimeException e) {
+                throw new FLACAnnotationException("processing " + classInstanceWithAnnotation.getClass().getName(), e);
+            }
+            return attrAndValueMap;
+        }
     }
 
+    private static class ReflectiveExtractor implements Extractor {
+        private final List<Accessor> accessors;
 
+        ReflectiveExtractor(List<Accessor> accessors) {
+            this.accessors = accessors;
+        }
 
-}
+        @Override
+        public Map<String, Object> extract(FLACPropertyProvider classInstanceWithAnnotation) throws FLACAnnotationException {
+            final Map<String, Object> attrAndValueMap = new HashMap<String, Object>(accessors.size() * 2);
+            for (Accessor accessor : accessors) {
+                try {
+                    attrAndValueMap.put(accessor.attributeNameInSl, accessor.getter.invokeExact((Object) classInstanceWithAnnotation));    // runs method w/ Annotation
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new FLACAnnotationException("processing " + accessor.attributeNameInSl, t);
+                }
+            }
+            return attrAndValueMap;
+        }
+    }
 
+    /** an annotated getter, as (Object) -> Object */
+    private static class Accessor {
+        final String attributeNameInSl;
+        final MethodHandle getter;
 
+        Accessor(String attributeNameInSl, MethodHandle getter) {
+            this.attributeNameInSl = attributeNameInSl;
+            this.getter = getter;
+        }
+    }
 
+}
@@ -0,0 +1,119 @@
+package com.mongodb;
+
+import org.bson.BasicBSONEncoder;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// the getMores are answered in memory, no mongod is needed
+public class QueryResultIteratorPrefetchTest {
+
+    private static final long SERVER_CURSOR_ID = 42;
+
+    private static MongoClient mongoClient;
+    private static DBApiLayer db;
+    private static DBCollectionImpl collection;
+    private static ServerAddress serverAddress;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost");
+        db = (DBApiLayer) mongoClient.getDB("flac_test");
+        collection = (DBCollectionImpl) db.getCollection("prefetch");
+        serverAddress = new ServerAddress();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        mongoClient.close();
+    }
+
+    @Test
+    public void testPrefetchedBatchesAreHandedOut() throws Exception {
+        final QueryResultIterator iterator = new AnsweringIterator(new AtomicInteger(), 3);
+        iterator.setPrefetchDepth(1);
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        Assert.assertEquals(6, count);
+    }
+
+    @Test
+    public void testAbandonedCursorIsKilled() throws Exception {
+        final AtomicInteger getMores = new AtomicInteger();
+        QueryResultIterator iterator = new AnsweringIterator(getMores, Integer.MAX_VALUE);
+        iterator.setPrefetchDepth(1);
+        while (getMores.get() < 2) {
+            Thread.sleep(10);       // one batch queued, the task waits for room for the next
+        }
+
+        final WeakReference<QueryResultIterator> dropped = new WeakReference<QueryResultIterator>(iterator);
+        iterator = null;
+        for (int i = 0; i < 200 && (dropped.get() != null || !isDead(SERVER_CURSOR_ID)); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull("the prefetch task keeps the iterator reachable", dropped.get());
+        Assert.assertTrue("the server cursor was not killed", isDead(SERVER_CURSOR_ID));
+
+        final int stoppedAt = getMores.get();
+        Thread.sleep(300);
+        Assert.assertEquals(stoppedAt, getMores.get());
+    }
+
+    private static boolean isDead(long cursorId) {
+        for (DBApiLayer.DeadCursor deadCursor : new ArrayList<DBApiLayer.DeadCursor>(db._deadCursorIds)) {
+            if (deadCursor.id == cursorId) return true;
+        }
+        return false;
+    }
+
+    /** an aggregation cursor whose getMores return two documents each, the server's cursor id is SERVER_CURSOR_ID */
+    private static class AnsweringIterator extends QueryResultIterator {
+        private final AtomicInteger getMores;
+        private final int batches;
+
+        AnsweringIterator(AtomicInteger getMores, int batches) {
+            super(new BasicDBObject("cursor", new BasicDBObject("id", 7L).append("firstBatch", new ArrayList<DBObject>())),
+                    db, collection, 2, DefaultDBDecoder.FACTORY.create(), serverAddress);
+            this.getMores = getMores;
+            this.batches = batches;
+        }
+
+        @Override
+        Response callGetMore(long cursorId, int fetched) {
+            final boolean last = getMores.incrementAndGet() >= batches;
+            try {
+                return reply(last ? 0 : SERVER_CURSOR_ID, new BasicDBObject("n", fetched), new BasicDBObject("n", fetched + 1));
+            } catch (Exception e) {
+                throw new MongoException("can't build the reply", e);
+            }
+        }
+    }
+
+    /** an OP_REPLY message as read from the wire */
+    private static Response reply(long cursorId, DBObject... documents) throws Exception {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (DBObject document : documents) {
+            body.write(new BasicBSONEncoder().encode(document));
+        }
+        final ByteBuffer message = ByteBuffer.allocate(36 + body.size()).order(ByteOrder.LITTLE_ENDIAN);
+        message.putInt(36 + body.size()).putInt(1).putInt(0).putInt(1);     // length, requestID, responseTo, OP_REPLY
+        message.putInt(0).putLong(cursorId).putInt(0).putInt(documents.length);
+        message.put(body.toByteArray());
+        return new Response(serverAddress, collection, new ByteArrayInputStream(message.array()),
+                DefaultDBDecoder.FACTORY.create());
+    }
+}
@@ -0,0 +1,57 @@
+package com.mongodb.flac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveBatchSizePolicyTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Test
+    public void testGrowsTowardTargetBytes() throws Exception {
+        // 1000 bytes per document, 100000 bytes wanted -> 100 documents
+        final AdaptiveBatchSizePolicy policy = new AdaptiveBatchSizePolicy(100000, 100, TimeUnit.MILLISECONDS, 10, 2, 1000);
+        Assert.assertEquals(10, policy.nextBatchSize());
+
+        policy.batchReceived(10, 10000, FAST);
+        Assert.assertEquals(20, policy.nextBatchSize());        // at most doubled per batch
+        policy.batchReceived(20, 20000, FAST);
+        policy.batchReceived(40, 40000, FAST);
+        policy.batchReceived(80, 80000, FAST);
+        Assert.assertEquals(100, policy.nextBatchSize());
+        Assert.assertEquals(1000.0, policy.getBytesPerDocument(), 0.001);
+    }
+
+    @Test
+    public void testShrinksForLargeDocuments() throws Exception {
+        final AdaptiveBatchSizePolicy policy = new AdaptiveBatchSizePolicy(100000, 100, TimeUnit.MILLISECONDS, 100, 2, 1000);
+
+        policy.batchReceived(100, 10000000, FAST);         // 100KB per document
+        Assert.assertEquals(50, policy.nextBatchSize());       // at most halved per batch
+        policy.batchReceived(50, 5000000, FAST);
+        policy.batchReceived(25, 2500000, FAST);
+        policy.batchReceived(12, 1200000, FAST);
+        policy.batchReceived(6, 600000, FAST);
+        policy.batchReceived(3, 300000, FAST);
+        Assert.assertEquals(2, policy.nextBatchSize());        // never below the minimum
+    }
+
+    @Test
+    public void testShrinksWhenSlow() throws Exception {
+        final AdaptiveBatchSizePolicy policy = new AdaptiveBatchSizePolicy(100000, 100, TimeUnit.MILLISECONDS, 100, 2, 1000);
+
+        // small documents, but the getMore took twice the target latency
+        policy.batchReceived(100, 1000, TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(50, policy.nextBatchSize());
+    }
+
+    @Test
+    public void testEmptyBatchIsIgnored() throws Exception {
+        final AdaptiveBatchSizePolicy policy = new AdaptiveBatchSizePolicy();
+        policy.batchReceived(0, 36, FAST);
+        Assert.assertEquals(AdaptiveBatchSizePolicy.DEFAULT_INITIAL_BATCH_SIZE, policy.nextBatchSize());
+        Assert.assertEquals(-1.0, policy.getBytesPerDocument(), 0.0);
+    }
+}
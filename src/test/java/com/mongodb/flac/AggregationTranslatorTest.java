@@ -0,0 +1,85 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AggregationTranslatorTest {
+
+    @Test
+    public void testGroup() throws Exception {
+        final AggregationTranslator.Group group = AggregationTranslator.group(doc("{ ns: \"persons\", key: { \"country.value\": 1, lastName: 1 }, "
+                + "cond: { age: { $gt: 30 } }, initial: { total: 1.5, count: 0, names: [ \"x\" ], kind: \"person\" }, "
+                + "$reduce: \"function (obj, prev) {\\n  prev.total += obj.size;\\n  ++prev.count; prev.names.push(obj.firstName)\\n}\" }"));
+
+        Assert.assertEquals(JSON.parse("[ { $match: { age: { $gt: 30 } } }, { $group: { _id: { k0: \"$country.value\", k1: \"$lastName\" }, "
+                + "total: { $sum: \"$size\" }, count: { $sum: 1 }, names: { $push: \"$firstName\" } } } ]"), group.pipeline);
+        Assert.assertEquals(doc("{ \"country.value\": \"IRAQ\", lastName: null, total: 4.5, count: 2, names: [ \"x\", \"a\", \"b\" ], kind: \"person\" }"),
+                group.toRecord(doc("{ _id: { k0: \"IRAQ\" }, total: 3, count: 2, names: [ \"a\", \"b\" ] }")));
+    }
+
+    @Test
+    public void testGroupRejects() throws Exception {
+        assertRejected("{ keyf: \"function (doc) { return { a: doc.a }; }\", initial: { n: 0 }, $reduce: \"function (d, r) { r.n++; }\" }");
+        assertRejected("{ initial: { n: 0 }, $reduce: \"function (d, r) { r.n++; }\", finalize: \"function (r) { r.n = 1; }\" }");
+        assertRejected("{ initial: { n: 0 }, $reduce: \"function (d, r) { r.n *= d.a; }\" }");
+        assertRejected("{ initial: { n: 0 }, $reduce: \"function (d, r) { r.n++; r.n += d.a; }\" }");
+        assertRejected("{ initial: { }, $reduce: \"function (d, r) { r.n++; }\" }");
+        assertRejected("{ initial: { n: 0 }, $reduce: \"function (d, r) { r.n.push(d.a); }\" }");
+    }
+
+    @Test
+    public void testMapReduce() throws Exception {
+        final AggregationTranslator.MapReduce inline = AggregationTranslator.mapReduce(doc("{ mapreduce: \"persons\", "
+                + "map: \"function () { emit(this.country.value, this.size); }\", reduce: \"function (key, values) { return Array.sum(values); }\", "
+                + "verbose: true, out: { inline: 1 }, query: { age: { $gt: 30 } }, sort: { age: 1 }, limit: 10 }"), "persons", "flac_test");
+        Assert.assertNull(inline.outputCollection);
+        Assert.assertEquals(JSON.parse("[ { $match: { age: { $gt: 30 } } }, { $sort: { age: 1 } }, { $limit: 10 }, "
+                + "{ $group: { _id: \"$country.value\", value: { $sum: \"$size\" } } }, { $sort: { _id: 1 } } ]"), inline.pipeline);
+
+        final AggregationTranslator.MapReduce replace = AggregationTranslator.mapReduce(doc("{ mapreduce: \"persons\", "
+                + "map: \"function() {\\n this.tags.forEach(function(tag) { emit(tag, 1); });\\n}\", "
+                + "reduce: \"function(k, vals) {\\n return Math.max.apply(Math, vals);\\n}\", out: { replace: \"tagged\", db: \"flac_test\" } }"),
+                "persons", "flac_test");
+        Assert.assertEquals("tagged", replace.outputCollection);
+        Assert.assertEquals(JSON.parse("[ { $unwind: \"$tags\" }, { $group: { _id: \"$tags\", value: { $max: 1 } } }, "
+                + "{ $sort: { _id: 1 } }, { $out: \"tagged\" } ]"), replace.pipeline);
+    }
+
+    @Test
+    public void testMapReduceRejects() throws Exception {
+        final String map = "map: \"function () { emit(this.a, 1); }\", ";
+        final String reduce = "reduce: \"function (k, v) { return Array.sum(v); }\", ";
+        assertMapReduceRejected("{ mapreduce: \"other\", " + map + reduce + "out: { inline: 1 } }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", " + map + reduce + "out: { merge: \"t\" } }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", " + map + reduce + "out: { replace: \"t\", db: \"other\" } }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", " + map + reduce + "out: { inline: 1 }, finalize: \"function (k, v) { return v; }\" }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", " + map + reduce + "out: { inline: 1 }, scope: { x: 1 } }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", map: \"function () { if (this.a) emit(this.a, 1); }\", " + reduce + "out: { inline: 1 } }");
+        assertMapReduceRejected("{ mapreduce: \"persons\", " + map + "reduce: \"function (k, v) { return v[0]; }\", out: { inline: 1 } }");
+    }
+
+    private static void assertRejected(String args) {
+        try {
+            AggregationTranslator.group(doc(args));
+            Assert.fail(args);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertMapReduceRejected(String command) {
+        try {
+            AggregationTranslator.mapReduce(doc(command), "persons", "flac_test");
+            Assert.fail(command);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static DBObject doc(String json) {
+        return (DBObject) JSON.parse(json);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.MongoClient;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// the cursor is never iterated, no mongod is needed
+public class ClientRedactedDBCursorTest {
+
+    private static MongoClient mongoClient;
+    private static RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost");
+        redactedDBCollection = new RedactedDBCollection(new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons"),
+                new UserSecurityAttributesMap("c", "TS"));
+        redactedDBCollection.setRedactionEngine(new ClientRedactionEngine(new SecurityLabelDictionary()));
+        redactedDBCollection.setLabelSchema(LabelSchema.of("ssn", "country", "favorites"));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        mongoClient.close();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReturnKeyIsRefused() throws Exception {
+        redactedDBCollection.find().returnKey();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReturnKeyIsRefusedAsSpecial() throws Exception {
+        final DBCursor cursor = redactedDBCollection.find();
+        cursor.addSpecial("$returnKey", true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPositionalProjectionIsRefused() throws Exception {
+        redactedDBCollection.find(new BasicDBObject("favorites.cartoonCharacters", "Rabbit"),
+                new BasicDBObject("favorites.cartoonCharacters.$", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryOnLabelledPathIsRefused() throws Exception {
+        redactedDBCollection.find(new BasicDBObject("ssn.value", new BasicDBObject("$gt", "5")));
+    }
+
+    @Test
+    public void testQueryOnUnlabelledPathIsAllowed() throws Exception {
+        redactedDBCollection.find(new BasicDBObject("firstName", "John")).sort(new BasicDBObject("lastName", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortOnLabelledPathIsRefused() throws Exception {
+        redactedDBCollection.find().sort(new BasicDBObject("ssn.value", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrderbyOnLabelledPathIsRefused() throws Exception {
+        redactedDBCollection.find().addSpecial("$orderby", new BasicDBObject("country", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinOnLabelledPathIsRefused() throws Exception {
+        redactedDBCollection.find().min(new BasicDBObject("ssn.value", "5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryWithoutLabelSchemaIsRefused() throws Exception {
+        final RedactedDBCollection unknown = new RedactedDBCollection(new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons"),
+                new UserSecurityAttributesMap("c", "TS"));
+        unknown.setRedactionEngine(new ClientRedactionEngine(new SecurityLabelDictionary()));
+        unknown.find(new BasicDBObject("firstName", "John"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.mongodb.flac;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.MongoClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class DBCursorBatchSizeTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testFindAlwaysUsesCursorMode() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1));
+
+        final DBCursor cursor = redactedDBCollection.find();
+        Assert.assertTrue(cursor.hasNext());
+
+        final AggregationOptions options = dbCollectionSrc.aggregationOptions.get(0);
+        Assert.assertEquals(AggregationOptions.OutputMode.CURSOR, options.getOutputMode());
+        Assert.assertNull(options.getBatchSize());
+    }
+
+    @Test
+    public void testBatchSizeIsCarriedIntoAggregate() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+
+        final DBCursor cursor = redactedDBCollection.find().batchSize(-50);
+        Assert.assertEquals(2, cursor.itcount());
+
+        Assert.assertEquals(Integer.valueOf(50), dbCollectionSrc.aggregationOptions.get(0).getBatchSize());
+    }
+
+    @Test
+    public void testPrefetchLeavesResultUnchanged() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+
+        final DBCursor cursor = redactedDBCollection.find().batchSize(1).prefetch(2);
+        Assert.assertEquals(2, cursor.itcount());
+    }
+
+    @Test
+    public void testMaxTimeAndAllowDiskUseAreCarriedIntoAggregate() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1));
+
+        final DBCursor cursor = redactedDBCollection.find().sort(new BasicDBObject("lastName", 1))
+                .maxTime(2, TimeUnit.SECONDS).allowDiskUse(true);
+        Assert.assertEquals(1, cursor.itcount());
+
+        final AggregationOptions options = dbCollectionSrc.aggregationOptions.get(0);
+        Assert.assertEquals(2000, options.getMaxTime(TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Boolean.TRUE, options.getAllowDiskUse());
+    }
+
+    @Test
+    public void testCountHonorsMaxTime() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", null).append("n", 3));
+
+        Assert.assertEquals(3, redactedDBCollection.find().maxTime(500, TimeUnit.MILLISECONDS).count());
+        Assert.assertEquals(500, dbCollectionSrc.aggregationOptions.get(0).getMaxTime(TimeUnit.MILLISECONDS));
+        Assert.assertNull(dbCollectionSrc.aggregationOptions.get(0).getAllowDiskUse());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCantSetMaxTimeOnceRun() throws Exception {
+        final DBCursor cursor = redactedDBCollection.find();
+        cursor.hasNext();
+        cursor.maxTime(1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePrefetchDepth() throws Exception {
+        redactedDBCollection.find().prefetch(-1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class DBCursorPipelineOrderTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testModifiersRunInFindOrderWhateverTheCallOrder() throws Exception {
+        final DBObject orderBy = new BasicDBObject("lastName", 1);
+        final DBObject keys = new BasicDBObject("_id", 0).append("firstName", 1);
+        redactedDBCollection.find(new BasicDBObject("firstName", "Sheldon"), keys).limit(10).sort(orderBy).skip(5).hasNext();
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(7, pipeline.size());
+        Assert.assertTrue(pipeline.get(0).containsField("$project"));      // pushed ahead of $redact
+        Assert.assertTrue(pipeline.get(1).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("firstName", "Sheldon")), pipeline.get(2));
+        Assert.assertEquals(new BasicDBObject("$sort", orderBy), pipeline.get(3));
+        Assert.assertEquals(new BasicDBObject("$skip", 5), pipeline.get(4));
+        Assert.assertEquals(new BasicDBObject("$limit", 10), pipeline.get(5));
+        Assert.assertEquals(new BasicDBObject("$project", keys), pipeline.get(6));
+    }
+
+    @Test
+    public void testLastCallWinsAndZeroMeansNone() throws Exception {
+        redactedDBCollection.find().limit(5).limit(0).skip(3).skip(0).sort(new BasicDBObject("_id", 1)).sort(new BasicDBObject("_id", -1)).hasNext();
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(2, pipeline.size());
+        Assert.assertTrue(pipeline.get(0).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$sort", new BasicDBObject("_id", -1)), pipeline.get(1));
+    }
+
+    @Test
+    public void testNegativeLimitLimits() throws Exception {
+        redactedDBCollection.find().limit(-3).hasNext();
+
+        Assert.assertEquals(new BasicDBObject("$limit", 3), dbCollectionSrc.lastPipeline().get(1));
+    }
+
+    @Test
+    public void testMaxScanLimitsAheadOfRedact() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", null).append("n", 7));
+
+        final DBCursor cursor = redactedDBCollection.find(new BasicDBObject("firstName", "Sheldon")).maxScan(100).limit(10);
+        Assert.assertEquals(7, cursor.count());
+        List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(new BasicDBObject("$limit", 100), pipeline.get(0));
+        Assert.assertTrue(pipeline.get(1).containsField("$project"));
+        Assert.assertTrue(pipeline.get(2).containsField("$redact"));
+
+        cursor.hasNext();
+        pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(new BasicDBObject("$limit", 100), pipeline.get(0));
+        Assert.assertTrue(pipeline.get(1).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$limit", 10), pipeline.get(pipeline.size() - 1));
+    }
+
+    @Test
+    public void testSortFieldSurvivesPushdownProjection() throws Exception {
+        redactedDBCollection.find(null, new BasicDBObject("firstName", 1)).sort(new BasicDBObject("lastName", -1)).hasNext();
+
+        final DBObject pushdown = (DBObject) dbCollectionSrc.lastPipeline().get(0).get("$project");
+        Assert.assertTrue(pushdown.containsField("firstName"));
+        Assert.assertTrue(pushdown.containsField("lastName"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCantSortOnceRun() throws Exception {
+        final DBCursor cursor = redactedDBCollection.find();
+        cursor.hasNext();
+        cursor.sort(new BasicDBObject("_id", 1));
+    }
+}
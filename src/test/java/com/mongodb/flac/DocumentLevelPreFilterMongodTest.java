@@ -0,0 +1,57 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// runs against the mongod on localhost, skipped when there is none
+public class DocumentLevelPreFilterMongodTest {
+
+    private static MongoClient mongoClient;
+    private static DBCollection dbCollectionSrc;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = LocalMongod.connectOrSkip();
+        dbCollectionSrc = mongoClient.getDB("flac_test").getCollection("prefilter");
+        dbCollectionSrc.drop();
+
+        final RedactedDBCollection writer = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+        for (int i = 0; i < 30; i++) {
+            writer.insert((DBObject) JSON.parse("{ n: " + i + ", sl: [ [ { c: \"TS\" } ] ] }"));
+            writer.insert((DBObject) JSON.parse("{ n: " + i + ", sl: [ [ { c: \"U\" } ] ] }"));
+            writer.insert((DBObject) JSON.parse("{ n: " + i + " }"));
+        }
+        writer.createSecurityLabelIndex();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (mongoClient != null) {
+            dbCollectionSrc.drop();
+            mongoClient.close();
+        }
+    }
+
+    @Test
+    public void testPreFilterUsesTheIndex() throws Exception {
+        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "U"));
+        redactedDBCollection.setDocumentLevelPreFilter(true);
+        final DBObject preFilter = redactedDBCollection.getDocumentLevelPreFilter();
+
+        final String explain = JSON.serialize(dbCollectionSrc.find(preFilter).explain());
+        Assert.assertTrue(explain, explain.contains("IXSCAN") || explain.contains("BtreeCursor slt_1"));
+        Assert.assertFalse(explain, explain.contains("COLLSCAN") || explain.contains("BasicCursor"));
+
+        Assert.assertEquals(60, dbCollectionSrc.find(preFilter).count());
+        Assert.assertEquals(60, redactedDBCollection.find().itcount());
+        Assert.assertEquals(0, redactedDBCollection.find(new BasicDBObject("sl", new BasicDBObject("$elemMatch",
+                new BasicDBObject("$elemMatch", new BasicDBObject("c", "TS"))))).itcount());
+    }
+}
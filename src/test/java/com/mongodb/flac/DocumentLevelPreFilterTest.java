@@ -0,0 +1,110 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+// builds the pre-filter only, no mongod is needed
+public class DocumentLevelPreFilterTest {
+
+    private static MongoClient mongoClient;
+    private static DBCollection dbCollectionSrc;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost");
+        dbCollectionSrc = mongoClient.getDB("flac_test").getCollection("persons");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        mongoClient.close();
+    }
+
+    @Test
+    public void testOffByDefault() throws Exception {
+        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+
+        Assert.assertFalse(redactedDBCollection.isDocumentLevelPreFilter());
+        Assert.assertNull(redactedDBCollection.getDocumentLevelPreFilter());
+    }
+
+    @Test
+    public void testPreFilterUsesExpandedTerms() throws Exception {
+        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMapCapco("c", "S"));
+        redactedDBCollection.setDocumentLevelPreFilter(true);
+
+        final DBObject preFilter = redactedDBCollection.getDocumentLevelPreFilter();
+        final List<?> candidates = (List<?>) preFilter.get("$or");
+        Assert.assertEquals(new BasicDBObject("slt", null), candidates.get(0));
+
+        // c:S implies c:C and c:U
+        Assert.assertEquals(new BasicDBObject("slt", new BasicDBObject("$in", Arrays.asList("c:C", "c:S", "c:U"))), candidates.get(1));
+        Assert.assertTrue(SampleQueryMatcher.matches(labelled("{ sl: [ [ { c: \"U\" } ] ] }"), preFilter));
+        Assert.assertFalse(SampleQueryMatcher.matches(labelled("{ sl: [ [ { c: \"TS\" } ] ] }"), preFilter));
+    }
+
+    @Test
+    public void testPreFilterKeepsSatisfiedLabelsOnly() throws Exception {
+        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+        redactedDBCollection.setDocumentLevelPreFilter(true);
+        final DBObject preFilter = redactedDBCollection.getDocumentLevelPreFilter();
+
+        for (String json : Arrays.asList("{ sl: [ [ { c: \"TS\" } ] ] }", "{ sl: [ [ { c: \"S\" }, { c: \"TS\" } ], [ ] ] }",
+                "{ sl: [ [ ] ] }", "{ firstName: \"Sheldon\" }")) {
+            Assert.assertTrue(json, SampleQueryMatcher.matches(labelled(json), preFilter));
+            Assert.assertTrue(json, SampleQueryMatcher.matches((DBObject) JSON.parse(json), preFilter));
+        }
+        for (String json : Arrays.asList("{ sl: [ [ { c: \"S\" } ] ] }", "{ sl: [ [ { c: \"TS\" } ], [ { sci: \"TK\" } ] ] }")) {
+            Assert.assertFalse(json, SampleQueryMatcher.matches(labelled(json), preFilter));
+            Assert.assertFalse(json, SampleQueryMatcher.matches((DBObject) JSON.parse(json), preFilter));
+        }
+    }
+
+    @Test
+    public void testTopLevelTerms() throws Exception {
+        Assert.assertEquals(Arrays.asList("c:TS", "sci:TK", "sci:SI"),
+                labelled("{ sl: [ [ { c: \"TS\" } ], [ { sci: \"TK\" }, { sci: \"SI\" }, { c: 5 } ], [ { c: \"TS\" } ] ] }").get("slt"));
+        Assert.assertFalse(labelled("{ sl: [ [ ] ], slt: [ \"c:TS\" ] }").containsField("slt"));
+        Assert.assertFalse(labelled("{ firstName: \"Sheldon\" }").containsField("slt"));
+    }
+
+    @Test
+    public void testTopLevelTermsFollowUpdates() throws Exception {
+        Assert.assertEquals(JSON.parse("{ $set: { sl: [ [ { c: \"S\" } ] ], slt: [ \"c:S\" ] } }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ $set: { sl: [ [ { c: \"S\" } ] ] } }")));
+        Assert.assertEquals(JSON.parse("{ $set: { sl: [ ] }, $unset: { slt: \"\" } }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ $set: { sl: [ ] } }")));
+        Assert.assertEquals(JSON.parse("{ $push: { sl: [ { c: \"S\" } ] }, $unset: { slt: \"\" } }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ $push: { sl: [ { c: \"S\" } ] } }")));
+        Assert.assertEquals(JSON.parse("{ $unset: { \"sl.0\": \"\", slt: \"\" } }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ $unset: { \"sl.0\": \"\" } }")));
+        Assert.assertEquals(JSON.parse("{ $set: { \"ssn.sl\": [ [ { c: \"S\" } ] ] } }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ $set: { \"ssn.sl\": [ [ { c: \"S\" } ] ] } }")));
+        Assert.assertEquals(JSON.parse("{ sl: [ [ { c: \"S\" } ] ], slt: [ \"c:S\" ] }"),
+                TopLevelTerms.addToUpdate((DBObject) JSON.parse("{ sl: [ [ { c: \"S\" } ] ] }")));
+    }
+
+    private static DBObject labelled(String json) {
+        return TopLevelTerms.addTo((DBObject) JSON.parse(json));
+    }
+
+    @Test
+    public void testPreFilterIsCombinedWithQuery() throws Exception {
+        final DBObject preFilter = new BasicDBObject("$or", "x").append("sl", "y");
+
+        Assert.assertEquals(new BasicDBObject("a", 1).append("$or", "x").append("sl", "y"),
+                RedactionQueryPlanner.and(new BasicDBObject("a", 1), preFilter));
+        Assert.assertTrue(RedactionQueryPlanner.and(new BasicDBObject("sl", 1), preFilter).containsField("$and"));
+        Assert.assertSame(preFilter, RedactionQueryPlanner.and(null, preFilter));
+    }
+}
@@ -0,0 +1,80 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.mongoapp.util.CapcoVisibilityUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LabelHierarchyTest {
+
+    private static final LabelHierarchy CAPCO = new LabelHierarchy.Builder()
+            .chain("c", "TS", "S", "C", "U")
+            .imply("sci:TK", "sci:TK-BLUE")
+            .imply("sci:TK", "sci:TK-RED")
+            .build();
+
+    @Test
+    public void testExpandFollowsTheWholeChain() {
+        Assert.assertEquals(Arrays.asList("c:TS", "c:S", "c:C", "c:U"), CAPCO.expand("c:TS"));
+        Assert.assertEquals(Arrays.asList("c:C", "c:U"), CAPCO.expand("c:C"));
+        Assert.assertEquals(Arrays.asList("relto:US"), CAPCO.expand("relto:US"));
+    }
+
+    @Test
+    public void testExpandSetOfTerms() {
+        final List<String> expanded = Arrays.asList(CAPCO.expand(Arrays.asList("c:S", "sci:TK", "relto:US")).toArray(new String[0]));
+        Assert.assertEquals(Arrays.asList("c:S", "sci:TK", "relto:US", "c:C", "c:U", "sci:TK-BLUE", "sci:TK-RED"), expanded);
+    }
+
+    @Test
+    public void testImplies() {
+        Assert.assertTrue(CAPCO.implies("c:TS", "c:U"));
+        Assert.assertTrue(CAPCO.implies("c:U", "c:U"));
+        Assert.assertFalse(CAPCO.implies("c:U", "c:TS"));
+        Assert.assertFalse(CAPCO.implies("c:TS", "sci:TK"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycleIsRejected() {
+        new LabelHierarchy.Builder().chain("c", "TS", "S", "TS").build();
+    }
+
+    @Test
+    public void testToAndFromDBObject() {
+        final DBObject stored = CAPCO.toDBObject();
+        Assert.assertEquals(Arrays.asList("c:S"), ((DBObject) stored.get("implies")).get("c:TS"));
+
+        final LabelHierarchy loaded = LabelHierarchy.fromDBObject(stored);
+        Assert.assertEquals(CAPCO.expand("c:TS"), loaded.expand("c:TS"));
+        Assert.assertEquals(CAPCO.expand("sci:TK"), loaded.expand("sci:TK"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromDBObjectRejectsOtherDocuments() {
+        LabelHierarchy.fromDBObject(new BasicDBObject("terms", Arrays.asList("c:TS")));
+    }
+
+    @Test
+    public void testUserSecurityAttributesMapExpandsAnyKey() {
+        final UserSecurityAttributesMap userSecurityAttributes = new UserSecurityAttributesMap("c", "S", "sci", "TK");
+        Assert.assertEquals(Arrays.asList("c:S", "sci:TK"), userSecurityAttributes.getCanonicalSecurityTerms());
+
+        userSecurityAttributes.setLabelHierarchy(CAPCO);
+        Assert.assertEquals(Arrays.asList("c:C", "c:S", "c:U", "sci:TK", "sci:TK-BLUE", "sci:TK-RED"),
+                userSecurityAttributes.getCanonicalSecurityTerms());
+        Assert.assertSame(CAPCO, new UserSecurityAttributesMap(userSecurityAttributes).getLabelHierarchy());
+    }
+
+    @Test
+    public void testCapcoVisibilityUtilExpandsEveryTerm() {
+        Assert.assertEquals(Arrays.asList("c:TS", "c:S", "c:C", "c:U"),
+                CapcoVisibilityUtil.recusivelyExpandCapcoVisibility("c:ts"));
+        // every element is expanded, not just the first one
+        Assert.assertEquals(Arrays.asList("sci:TK", "c:C", "c:U"),
+                CapcoVisibilityUtil.recusivelyExpandCapcoVisibility(Arrays.asList("sci:TK", "c:C")));
+    }
+}
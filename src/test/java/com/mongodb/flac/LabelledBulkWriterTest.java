@@ -0,0 +1,123 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteRequest;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class LabelledBulkWriterTest {
+
+    private static MongoClient mongoClient;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Test
+    public void testNormalizeLabel() throws Exception {
+        Assert.assertEquals(JSON.parse("[ [ { c: \"TS\" } ], [ { sci: \"TK\" }, { sci: \"SI\" } ] ]"),
+                LabelledBulkWriter.normalizeLabel(JSON.parse(
+                        "[ [ { c: \"TS\" }, { c: \"TS\" } ], [ ], [ { sci: \"TK\" }, { sci: \"SI\" } ], [ { c: \"TS\" } ] ]")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedLabelIsRejected() throws Exception {
+        final LabelledBulkWriter writer = new LabelledBulkWriter(new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons"),
+                new SecurityLabelDictionary());
+        writer.insert((DBObject) JSON.parse("{ _id: 1, sl: [ { c: \"TS\" } ] }"));
+    }
+
+    @Test
+    public void testLabelPath() throws Exception {
+        Assert.assertEquals("sl", LabelledBulkWriter.labelPath("sl"));
+        Assert.assertEquals("ssn.sl", LabelledBulkWriter.labelPath("ssn.sl"));
+        Assert.assertEquals("ssn.sl", LabelledBulkWriter.labelPath("ssn.sl.0.1"));
+        Assert.assertNull(LabelledBulkWriter.labelPath("ssn.slb"));
+        Assert.assertNull(LabelledBulkWriter.labelPath("slt"));
+    }
+
+    private static DBObject updateWritten(String update) throws Exception {
+        final RecordingDBCollection collection = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        final LabelledBulkWriter writer = new LabelledBulkWriter(collection, new SecurityLabelDictionary(Arrays.asList("c:TS", "c:S")));
+        final DBObject written = (DBObject) JSON.parse(update);
+        writer.update(new BasicDBObject("_id", 1), written, false);
+        writer.close();
+        return written;
+    }
+
+    @Test
+    public void testUpdatesKeepTheBitsetLabels() throws Exception {
+        Assert.assertEquals(JSON.parse("{ $set: { \"ssn.sl\": [ [ { c: \"TS\" } ] ], \"ssn.slb\": [ [ 0 ] ] } }"),
+                updateWritten("{ $set: { \"ssn.sl\": [ [ { c: \"TS\" }, { c: \"TS\" } ], [ ] ] } }"));
+        Assert.assertEquals(JSON.parse("{ $set: { ssn: { sl: [ [ { c: \"S\" } ] ], value: 1, slb: [ [ 1 ] ] } } }"),
+                updateWritten("{ $set: { ssn: { sl: [ [ { c: \"S\" } ] ], value: 1 } } }"));
+        Assert.assertEquals(JSON.parse("{ $unset: { sl: \"\", slb: \"\", slt: \"\" } }"),
+                updateWritten("{ $unset: { sl: \"\" } }"));
+        Assert.assertEquals(JSON.parse("{ $push: { sl: [ { c: \"S\" } ], slb: [ 1 ] }, $unset: { slt: \"\" } }"),
+                updateWritten("{ $push: { sl: [ { c: \"S\" }, { c: \"S\" } ] } }"));
+        Assert.assertEquals(JSON.parse("{ $addToSet: { \"ssn.sl\": { $each: [ [ { c: \"TS\" } ] ], $slice: -3 }, "
+                        + "\"ssn.slb\": { $each: [ [ 0 ] ], $slice: -3 } } }"),
+                updateWritten("{ $addToSet: { \"ssn.sl\": { $each: [ [ { c: \"TS\" } ] ], $slice: -3 } } }"));
+        Assert.assertEquals(JSON.parse("{ $rename: { \"a.sl\": \"b.sl\", \"a.slb\": \"b.slb\" } }"),
+                updateWritten("{ $rename: { \"a.sl\": \"b.sl\" } }"));
+        Assert.assertEquals(JSON.parse("{ $pull: { \"ssn.sl\": [ { c: \"S\" } ] }, $unset: { \"ssn.slb\": \"\" } }"),
+                updateWritten("{ $pull: { \"ssn.sl\": [ { c: \"S\" } ] } }"));
+        Assert.assertEquals(JSON.parse("{ $set: { \"sl.0\": [ { c: \"S\" } ] }, $unset: { slb: \"\", slt: \"\" } }"),
+                updateWritten("{ $set: { \"sl.0\": [ { c: \"S\" } ] } }"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortingALabelIsRejected() throws Exception {
+        updateWritten("{ $push: { sl: { $each: [ [ { c: \"S\" } ] ], $sort: 1 } } }");
+    }
+
+    @Test
+    public void testBatchesByType() throws Exception {
+        final RecordingDBCollection collection = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary();
+        final LabelledBulkWriter writer = new LabelledBulkWriter(collection, dictionary, 2, 2, WriteConcern.ACKNOWLEDGED);
+
+        final DBObject first = (DBObject) JSON.parse("{ _id: 1, sl: [ [ { c: \"TS\" } ] ], ssn: { sl: [ [ ], [ { c: \"S\" } ] ], value: 1 } }");
+        writer.insert(first);
+        writer.remove(new BasicDBObject("_id", 7));
+        for (int i = 2; i <= 4; i++) {
+            writer.insert(new BasicDBObject("_id", i));
+        }
+        writer.close();
+
+        Assert.assertEquals(JSON.parse("[ [ 0 ] ]"), first.get("slb"));
+        Assert.assertEquals(JSON.parse("[ [ { c: \"S\" } ] ]"), ((DBObject) first.get("ssn")).get("sl"));
+        Assert.assertEquals(JSON.parse("[ [ 1 ] ]"), ((DBObject) first.get("ssn")).get("slb"));
+
+        final List<LabelledBulkWriter.BatchReport> reports = writer.getReports();
+        Assert.assertEquals(3, reports.size());
+        Assert.assertEquals(3, collection.bulkWrites.size());
+        int inserts = 0;
+        for (LabelledBulkWriter.BatchReport report : reports) {
+            Assert.assertNull(report.getFailure());
+            if (report.getType() == WriteRequest.Type.INSERT) {
+                inserts += report.getSize();
+            } else {
+                Assert.assertEquals(WriteRequest.Type.REMOVE, report.getType());
+                Assert.assertEquals(1, report.getSize());
+            }
+        }
+        Assert.assertEquals(4, inserts);
+    }
+}
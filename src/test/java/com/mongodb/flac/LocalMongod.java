@@ -0,0 +1,34 @@
+package com.mongodb.flac;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoException;
+import org.junit.Assume;
+
+import java.net.UnknownHostException;
+
+/**
+ * Connects the tests that need real query semantics to the mongod on localhost, and skips them when there is none.
+ */
+class LocalMongod {
+
+    private LocalMongod() {
+    }
+
+    /**
+     * call from a @BeforeClass method.
+     *
+     * @return a client connected to localhost, the caller closes it
+     */
+    static MongoClient connectOrSkip() throws UnknownHostException {
+        final MongoClient mongoClient = new MongoClient("localhost",
+                MongoClientOptions.builder().connectTimeout(1000).maxWaitTime(1000).build());
+        try {
+            mongoClient.getDB("admin").command("ping").throwOnError();
+        } catch (MongoException e) {
+            mongoClient.close();
+            Assume.assumeNoException(e);
+        }
+        return mongoClient;
+    }
+}
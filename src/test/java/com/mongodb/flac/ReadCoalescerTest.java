@@ -0,0 +1,340 @@
+package com.mongodb.flac;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ReadPreference;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// finds run against a RecordingDBCollection, no mongod is needed
+public class ReadCoalescerTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private ReadCoalescer readCoalescer;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        readCoalescer = new ReadCoalescer(ReadCoalescer.DEFAULT_MAX_SHARED_DOCUMENTS);
+    }
+
+    private RedactedDBCollection collectionFor(String clearance) {
+        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", clearance));
+        redactedDBCollection.setReadCoalescer(readCoalescer);
+        return redactedDBCollection;
+    }
+
+    @Test
+    public void testFindsInFlightShareOneAggregation() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+
+        final DBCursor first = collectionFor("TS").find(new BasicDBObject("x", 1));
+        final DBObject firstDocument = first.next();
+        Assert.assertEquals(1, firstDocument.get("_id"));
+
+        // started while the first is still reading, so it attaches and sees the whole result from the start
+        final DBCursor second = collectionFor("TS").find(new BasicDBObject("x", 1));
+        final DBObject secondDocument = second.next();
+        Assert.assertEquals(firstDocument, secondDocument);
+        Assert.assertNotSame(firstDocument, secondDocument);        // each find gets its own copies
+        Assert.assertEquals(2, second.next().get("_id"));
+        Assert.assertFalse(second.hasNext());
+        Assert.assertEquals(2, first.next().get("_id"));
+        Assert.assertFalse(first.hasNext());
+
+        Assert.assertEquals(1, dbCollectionSrc.pipelines.size());
+        Assert.assertEquals(1, readCoalescer.getStartedCount());
+        Assert.assertEquals(1, readCoalescer.getAttachedCount());
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testDifferentPrincipalsAndFinishedFlightsRunTheirOwn() throws Exception {
+        final DBCursor first = collectionFor("TS").find(new BasicDBObject("x", 1));
+        Assert.assertFalse(first.hasNext());
+
+        collectionFor("TS").find(new BasicDBObject("x", 1)).hasNext();         // the first one is done
+        collectionFor("S").find(new BasicDBObject("x", 1)).hasNext();
+        collectionFor("TS").find(new BasicDBObject("x", 2)).hasNext();
+        Assert.assertEquals(4, dbCollectionSrc.pipelines.size());
+        Assert.assertEquals(0, readCoalescer.getAttachedCount());
+    }
+
+    @Test
+    public void testConcurrentFindsWaitForTheSharedAggregation() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger aggregations = new AtomicInteger();
+        final RecordingDBCollection slowCollection = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons") {
+            @Override
+            public Cursor aggregate(List<DBObject> pipeline, AggregationOptions options, ReadPreference readPreference) {
+                aggregations.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.aggregate(pipeline, options, readPreference);
+            }
+        };
+        slowCollection.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2), new BasicDBObject("_id", 3));
+
+        final int users = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(users);
+        try {
+            final List<Future<List<DBObject>>> results = new ArrayList<Future<List<DBObject>>>();
+            for (int i = 0; i < users; i++) {
+                results.add(executor.submit(new Callable<List<DBObject>>() {
+                    @Override
+                    public List<DBObject> call() throws Exception {
+                        final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(slowCollection, new UserSecurityAttributesMap("c", "TS"));
+                        redactedDBCollection.setReadCoalescer(readCoalescer);
+                        final DBCursor cursor = redactedDBCollection.find();
+                        try {
+                            return cursor.toArray();
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                }));
+            }
+            while (readCoalescer.getAttachedCount() < users - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<List<DBObject>> result : results) {
+                Assert.assertEquals(3, result.get(10, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, aggregations.get());
+    }
+
+    @Test
+    public void testWritesStopFindsFromAttaching() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2))
+                .willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2), new BasicDBObject("_id", 3));
+
+        final RedactedDBCollection writer = collectionFor("TS");
+        final DBCursor first = writer.find(new BasicDBObject("x", 1));
+        Assert.assertEquals(1, first.next().get("_id"));
+
+        writer.insert(new BasicDBObject("_id", 3));
+        final DBCursor second = collectionFor("TS").find(new BasicDBObject("x", 1));
+        Assert.assertEquals(3, second.toArray().size());
+        Assert.assertEquals(2, dbCollectionSrc.pipelines.size());
+        Assert.assertEquals(0, readCoalescer.getAttachedCount());
+
+        Assert.assertEquals(2, first.next().get("_id"));         // the first find reads on
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testErrorReadingReleasesTheOtherFinds() throws Exception {
+        final CountDownLatch open = new CountDownLatch(0);
+        final Cursor failing = new ForwardingCursor(sourceOf(3, -1, open, open)) {
+            @Override
+            public boolean hasNext() {
+                throw new AssertionError("lost the connection");
+            }
+        };
+        final Callable<Cursor> aggregation = new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return failing;
+            }
+        };
+        final Cursor first = readCoalescer.open(key("error"), aggregation);
+        final Cursor second = readCoalescer.open(key("error"), aggregation);
+        try {
+            first.hasNext();
+            Assert.fail();
+        } catch (AssertionError e) {
+            Assert.assertEquals("lost the connection", e.getMessage());
+        }
+        try {
+            second.hasNext();       // would wait forever for the failed read
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        first.close();
+        second.close();
+    }
+
+    /** passes everything on to another cursor */
+    private static class ForwardingCursor implements Cursor {
+        private final Cursor delegate;
+
+        ForwardingCursor(Cursor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public DBObject next() {
+            return delegate.next();
+        }
+
+        @Override
+        public long getCursorId() {
+            return delegate.getCursorId();
+        }
+
+        @Override
+        public com.mongodb.ServerAddress getServerAddress() {
+            return delegate.getServerAddress();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public void remove() {
+            delegate.remove();
+        }
+    }
+
+    private static RedactedResultCache.Key key(String query) {
+        return RedactedResultCache.key("flac_test.persons", SecurityPrincipal.of(Arrays.asList("c:TS")),
+                Collections.<DBObject>singletonList(new BasicDBObject("$match", new BasicDBObject("x", query))), null);
+    }
+
+    /** a server cursor over n documents, hasNext blocks on document block until released */
+    private static Cursor sourceOf(final int n, final int block, final CountDownLatch reading, final CountDownLatch release) {
+        return new Cursor() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (next == block) {
+                    reading.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next < n;
+            }
+
+            @Override
+            public DBObject next() {
+                return new BasicDBObject("_id", next++);
+            }
+
+            @Override
+            public long getCursorId() {
+                return 0;
+            }
+
+            @Override
+            public com.mongodb.ServerAddress getServerAddress() {
+                return null;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testSingleFindLeftStreams() throws Exception {
+        final ReadCoalescer coalescer = new ReadCoalescer(2);
+        final CountDownLatch open = new CountDownLatch(0);
+        final Cursor source = sourceOf(100, -1, open, open);
+        final ReadCoalescer.SharedCursor only = (ReadCoalescer.SharedCursor) coalescer.open(key("stream"), new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return source;
+            }
+        });
+
+        int read = 0;
+        while (only.hasNext()) {
+            Assert.assertEquals(read++, only.next().get("_id"));
+            Assert.assertTrue(only.getBufferedCount() <= 3);        // past the shared maximum nobody else can attach
+        }
+        Assert.assertEquals(100, read);
+        only.close();
+    }
+
+    @Test
+    public void testBufferedDocumentsDontWaitForTheServer() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Cursor source = sourceOf(3, 1, reading, release);
+        final Callable<Cursor> aggregation = new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return source;
+            }
+        };
+        final Cursor first = readCoalescer.open(key("slow"), aggregation);
+        final Cursor second = readCoalescer.open(key("slow"), aggregation);
+        Assert.assertEquals(0, first.next().get("_id"));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> slowRead = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return first.hasNext();
+                }
+            });
+            Assert.assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+            // the first find is waiting for the server, the second still gets what is buffered
+            Assert.assertEquals(0, second.next().get("_id"));
+
+            release.countDown();
+            Assert.assertTrue(slowRead.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, first.next().get("_id"));
+            Assert.assertEquals(1, second.next().get("_id"));
+        } finally {
+            executor.shutdownNow();
+            first.close();
+            second.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.mongodb.flac;
+
+import com.mongodb.*;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBCollection test double that records aggregation pipelines and answers them with canned results, so pipelines
+ * can be checked without a running mongod.  Inserted documents, the queries of updates, removes and findAndModify
+ * and the requests of bulk writes are recorded as well.
+ */
+class RecordingDBCollection extends DBCollection {
+
+    final List<List<DBObject>> pipelines = new ArrayList<List<DBObject>>();
+    final List<AggregationOptions> aggregationOptions = new ArrayList<AggregationOptions>();
+    final List<ReadPreference> readPreferences = new ArrayList<ReadPreference>();
+    final Deque<List<DBObject>> results = new ArrayDeque<List<DBObject>>();
+    final List<DBObject> writeQueries = new ArrayList<DBObject>();
+    final List<DBObject> inserts = new ArrayList<DBObject>();
+    final List<List<WriteRequest>> bulkWrites = Collections.synchronizedList(new ArrayList<List<WriteRequest>>());
+    private long count;
+
+    /** no request of the unconnected client can reach a server, so anything not answered by the stub fails */
+    private static final DB UNCONNECTED_DB = new MongoClient(new ServerAddress(InetAddress.getLoopbackAddress(), 1))
+            .getDB("flac_test");
+
+    RecordingDBCollection(DB db, String name) {
+        super(db, name);
+    }
+
+    /** a stub in a database that is never connected to */
+    RecordingDBCollection(String name) {
+        this(UNCONNECTED_DB, name);
+    }
+
+    /** queue the documents the next aggregate returns */
+    RecordingDBCollection willReturn(DBObject... documents) {
+        results.add(Arrays.asList(documents));
+        return this;
+    }
+
+    /** the count getCount answers with */
+    RecordingDBCollection willCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    List<DBObject> lastPipeline() {
+        return pipelines.get(pipelines.size() - 1);
+    }
+
+    @Override
+    protected long getCount(DBObject query, DBObject fields, long limit, long skip, ReadPreference readPrefs,
+                            long maxTime, TimeUnit maxTimeUnit) {
+        return count;
+    }
+
+    @Override
+    public Cursor aggregate(List<DBObject> pipeline, AggregationOptions options, ReadPreference readPreference) {
+        pipelines.add(new ArrayList<DBObject>(pipeline));
+        aggregationOptions.add(options);
+        readPreferences.add(readPreference);
+        final Iterator<DBObject> documents = results.isEmpty() ? Collections.<DBObject>emptyList().iterator() : results.poll().iterator();
+        return new Cursor() {
+            public long getCursorId() { return 0; }
+            public ServerAddress getServerAddress() { return null; }
+            public void close() { }
+            public boolean hasNext() { return documents.hasNext(); }
+            public DBObject next() { return documents.next(); }
+            public void remove() { throw new UnsupportedOperationException(); }
+        };
+    }
+
+    @Override
+    public WriteResult insert(List<DBObject> list, WriteConcern concern, DBEncoder encoder) {
+        inserts.addAll(list);
+        return null;
+    }
+
+    @Override
+    public WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern, DBEncoder encoder) {
+        writeQueries.add(q);
+        return null;
+    }
+
+    @Override
+    public void doapply(DBObject o) {
+    }
+
+    /** answers with the first document queued by willReturn */
+    @Override
+    public DBObject findAndModify(DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update,
+                                  boolean returnNew, boolean upsert, long maxTime, TimeUnit maxTimeUnit) {
+        writeQueries.add(query);
+        final List<DBObject> documents = results.poll();
+        return documents == null || documents.isEmpty() ? null : documents.get(0);
+    }
+
+    @Override
+    public WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) {
+        writeQueries.add(o);
+        return null;
+    }
+
+    @Override
+    protected QueryResultIterator find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int limit, int options,
+                                       ReadPreference readPref, DBDecoder decoder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected QueryResultIterator find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int limit, int options,
+                                       ReadPreference readPref, DBDecoder decoder, DBEncoder encoder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void createIndex(DBObject keys, DBObject options, DBEncoder encoder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Cursor> parallelScan(ParallelScanOptions options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BulkWriteResult executeBulkWriteOperation(boolean ordered, List<WriteRequest> requests, WriteConcern writeConcern, DBEncoder encoder) {
+        bulkWrites.add(new ArrayList<WriteRequest>(requests));
+        return null;
+    }
+}
@@ -0,0 +1,78 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class RedactStageCacheTest {
+
+    @Test
+    public void testSameAttributesShareOneStage() throws Exception {
+        final RedactStageCache cache = new RedactStageCache(100);
+
+        final UserSecurityAttributesMap user1 = new UserSecurityAttributesMap();
+        user1.put("c", "TS");
+        user1.put("sci", Arrays.asList("TK", "SI"));
+        final UserSecurityAttributesMap user2 = new UserSecurityAttributesMap();
+        user2.put("sci", Arrays.asList("SI", "TK"));
+        user2.put("c", "TS");
+
+        final DBObject stage1 = cache.getRedactStage(user1);
+        final DBObject stage2 = cache.getRedactStage(user2);
+
+        Assert.assertSame(stage1, stage2);
+        Assert.assertTrue(stage1.containsField("$redact"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getStats().missCount());
+        Assert.assertEquals(1, cache.getStats().hitCount());
+    }
+
+    @Test
+    public void testDifferentAttributesGetDifferentStages() throws Exception {
+        final RedactStageCache cache = new RedactStageCache(100);
+
+        final DBObject stageTS = cache.getRedactStage(new UserSecurityAttributesMap("c", "TS"));
+        final DBObject stageS = cache.getRedactStage(new UserSecurityAttributesMap("c", "S"));
+
+        Assert.assertNotSame(stageTS, stageS);
+        Assert.assertEquals(2, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testEmptyAttributes() throws Exception {
+        final RedactStageCache cache = new RedactStageCache(100);
+
+        Assert.assertSame(cache.getRedactStage(""), cache.getRedactStage((String) null));
+        Assert.assertSame(cache.getRedactStage(new UserSecurityAttributesMap().toCanonicalFlacEncodedString()),
+                cache.getRedactStage(new UserSecurityAttributesMap()));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final RedactStageCache cache = new RedactStageCache(2);
+
+        cache.getRedactStage(new UserSecurityAttributesMap("c", "TS"));
+        cache.getRedactStage(new UserSecurityAttributesMap("c", "S"));
+        cache.getRedactStage(new UserSecurityAttributesMap("c", "C"));
+
+        Assert.assertTrue(cache.size() <= 2);
+        Assert.assertTrue(cache.getStats().evictionCount() >= 1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStageIsReadOnly() throws Exception {
+        final DBObject stage = new RedactStageCache(100).getRedactStage(new UserSecurityAttributesMap("c", "TS"));
+        stage.put("$match", new BasicDBObject());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNestedStageIsReadOnly() throws Exception {
+        final DBObject stage = new RedactStageCache(100).getRedactStage(new UserSecurityAttributesMap("c", "TS"));
+        final DBObject cond = (DBObject) ((DBObject) stage.get("$redact")).get("$cond");
+        cond.put("then", "$$KEEP");
+    }
+}
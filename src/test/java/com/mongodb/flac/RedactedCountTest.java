@@ -0,0 +1,75 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+// counts run against a RecordingDBCollection, no mongod is needed
+public class RedactedCountTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testCountDropsPayloadSortAndPaging() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", null).append("n", 42));
+
+        final DBCursor cursor = redactedDBCollection.find(new BasicDBObject("firstName", "Sheldon"), new BasicDBObject("lastName", 1))
+                .sort(new BasicDBObject("_id", 1)).skip(10).limit(5);
+        Assert.assertEquals(42, cursor.count());
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(4, pipeline.size());
+        Assert.assertEquals(new BasicDBObject("$project", new BasicDBObject("sl", 1).append("slb", 1).append("firstName", 1)),
+                pipeline.get(0));       // ahead of $redact, no payload
+        Assert.assertTrue(pipeline.get(1).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("firstName", "Sheldon")), pipeline.get(2));
+        Assert.assertTrue(pipeline.get(3).containsField("$group"));
+    }
+
+    @Test
+    public void testSizeKeepsSkipAndLimit() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", null).append("n", 5));
+
+        final DBCursor cursor = redactedDBCollection.find().sort(new BasicDBObject("_id", 1)).skip(10).limit(5);
+        Assert.assertEquals(5, cursor.size());
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertEquals(new BasicDBObject("$project", new BasicDBObject("sl", 1).append("slb", 1)), pipeline.get(0));
+        Assert.assertEquals(new BasicDBObject("$skip", 10), pipeline.get(2));
+        Assert.assertEquals(new BasicDBObject("$limit", 5), pipeline.get(3));
+    }
+
+    @Test
+    public void testCollectionCountIsRedacted() throws Exception {
+        dbCollectionSrc.willReturn();       // nothing visible
+
+        Assert.assertEquals(0, redactedDBCollection.count(new BasicDBObject("firstName", "Sheldon")));
+        Assert.assertTrue(dbCollectionSrc.lastPipeline().get(1).containsField("$redact"));
+    }
+}
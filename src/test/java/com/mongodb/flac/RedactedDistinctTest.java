@@ -0,0 +1,88 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.GroupCommand;
+import com.mongodb.MongoClient;
+import com.mongodb.ReadPreference;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class RedactedDistinctTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testDistinctGroupsAfterRedact() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", "IRAQ"), new BasicDBObject("_id", Arrays.asList("IRAN", "IRAQ")));
+
+        final List values = redactedDBCollection.distinct("country.value", new BasicDBObject("lastName", "Humphrey"));
+        Assert.assertEquals(Arrays.asList("IRAQ", "IRAN"), values);
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertTrue(pipeline.get(0).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("lastName", "Humphrey")
+                .append("country.value", new BasicDBObject("$exists", true))), pipeline.get(1));
+        Assert.assertEquals(new BasicDBObject("$group", new BasicDBObject("_id", "$country.value")), pipeline.get(2));
+    }
+
+    @Test
+    public void testGroupGroupsAfterRedact() throws Exception {
+        dbCollectionSrc.willReturn((DBObject) JSON.parse("{ _id: { k0: \"IRAQ\" }, total: 7, count: 2 }"));
+
+        final DBObject records = redactedDBCollection.group(new GroupCommand(redactedDBCollection, new BasicDBObject("country.value", 1),
+                new BasicDBObject("lastName", "Humphrey"), new BasicDBObject("total", 0).append("count", 0),
+                "function (curr, result) { result.total += curr.size; result.count++; }", null), ReadPreference.secondary());
+        Assert.assertEquals(JSON.parse("[ { \"country.value\": \"IRAQ\", total: 7, count: 2 } ]"), records);
+
+        final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+        Assert.assertTrue(pipeline.get(0).containsField("$redact"));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("lastName", "Humphrey")), pipeline.get(1));
+        Assert.assertEquals(JSON.parse("{ $group: { _id: { k0: \"$country.value\" }, total: { $sum: \"$size\" }, count: { $sum: 1 } } }"),
+                pipeline.get(2));
+        Assert.assertEquals(ReadPreference.secondary(), dbCollectionSrc.readPreferences.get(0));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testGroupArgumentsAreTranslatedAlike() throws Exception {
+        dbCollectionSrc.willReturn((DBObject) JSON.parse("{ _id: null, names: [ \"a\", \"b\" ] }"));
+
+        final DBObject records = redactedDBCollection.group((DBObject) JSON.parse(
+                "{ initial: { names: [ ] }, $reduce: \"function (doc, prev) { prev.names.push(doc.firstName); }\" }"));
+        Assert.assertEquals(JSON.parse("[ { names: [ \"a\", \"b\" ] } ]"), records);
+        Assert.assertEquals(JSON.parse("{ $group: { _id: null, names: { $push: \"$firstName\" } } }"), dbCollectionSrc.lastPipeline().get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUntranslatableMapReduceIsRejected() throws Exception {
+        redactedDBCollection.mapReduce((DBObject) JSON.parse("{ mapreduce: \"persons\", map: \"function () { emit(this.a, 1); }\", "
+                + "reduce: \"function (key, values) { return values.length; }\", out: { inline: 1 } }"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MapReduceCommand;
+import com.mongodb.MapReduceOutput;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// runs against the mongod on localhost, skipped when there is none
+public class RedactedMapReduceMongodTest {
+
+    private static final String MAP = "function () { emit(this.country, this.size); }";
+    private static final String REDUCE = "function (key, values) { return Array.sum(values); }";
+
+    private static MongoClient mongoClient;
+    private static DBCollection dbCollectionSrc;
+    private static RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = LocalMongod.connectOrSkip();
+        dbCollectionSrc = mongoClient.getDB("flac_test").getCollection("mapreduce");
+        dbCollectionSrc.drop();
+        dbCollectionSrc.insert(doc("{ country: \"IRAQ\", size: 1, sl: [ [ { c: \"S\" } ] ] }"));
+        dbCollectionSrc.insert(doc("{ country: \"IRAQ\", size: 2 }"));
+        dbCollectionSrc.insert(doc("{ country: \"IRAN\", size: 4, sl: [ [ { c: \"TS\" } ] ] }"));
+        dbCollectionSrc.insert(doc("{ country: \"IRAN\", size: 8, sl: [ [ { c: \"TS\" } ] ] }"));
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "S"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (mongoClient != null) {
+            dbCollectionSrc.drop();
+            mongoClient.getDB("flac_test").getCollection("mapreduce_out").drop();
+            mongoClient.close();
+        }
+    }
+
+    @Test
+    public void testInlineMapReduceSeesRedactedDocumentsOnly() throws Exception {
+        final MapReduceOutput output = redactedDBCollection.mapReduce(new MapReduceCommand(redactedDBCollection, MAP, REDUCE,
+                null, MapReduceCommand.OutputType.INLINE, null));
+        Assert.assertEquals(JSON.parse("[ { _id: \"IRAQ\", value: 3 } ]"), toList(output.results()));
+        Assert.assertNull(output.getOutputCollection());
+    }
+
+    @Test
+    public void testReplaceMapReduceWritesTheResultsOnly() throws Exception {
+        final MapReduceOutput output = redactedDBCollection.mapReduce(new MapReduceCommand(redactedDBCollection, MAP, REDUCE,
+                "mapreduce_out", MapReduceCommand.OutputType.REPLACE, new BasicDBObject("size", new BasicDBObject("$gt", 1))));
+        Assert.assertEquals("mapreduce_out", output.getOutputCollection().getName());
+        Assert.assertEquals(JSON.parse("[ { _id: \"IRAQ\", value: 2 } ]"), toList(output.results()));
+        for (String name : mongoClient.getDB("flac_test").getCollectionNames()) {
+            Assert.assertFalse(name, name.startsWith("tmp.flac."));
+        }
+    }
+
+    @Test
+    public void testGroupSeesRedactedDocumentsOnly() throws Exception {
+        final DBObject records = redactedDBCollection.group(new BasicDBObject("country", 1), null, new BasicDBObject("total", 0),
+                "function (curr, result) { result.total += curr.size; }");
+        Assert.assertEquals(JSON.parse("[ { country: \"IRAQ\", total: 3 } ]"), records);
+    }
+
+    private static List<DBObject> toList(Iterable<DBObject> documents) {
+        final List<DBObject> list = new ArrayList<DBObject>();
+        for (DBObject document : documents) {
+            list.add(document);
+        }
+        return list;
+    }
+
+    private static DBObject doc(String json) {
+        return (DBObject) JSON.parse(json);
+    }
+}
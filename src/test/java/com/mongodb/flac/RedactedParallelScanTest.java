@@ -0,0 +1,77 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ParallelScanOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class RedactedParallelScanTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testOneRedactedAggregationPerIdRange() throws Exception {
+        dbCollectionSrc.willCount(9);
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1));
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 9));
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 4));
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 7));
+
+        final List<Cursor> cursors = redactedDBCollection.parallelScan(ParallelScanOptions.builder().numCursors(3).batchSize(500).build());
+        Assert.assertEquals(3, cursors.size());
+
+        final List<List<DBObject>> pipelines = dbCollectionSrc.pipelines;
+        Assert.assertEquals(new BasicDBObject("$sort", new BasicDBObject("_id", 1)), pipelines.get(0).get(0));
+        Assert.assertEquals(new BasicDBObject("$limit", 1), pipelines.get(0).get(1));
+        Assert.assertEquals(new BasicDBObject("$sort", new BasicDBObject("_id", -1)), pipelines.get(1).get(0));
+        Assert.assertEquals(new BasicDBObject("$limit", 1), pipelines.get(1).get(1));
+        Assert.assertEquals(new BasicDBObject("$skip", 3L), pipelines.get(2).get(1));
+        Assert.assertEquals(new BasicDBObject("$skip", 6L), pipelines.get(3).get(1));
+
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("_id", new BasicDBObject("$lt", 4))), pipelines.get(4).get(0));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("_id", new BasicDBObject("$gte", 4).append("$lt", 7))), pipelines.get(5).get(0));
+        Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("_id", new BasicDBObject("$gte", 7))), pipelines.get(6).get(0));
+        for (List<DBObject> pipeline : pipelines.subList(4, 7)) {
+            Assert.assertTrue(pipeline.get(1).containsField("$redact"));
+        }
+        Assert.assertEquals(Integer.valueOf(500), dbCollectionSrc.aggregationOptions.get(4).getBatchSize());
+    }
+
+    @Test
+    public void testMixedIdTypesUseOneCursor() throws Exception {
+        dbCollectionSrc.willCount(9);
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1));
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", "x"));
+
+        final List<Cursor> cursors = redactedDBCollection.parallelScan(ParallelScanOptions.builder().numCursors(3).build());
+        Assert.assertEquals(1, cursors.size());
+        Assert.assertTrue(dbCollectionSrc.lastPipeline().get(0).containsField("$redact"));
+    }
+}
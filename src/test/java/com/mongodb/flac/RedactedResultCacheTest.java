@@ -0,0 +1,114 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// finds run against a RecordingDBCollection, no mongod is needed
+public class RedactedResultCacheTest {
+
+    private static MongoClient mongoClient;
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedResultCache resultCache;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = new MongoClient("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        mongoClient.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+        resultCache = new RedactedResultCache(100, 1, TimeUnit.MINUTES);
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+        redactedDBCollection.setResultCache(resultCache);
+    }
+
+    private List<DBObject> findSheldons(RedactedDBCollection collection) {
+        return collection.find(new BasicDBObject("firstName", "Sheldon")).sort(new BasicDBObject("_id", 1)).limit(10).toArray();
+    }
+
+    @Test
+    public void testRepeatedFindIsAnsweredFromCache() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1).append("firstName", "Sheldon"));
+
+        final List<DBObject> first = findSheldons(redactedDBCollection);
+        Assert.assertEquals(1, dbCollectionSrc.pipelines.size());
+
+        // another user with the same attributes shares the result
+        final RedactedDBCollection sameUser = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+        sameUser.setResultCache(resultCache);
+        final List<DBObject> second = findSheldons(sameUser);
+        Assert.assertEquals(1, dbCollectionSrc.pipelines.size());
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(1, resultCache.getStats().hitCount());
+
+        // hits hand out copies
+        second.get(0).put("firstName", "Leonard");
+        Assert.assertEquals("Sheldon", findSheldons(redactedDBCollection).get(0).get("firstName"));
+    }
+
+    @Test
+    public void testKeyHoldsPrincipalAndQueryShape() throws Exception {
+        findSheldons(redactedDBCollection);
+
+        final RedactedDBCollection otherUser = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "S"));
+        otherUser.setResultCache(resultCache);
+        findSheldons(otherUser);
+        Assert.assertEquals(2, dbCollectionSrc.pipelines.size());
+
+        redactedDBCollection.find(new BasicDBObject("firstName", "Sheldon")).sort(new BasicDBObject("_id", 1)).limit(20).toArray();
+        Assert.assertEquals(3, dbCollectionSrc.pipelines.size());
+        Assert.assertEquals(3, resultCache.size());
+    }
+
+    @Test
+    public void testWritesInvalidate() throws Exception {
+        findSheldons(redactedDBCollection);
+        redactedDBCollection.insert(new BasicDBObject("_id", 2));
+        findSheldons(redactedDBCollection);
+        Assert.assertEquals(2, dbCollectionSrc.pipelines.size());
+
+        redactedDBCollection.update(new BasicDBObject("_id", 2), new BasicDBObject("$set", new BasicDBObject("x", 1)));
+        findSheldons(redactedDBCollection);
+        redactedDBCollection.remove(new BasicDBObject("_id", 2));
+        findSheldons(redactedDBCollection);
+        Assert.assertEquals(4, dbCollectionSrc.pipelines.size());
+
+        final BulkWriteOperation bulk = redactedDBCollection.initializeUnorderedBulkOperation();
+        bulk.find(new BasicDBObject("_id", 1)).removeOne();
+        bulk.execute();
+        findSheldons(redactedDBCollection);
+        Assert.assertEquals(5, dbCollectionSrc.pipelines.size());
+    }
+
+    @Test
+    public void testUnfinishedAndLargeResultsAreNotCached() throws Exception {
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+        final com.mongodb.DBCursor cursor = redactedDBCollection.find();
+        cursor.next();
+        cursor.close();
+        Assert.assertEquals(0, resultCache.size());
+
+        final RedactedResultCache smallCache = new RedactedResultCache(100, 1, TimeUnit.MINUTES, 1);
+        redactedDBCollection.setResultCache(smallCache);
+        dbCollectionSrc.willReturn(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+        Assert.assertEquals(2, redactedDBCollection.find().toArray().size());
+        Assert.assertEquals(0, smallCache.size());
+    }
+}
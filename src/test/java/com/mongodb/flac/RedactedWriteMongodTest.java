@@ -0,0 +1,72 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// runs against the mongod on localhost, skipped when there is none
+public class RedactedWriteMongodTest {
+
+    private static MongoClient mongoClient;
+    private static DBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mongoClient = LocalMongod.connectOrSkip();
+        dbCollectionSrc = mongoClient.getDB("flac_test").getCollection("writes");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (mongoClient != null) {
+            dbCollectionSrc.drop();
+            mongoClient.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc.drop();
+        dbCollectionSrc.insert(doc("{ _id: 1, sl: [ [ { c: \"TS\" } ] ] }"));
+        dbCollectionSrc.insert(doc("{ _id: 2, sl: [ [ { c: \"S\" }, { c: \"TS\" } ], [ ] ] }"));
+        dbCollectionSrc.insert(doc("{ _id: 3, sl: [ [ { c: \"S\" } ] ] }"));
+        dbCollectionSrc.insert(doc("{ _id: 4, sl: [ [ { c: \"TS\" } ], [ { sci: \"TK\" } ] ] }"));
+        dbCollectionSrc.insert(doc("{ _id: 5 }"));
+        dbCollectionSrc.insert(doc("{ _id: 6, sl: [ ] }"));
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testWriteAccessPredicateOnTheServer() throws Exception {
+        Assert.assertEquals(JSON.parse("[ { _id: 1 }, { _id: 2 }, { _id: 5 }, { _id: 6 } ]"),
+                dbCollectionSrc.find(redactedDBCollection.getWriteAccessPredicate(), new BasicDBObject("_id", 1))
+                        .sort(new BasicDBObject("_id", 1)).toArray());
+    }
+
+    @Test
+    public void testUpdateAndRemoveOnlyTouchWritable() throws Exception {
+        redactedDBCollection.updateMulti(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject("foo", "baz")));
+        Assert.assertEquals(4, dbCollectionSrc.count(new BasicDBObject("foo", "baz")));
+        Assert.assertEquals(0, dbCollectionSrc.count(doc("{ _id: { $in: [ 3, 4 ] }, foo: \"baz\" }")));
+
+        Assert.assertNull(redactedDBCollection.findAndModify(new BasicDBObject("_id", 3),
+                new BasicDBObject("$set", new BasicDBObject("foo", "qux"))));
+        Assert.assertFalse(dbCollectionSrc.findOne(new BasicDBObject("_id", 3)).containsField("foo"));
+
+        redactedDBCollection.remove(new BasicDBObject());
+        Assert.assertEquals(JSON.parse("[ { _id: 3 }, { _id: 4 } ]"),
+                dbCollectionSrc.find(new BasicDBObject(), new BasicDBObject("_id", 1)).sort(new BasicDBObject("_id", 1)).toArray());
+    }
+
+    private static DBObject doc(String json) {
+        return (DBObject) JSON.parse(json);
+    }
+}
@@ -0,0 +1,76 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+// runs against a RecordingDBCollection, no mongod is needed
+public class RedactedWriteTest {
+
+    private RecordingDBCollection dbCollectionSrc;
+    private RedactedDBCollection redactedDBCollection;
+
+    @Before
+    public void setUp() throws Exception {
+        dbCollectionSrc = new RecordingDBCollection("persons");
+        redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+    }
+
+    @Test
+    public void testWriteAccessPredicateAllowsSatisfiedLabel() throws Exception {
+        final DBObject predicate = redactedDBCollection.getWriteAccessPredicate();
+
+        Assert.assertTrue(SampleQueryMatcher.matches(doc("{ sl: [ [ { c: \"TS\" } ] ] }"), predicate));
+        Assert.assertTrue(SampleQueryMatcher.matches(doc("{ sl: [ [ { c: \"S\" }, { c: \"TS\" } ], [ ] ] }"), predicate));
+    }
+
+    @Test
+    public void testWriteAccessPredicateRefusesUnsatisfiedLabel() throws Exception {
+        final DBObject predicate = redactedDBCollection.getWriteAccessPredicate();
+
+        Assert.assertFalse(SampleQueryMatcher.matches(doc("{ sl: [ [ { c: \"S\" } ] ] }"), predicate));
+        Assert.assertFalse(SampleQueryMatcher.matches(doc("{ sl: [ [ { c: \"TS\" } ], [ { sci: \"TK\" } ] ] }"), predicate));
+    }
+
+    @Test
+    public void testWriteAccessPredicateAllowsUnlabelled() throws Exception {
+        final DBObject predicate = redactedDBCollection.getWriteAccessPredicate();
+
+        Assert.assertTrue(SampleQueryMatcher.matches(doc("{ lastName: \"Humphrey\" }"), predicate));
+        Assert.assertTrue(SampleQueryMatcher.matches(doc("{ sl: [ ] }"), predicate));
+    }
+
+    @Test
+    public void testUpdateAndRemoveAreRestricted() throws Exception {
+        final DBObject query = new BasicDBObject("lastName", "Humphrey");
+        redactedDBCollection.update(query, new BasicDBObject("$set", new BasicDBObject("foo", "baz")));
+        redactedDBCollection.remove(query);
+        redactedDBCollection.remove(new BasicDBObject());
+
+        final DBObject restricted = new BasicDBObject("$and", Arrays.asList(query, redactedDBCollection.getWriteAccessPredicate()));
+        Assert.assertEquals(restricted, dbCollectionSrc.writeQueries.get(0));
+        Assert.assertEquals(restricted, dbCollectionSrc.writeQueries.get(1));
+        Assert.assertEquals(redactedDBCollection.getWriteAccessPredicate(), dbCollectionSrc.writeQueries.get(2));
+    }
+
+    @Test
+    public void testFindAndModifyIsRestrictedAndRedacted() throws Exception {
+        dbCollectionSrc.willReturn(doc("{ _id: 1, sl: [ [ { c: \"TS\" } ] ], ssn: { sl: [ [ { c: \"TK\" } ] ], value: 1 } }"));
+        final DBObject query = new BasicDBObject("_id", 1);
+        final DBObject modified = redactedDBCollection.findAndModify(query, new BasicDBObject("$set", new BasicDBObject("foo", "baz")));
+
+        Assert.assertEquals(new BasicDBObject("$and", Arrays.asList(query, redactedDBCollection.getWriteAccessPredicate())),
+                dbCollectionSrc.writeQueries.get(0));
+        Assert.assertFalse(modified.containsField("ssn"));
+        Assert.assertEquals(1, modified.get("_id"));
+    }
+
+    private static DBObject doc(String json) {
+        return (DBObject) JSON.parse(json);
+    }
+}
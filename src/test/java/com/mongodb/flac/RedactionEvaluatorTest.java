@@ -0,0 +1,149 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RedactionEvaluatorTest {
+
+    private static DBObject getRecordOne() {
+        return (DBObject) JSON.parse("{ \"_id\" : \"5375052930040f83a06f115a\", \"firstName\" : \"Sheldon\", \"lastName\" : \"Humphrey\", " +
+                "\"ssn\" : { \"sl\" : [ [ { \"c\" : \"TS\" } ], [ { \"sci\" : \"G\" } ] ], \"value\" : \"354-61-8555\" }, \"country\" : { \"sl\" : [ [ { \"c\" : \"S\" } ], [ { \"sci\" : \"HCS\" } ] ], \"value\" : \"IRAQ\" }, \"favorites\" : { \"sl\" : [ [ { \"c\" : \"S\" } ] ], \"cartoonCharacters\" : [ \"Diablo The Raven \", \"Rabbit\", \"bar\" ] }, \"foo\" : \"bar\" }");
+    }
+
+    private static RedactionEvaluator evaluatorFor(UserSecurityAttributesMap userSecurityAttributes) {
+        return new RedactionEvaluator(userSecurityAttributes.toSecurityPrincipal(), new SecurityLabelDictionary());
+    }
+
+    @Test
+    public void testSheldonTSClearance() throws Exception {
+        // same expectation as RedactedDBCollectionTest.testFindTwoArgFindQuerySheldonTSClearance
+        final RedactionEvaluator evaluator = evaluatorFor(new UserSecurityAttributesMapCapco("c", "TS"));
+
+        final DBObject actual = evaluator.redact(getRecordOne());
+        final String expectedRec1 = "{ \"_id\" : \"5375052930040f83a06f115a\" , \"firstName\" : \"Sheldon\" , \"lastName\" : \"Humphrey\" , \"favorites\" : { \"sl\" : [ [ { \"c\" : \"S\"}]] , \"cartoonCharacters\" : [ \"Diablo The Raven \" , \"Rabbit\" , \"bar\"]} , \"foo\" : \"bar\"}";
+        Assert.assertEquals(JSON.parse(expectedRec1), actual);
+    }
+
+    @Test
+    public void testEvaluatorOnlyReadsTheDictionary() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:U"));
+        final RedactionEvaluator evaluator = new RedactionEvaluator(
+                new UserSecurityAttributesMapCapco("c", "S").toSecurityPrincipal(), dictionary, true);
+
+        Assert.assertNotNull(evaluator.redact(getRecordOne()).get("favorites"));
+        Assert.assertEquals(1, dictionary.size());
+
+        // bits a writer assigns after the evaluator was built
+        Assert.assertTrue(evaluator.isAccessibleBitsetLabel(dictionary.encodeLabel(JSON.parse("[ [ { c: \"S\" } ] ]"))));
+        Assert.assertFalse(evaluator.isAccessibleBitsetLabel(dictionary.encodeLabel(JSON.parse("[ [ { c: \"TS\" } ] ]"))));
+    }
+
+    @Test
+    public void testAllInnerArraysMustMatch() throws Exception {
+        final RedactionEvaluator evaluator = evaluatorFor(new UserSecurityAttributesMapCapco("c", "TS", "sci", Arrays.asList("G", "HCS")));
+
+        final DBObject actual = evaluator.redact(getRecordOne());
+        Assert.assertEquals("354-61-8555", ((DBObject) actual.get("ssn")).get("value"));
+        Assert.assertEquals("IRAQ", ((DBObject) actual.get("country")).get("value"));
+    }
+
+    @Test
+    public void testTopLevelLabelRemovesDocument() throws Exception {
+        final RedactionEvaluator evaluator = evaluatorFor(new UserSecurityAttributesMap("c", "S"));
+
+        Assert.assertNull(evaluator.redact((DBObject) JSON.parse("{ _id: 1, sl: [ [ { c: \"TS\" } ] ], a: 1 }")));
+        Assert.assertNotNull(evaluator.redact((DBObject) JSON.parse("{ _id: 1, sl: [ [ ], [ { c: \"S\" }, { c: \"TS\" } ] ], a: 1 }")));
+        Assert.assertNotNull(evaluator.redact((DBObject) JSON.parse("{ _id: 1, sl: [ ], a: 1 }")));
+    }
+
+    @Test
+    public void testSubdocumentsInArraysAreRedacted() throws Exception {
+        final RedactionEvaluator evaluator = evaluatorFor(new UserSecurityAttributesMap("c", "S"));
+
+        final DBObject actual = evaluator.redact((DBObject) JSON.parse(
+                "{ _id: 1, notes: [ { sl: [ [ { c: \"TS\" } ] ], text: \"secret\" }, { sl: [ [ { c: \"S\" } ] ], text: \"ok\" }, \"plain\" ] }"));
+        Assert.assertEquals(JSON.parse("[ { sl: [ [ { c: \"S\" } ] ], text: \"ok\" }, \"plain\" ]"), actual.get("notes"));
+    }
+
+    @Test
+    public void testMalformedLabelIsInaccessible() throws Exception {
+        final RedactionEvaluator evaluator = evaluatorFor(new UserSecurityAttributesMap("c", "TS"));
+
+        Assert.assertFalse(evaluator.isAccessibleLabel("TS"));
+        Assert.assertFalse(evaluator.isAccessibleLabel(JSON.parse("[ { c: \"TS\" } ]")));
+        Assert.assertFalse(evaluator.isAccessibleLabel(JSON.parse("[ [ { c: \"TS\", sci: \"TK\" } ] ]")));
+        Assert.assertTrue(evaluator.isAccessibleLabel(null));
+    }
+
+    @Test
+    public void testWidenInclusionProjection() throws Exception {
+        final RedactionEvaluator.WidenedProjection projection =
+                RedactionEvaluator.widenProjection(new BasicDBObject("firstName", 1).append("ssn.value", 1));
+
+        Assert.assertEquals(Arrays.asList("sl", "slb", "ssn.sl", "ssn.slb"), projection.addedPaths);
+        Assert.assertEquals(1, projection.keys.get("ssn.sl"));
+
+        final DBObject redacted = evaluatorFor(new UserSecurityAttributesMapCapco("c", "TS", "sci", "G"))
+                .redact((DBObject) JSON.parse("{ _id: 1, firstName: \"Sheldon\", ssn: { sl: [ [ { c: \"TS\" } ], [ { sci: \"G\" } ] ], value: \"354-61-8555\" } }"));
+        projection.strip(redacted);
+        Assert.assertEquals(JSON.parse("{ _id: 1, firstName: \"Sheldon\", ssn: { value: \"354-61-8555\" } }"), redacted);
+    }
+
+    @Test
+    public void testWidenExclusionProjection() throws Exception {
+        final RedactionEvaluator.WidenedProjection projection =
+                RedactionEvaluator.widenProjection(new BasicDBObject("sl", 0).append("foo", 0));
+
+        Assert.assertEquals(Arrays.asList("sl"), projection.addedPaths);
+        Assert.assertEquals(new BasicDBObject("foo", 0), projection.keys);
+    }
+
+    @Test
+    public void testWidenSliceProjection() throws Exception {
+        // $slice alone leaves every field in, the labels included
+        final DBObject sliceOnly = new BasicDBObject("notes", new BasicDBObject("$slice", 2));
+        RedactionEvaluator.WidenedProjection projection = RedactionEvaluator.widenProjection(sliceOnly);
+        Assert.assertEquals(sliceOnly, projection.keys);
+        Assert.assertTrue(projection.addedPaths.isEmpty());
+
+        projection = RedactionEvaluator.widenProjection(new BasicDBObject("firstName", 1).append("a.notes", new BasicDBObject("$slice", 2)));
+        Assert.assertEquals(Arrays.asList("sl", "slb", "a.sl", "a.slb"), projection.addedPaths);
+        Assert.assertEquals(new BasicDBObject("$slice", 2), projection.keys.get("a.notes"));
+    }
+
+    @Test
+    public void testWidenElemMatchProjection() throws Exception {
+        final DBObject elemMatch = new BasicDBObject("$elemMatch", new BasicDBObject("text", "ok"));
+        final RedactionEvaluator.WidenedProjection projection = RedactionEvaluator.widenProjection(new BasicDBObject("notes", elemMatch));
+
+        Assert.assertEquals(Arrays.asList("sl", "slb"), projection.addedPaths);
+        Assert.assertEquals(elemMatch, projection.keys.get("notes"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWidenRejectsOtherOperators() throws Exception {
+        RedactionEvaluator.widenProjection(new BasicDBObject("score", new BasicDBObject("$meta", "textScore")));
+    }
+
+    @Test
+    public void testBitsetLabelsGiveSameResult() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary();
+        final SecurityPrincipal principal = new UserSecurityAttributesMapCapco("c", "TS").toSecurityPrincipal();
+        final RedactionEvaluator evaluator = new RedactionEvaluator(principal, dictionary, true);
+
+        final DBObject labelled = dictionary.addBitsetLabels(getRecordOne());
+        final DBObject actual = evaluator.redact(labelled);
+        Assert.assertNull(actual.get("ssn"));
+        Assert.assertNull(actual.get("country"));
+        Assert.assertNotNull(actual.get("favorites"));
+
+        // slb wins over sl when both are present
+        final DBObject document = (DBObject) JSON.parse("{ _id: 1, sl: [ [ { c: \"S\" } ] ], slb: [ [ -1 ] ] }");
+        Assert.assertNull(evaluator.redact(document));
+    }
+}
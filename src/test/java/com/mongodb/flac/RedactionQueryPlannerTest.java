@@ -0,0 +1,129 @@
+package com.mongodb.flac;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class RedactionQueryPlannerTest {
+
+    private final RedactionQueryPlanner planner = new RedactionQueryPlanner(LabelSchema.of("ssn", "country", "favorites", "notes.attachment"));
+
+    @Test
+    public void testLabelSchema() throws Exception {
+        final LabelSchema schema = LabelSchema.of("ssn", "notes.attachment");
+
+        Assert.assertTrue(schema.isUnaffectedByRedaction("firstName"));
+        Assert.assertTrue(schema.isUnaffectedByRedaction("notes.text"));
+        Assert.assertTrue(schema.isUnaffectedByRedaction("ssnx"));
+        Assert.assertFalse(schema.isUnaffectedByRedaction("ssn"));
+        Assert.assertFalse(schema.isUnaffectedByRedaction("ssn.value"));
+        Assert.assertFalse(schema.isUnaffectedByRedaction("notes"));
+        Assert.assertFalse(schema.isUnaffectedByRedaction("notes.3.attachment.name"));
+        Assert.assertFalse(LabelSchema.UNKNOWN.isUnaffectedByRedaction("firstName"));
+    }
+
+    @Test
+    public void testUnknownSchemaKeepsQueryBehindRedact() throws Exception {
+        final DBObject query = new BasicDBObject("firstName", "Sheldon");
+        final RedactionQueryPlanner.QueryPlan plan = new RedactionQueryPlanner(LabelSchema.UNKNOWN).plan(query);
+
+        Assert.assertNull(plan.getBeforeRedact());
+        Assert.assertSame(query, plan.getAfterRedact());
+    }
+
+    @Test
+    public void testSplitQuery() throws Exception {
+        final RedactionQueryPlanner.QueryPlan plan = planner.plan((DBObject) JSON.parse(
+                "{ firstName: \"Sheldon\", \"ssn.value\": \"354-61-8555\", $and: [ { lastName: { $gt: \"H\" } }, { \"country.value\": \"IRAQ\" } ] }"));
+
+        Assert.assertEquals(JSON.parse("{ firstName: \"Sheldon\", lastName: { $gt: \"H\" } }"), plan.getBeforeRedact());
+        Assert.assertEquals(JSON.parse("{ \"ssn.value\": \"354-61-8555\", \"country.value\": \"IRAQ\" }"), plan.getAfterRedact());
+    }
+
+    @Test
+    public void testOrIsMovedOnlyAsAWhole() throws Exception {
+        final RedactionQueryPlanner.QueryPlan safe = planner.plan((DBObject) JSON.parse("{ $or: [ { firstName: \"Sheldon\" }, { _id: 1 } ] }"));
+        Assert.assertNotNull(safe.getBeforeRedact());
+        Assert.assertNull(safe.getAfterRedact());
+
+        final RedactionQueryPlanner.QueryPlan unsafe = planner.plan((DBObject) JSON.parse("{ $or: [ { firstName: \"Sheldon\" }, { \"ssn.value\": 1 } ] }"));
+        Assert.assertNull(unsafe.getBeforeRedact());
+        Assert.assertNotNull(unsafe.getAfterRedact());
+    }
+
+    @Test
+    public void testWhereAndTextStayBehindRedact() throws Exception {
+        final RedactionQueryPlanner.QueryPlan plan = planner.plan((DBObject) JSON.parse(
+                "{ $where: \"this.a == 1\", $text: { $search: \"x\" }, a: 1 }"));
+
+        Assert.assertEquals(new BasicDBObject("a", 1), plan.getBeforeRedact());
+        Assert.assertEquals(2, plan.getAfterRedact().keySet().size());
+    }
+
+    @Test
+    public void testRepeatedFieldUsesAnd() throws Exception {
+        final RedactionQueryPlanner.QueryPlan plan = planner.plan((DBObject) JSON.parse(
+                "{ $and: [ { a: { $gt: 1 } }, { a: { $lt: 5 } } ] }"));
+
+        Assert.assertEquals(JSON.parse("{ $and: [ { a: { $gt: 1 } }, { a: { $lt: 5 } } ] }"), plan.getBeforeRedact());
+    }
+
+    @Test
+    public void testPushdownProjectionKeepsProjectedAndQueriedFieldsWithTheirLabels() throws Exception {
+        final DBObject pushdown = RedactionQueryPlanner.pushdownProjection(
+                (DBObject) JSON.parse("{ _id: 0, firstName: 1, \"ssn.value\": true, country: 1 }"),
+                (DBObject) JSON.parse("{ $or: [ { \"country.value\": \"IRAQ\" }, { \"notes.attachment.name\": \"x\" } ] }"), null);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("firstName", "ssn.value", "country", "notes.attachment.name",
+                        "sl", "slb", "ssn.sl", "ssn.slb", "notes.sl", "notes.slb", "notes.attachment.sl", "notes.attachment.slb")),
+                pushdown.keySet());
+    }
+
+    @Test
+    public void testNoPushdownWhenFieldsCantBeNamed() throws Exception {
+        Assert.assertNull(RedactionQueryPlanner.pushdownProjection(null, null, null));
+        Assert.assertNull(RedactionQueryPlanner.pushdownProjection(new BasicDBObject("_id", 1), null, null));
+        Assert.assertNull(RedactionQueryPlanner.pushdownProjection(new BasicDBObject("ssn", 0), null, null));
+        Assert.assertNull(RedactionQueryPlanner.pushdownProjection(new BasicDBObject("notes.0.text", 1), null, null));
+        Assert.assertNull(RedactionQueryPlanner.pushdownProjection(new BasicDBObject("firstName", 1),
+                new BasicDBObject("$where", "this.a == 1"), null));
+    }
+
+    @Test
+    public void testCountProjectionKeepsLabelsAndQueriedFields() throws Exception {
+        Assert.assertEquals(new BasicDBObject("sl", 1).append("slb", 1),
+                RedactionQueryPlanner.countProjection(null));
+        Assert.assertEquals(new BasicDBObject("sl", 1).append("slb", 1).append("address.city", 1)
+                        .append("address.sl", 1).append("address.slb", 1),
+                RedactionQueryPlanner.countProjection(new BasicDBObject("address.city", "Boston")));
+        Assert.assertNull(RedactionQueryPlanner.countProjection(new BasicDBObject("$where", "this.a > 1")));
+    }
+
+    @Test
+    public void testFindPushesProjectionAheadOfRedact() throws Exception {
+        final MongoClient mongoClient = new MongoClient("localhost");
+        try {
+            final RecordingDBCollection dbCollectionSrc = new RecordingDBCollection(mongoClient.getDB("flac_test"), "persons");
+            final RedactedDBCollection redactedDBCollection = new RedactedDBCollection(dbCollectionSrc, new UserSecurityAttributesMap("c", "TS"));
+            final DBObject keys = new BasicDBObject("firstName", 1);
+            redactedDBCollection.find(new BasicDBObject("lastName", "Cooper"), keys).hasNext();
+
+            final List<DBObject> pipeline = dbCollectionSrc.lastPipeline();
+            Assert.assertEquals(4, pipeline.size());
+            Assert.assertEquals(new HashSet<String>(Arrays.asList("firstName", "lastName", "sl", "slb")),
+                    ((DBObject) pipeline.get(0).get("$project")).keySet());
+            Assert.assertTrue(pipeline.get(1).containsField("$redact"));
+            Assert.assertEquals(new BasicDBObject("$match", new BasicDBObject("lastName", "Cooper")), pipeline.get(2));
+            Assert.assertEquals(new BasicDBObject("$project", keys), pipeline.get(3));
+        } finally {
+            mongoClient.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.mongodb.flac;
+
+import com.mongodb.util.JSON;
+import org.bson.BSONObject;
+
+import java.util.List;
+
+/**
+ * Matches a document against a query in Java, for the few query operators the security predicates use ($or, $and,
+ * $exists, $size, $elemMatch, $in, $nin, $ne, $not), so the predicates can be checked against sample labels
+ * without a running mongod.  As on the server, an operator on a field looks inside an array value, while the
+ * operators of a "$elemMatch" apply to each element as it is.
+ */
+class SampleQueryMatcher {
+
+    private static final Object MISSING = new Object();
+
+    private SampleQueryMatcher() {
+    }
+
+    /** @return true if document matches query */
+    static boolean matches(BSONObject document, BSONObject query) {
+        for (String key : query.keySet()) {
+            final Object condition = query.get(key);
+            if ("$or".equals(key) || "$and".equals(key)) {
+                boolean any = false;
+                boolean all = true;
+                for (Object clause : (List<?>) condition) {
+                    final boolean matched = matches(document, (BSONObject) clause);
+                    any |= matched;
+                    all &= matched;
+                }
+                if ("$or".equals(key) ? !any : !all) return false;
+            } else {
+                final Object value = document.containsField(key) ? document.get(key) : MISSING;
+                final boolean matched = isOperators(condition) ? evaluate(value, (BSONObject) condition, true)
+                        : equalsValue(value, condition, true);
+                if (!matched) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOperators(Object condition) {
+        if (!(condition instanceof BSONObject) || condition instanceof List) return false;
+        final BSONObject operators = (BSONObject) condition;
+        for (String key : operators.keySet()) {
+            if (!key.startsWith("$")) return false;
+        }
+        return !operators.keySet().isEmpty();
+    }
+
+    private static boolean evaluate(Object value, BSONObject operators, boolean lookInsideArrays) {
+        for (String operator : operators.keySet()) {
+            final Object operand = operators.get(operator);
+            final boolean matched;
+            if ("$exists".equals(operator)) {
+                matched = (value != MISSING) == Boolean.TRUE.equals(operand);
+            } else if ("$size".equals(operator)) {
+                matched = value instanceof List && ((List<?>) value).size() == ((Number) operand).intValue();
+            } else if ("$elemMatch".equals(operator)) {
+                matched = elemMatch(value, (BSONObject) operand);
+            } else if ("$in".equals(operator) || "$nin".equals(operator)) {
+                boolean in = false;
+                for (Object candidate : (List<?>) operand) {
+                    in |= equalsValue(value, candidate, lookInsideArrays);
+                }
+                matched = "$in".equals(operator) == in;
+            } else if ("$ne".equals(operator)) {
+                matched = !equalsValue(value, operand, lookInsideArrays);
+            } else if ("$not".equals(operator)) {
+                matched = !evaluate(value, (BSONObject) operand, lookInsideArrays);
+            } else {
+                throw new UnsupportedOperationException(operator);
+            }
+            if (!matched) return false;
+        }
+        return true;
+    }
+
+    private static boolean elemMatch(Object value, BSONObject condition) {
+        if (!(value instanceof List)) return false;
+        for (Object element : (List<?>) value) {
+            if (isOperators(condition) ? evaluate(element, condition, false)
+                    : element instanceof BSONObject && !(element instanceof List) && matches((BSONObject) element, condition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equalsValue(Object value, Object expected, boolean lookInsideArrays) {
+        if (value == MISSING) return expected == null;
+        final String serializedExpected = JSON.serialize(expected);
+        if (JSON.serialize(value).equals(serializedExpected)) return true;
+        if (lookInsideArrays && value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (JSON.serialize(element).equals(serializedExpected)) return true;
+            }
+        }
+        return false;
+    }
+}
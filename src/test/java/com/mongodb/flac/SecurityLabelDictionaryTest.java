@@ -0,0 +1,90 @@
+package com.mongodb.flac;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SecurityLabelDictionaryTest {
+
+    @Test
+    public void testBitsAreAssignedInOrder() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:TS", "c:S"));
+
+        Assert.assertEquals(0, dictionary.getOrAssignBit("c:TS"));
+        Assert.assertEquals(1, dictionary.getBit("c", "S"));
+        Assert.assertEquals(-1, dictionary.getBit("c", "U"));
+        Assert.assertEquals(2, dictionary.getOrAssignBit("sci", "TK"));
+        Assert.assertEquals("sci:TK", dictionary.getTerm(2));
+    }
+
+    @Test
+    public void testUserBitset() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary();
+        for (int i = 0; i < 100; i++) {
+            dictionary.getOrAssignBit("x:" + i);
+        }
+        dictionary.getOrAssignBit("c:TS");      // by a writer
+        final long[] bits = new UserSecurityAttributesMap("c", "TS").toBitset(dictionary);
+
+        Assert.assertEquals(2, bits.length);
+        Assert.assertTrue(SecurityLabelDictionary.intersects(bits, SecurityLabelDictionary.setBit(new long[0], 100)));
+        Assert.assertFalse(SecurityLabelDictionary.intersects(bits, SecurityLabelDictionary.setBit(new long[0], 99)));
+        Assert.assertEquals(Arrays.asList(100), SecurityPrincipal.of(Arrays.asList("c:TS")).toBitIds(dictionary));
+    }
+
+    @Test
+    public void testReadersDontAssignBits() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:S"));
+        final SecurityPrincipal principal = SecurityPrincipal.of(Arrays.asList("c:S", "c:TS"));
+
+        Assert.assertEquals(Arrays.asList(0), principal.toBitIds(dictionary));
+        new RedactionEvaluator(principal, dictionary);
+        Assert.assertEquals(1, dictionary.size());
+        Assert.assertEquals(-1, dictionary.getBit("c:TS"));
+
+        // a later writer's bit is picked up
+        dictionary.getOrAssignBit("c:TS");
+        Assert.assertEquals(Arrays.asList(0, 1), principal.toBitIds(dictionary));
+    }
+
+    @Test
+    public void testAddBitsetLabels() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:TS", "sci:TK", "sci:SI"));
+        final DBObject document = (DBObject) JSON.parse("{ _id: 1, sl: [ [ { c: \"TS\" } ], [ { sci: \"SI\" }, { c: 5 } ] ], " +
+                "notes: [ { sl: [ [ ] ], text: \"x\" } ] }");
+
+        dictionary.addBitsetLabels(document);
+
+        Assert.assertEquals(JSON.parse("[ [ 0 ], [ 2, -1 ] ]"), JSON.parse(JSON.serialize(document.get("slb"))));
+        Assert.assertEquals(JSON.parse("[ [ ] ]"), JSON.parse(JSON.serialize(((DBObject) ((java.util.List<?>) document.get("notes")).get(0)).get("slb"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedLabel() throws Exception {
+        new SecurityLabelDictionary().encodeLabel(JSON.parse("[ { c: \"TS\" } ]"));
+    }
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:TS", "sci:TK"));
+        final SecurityLabelDictionary loaded = SecurityLabelDictionary.fromDBObject(dictionary.toDBObject());
+
+        Assert.assertEquals(1, loaded.getBit("sci", "TK"));
+        Assert.assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void testBitsetRedactStage() throws Exception {
+        final SecurityLabelDictionary dictionary = new SecurityLabelDictionary(Arrays.asList("c:TS"));
+        final RedactStageCache cache = new RedactStageCache(100);
+        final SecurityPrincipal principal = SecurityPrincipal.of(Arrays.asList("c:TS"));
+
+        final DBObject stage = cache.getBitsetRedactStage(principal, dictionary);
+        Assert.assertTrue(JSON.serialize(stage).contains("$slb"));
+        Assert.assertNotSame(stage, cache.getRedactStage(principal));
+        Assert.assertSame(stage, cache.getBitsetRedactStage(principal, dictionary));
+    }
+}
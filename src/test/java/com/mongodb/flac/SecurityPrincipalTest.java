@@ -0,0 +1,71 @@
+package com.mongodb.flac;
+
+import com.mongodb.flac.converter.FLACProperty;
+import com.mongodb.flac.converter.FLACPropertyProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SecurityPrincipalTest {
+
+    public static class TestUser implements FLACPropertyProvider {
+        @FLACProperty(attributeNameInSl = "c")
+        public String getClearance() {
+            return "TS";
+        }
+
+        @FLACProperty(attributeNameInSl = "sci")
+        public List<String> getSci() {
+            return Arrays.asList("TK", "SI");
+        }
+    }
+
+    @Test
+    public void testTermsAreSortedAndDeduplicated() throws Exception {
+        final SecurityPrincipal principal = SecurityPrincipal.of(Arrays.asList("sci:TK", "c:TS", "sci:TK", "c:S"));
+
+        Assert.assertEquals(Arrays.asList("c:S", "c:TS", "sci:TK"), principal.getTerms());
+        Assert.assertTrue(principal.contains("c:TS"));
+        Assert.assertFalse(principal.contains("c:U"));
+        Assert.assertEquals("[ { c:\"S\" }, { c:\"TS\" }, { sci:\"TK\" } ]", principal.toFlacEncodedString());
+        Assert.assertEquals("TS", principal.getFlacEncodedTerms().get(1).get("c"));
+    }
+
+    @Test
+    public void testIdenticalPrincipalsAreOneInstance() throws Exception {
+        final UserSecurityAttributesMap user1 = new UserSecurityAttributesMap("c", "TS", "sci", Arrays.asList("TK", "SI"));
+        final UserSecurityAttributesMap user2 = new UserSecurityAttributesMap("sci", Arrays.asList("SI", "TK"), "c", "TS");
+
+        Assert.assertSame(SecurityPrincipal.of(user1), SecurityPrincipal.of(user2));
+        Assert.assertSame(SecurityPrincipal.of(user1), SecurityPrincipal.of(Arrays.asList("sci:TK", "sci:SI", "c:TS")));
+        Assert.assertNotSame(SecurityPrincipal.of(user1), SecurityPrincipal.of(new UserSecurityAttributesMap("c", "S")));
+    }
+
+    @Test
+    public void testPrincipalFollowsMapChanges() throws Exception {
+        final UserSecurityAttributesMap user = new UserSecurityAttributesMap("c", "TS");
+        final SecurityPrincipal before = user.toSecurityPrincipal();
+        Assert.assertSame(before, user.toSecurityPrincipal());
+
+        user.put("sci", "TK");
+        Assert.assertEquals(Arrays.asList("c:TS", "sci:TK"), user.toSecurityPrincipal().getTerms());
+        Assert.assertEquals(Arrays.asList("c:TS"), before.getTerms());
+    }
+
+    @Test
+    public void testFromProvider() throws Exception {
+        final SecurityPrincipal principal = SecurityPrincipal.fromProvider(new TestUser());
+        Assert.assertEquals(Arrays.asList("c:TS", "sci:SI", "sci:TK"), principal.getTerms());
+
+        // a CAPCO aware map expands c:TS into the lower levels
+        final SecurityPrincipal capco = SecurityPrincipal.fromProvider(new TestUser(), new UserSecurityAttributesMapCapco());
+        Assert.assertTrue(capco.contains("c:U"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadTerm() throws Exception {
+        SecurityPrincipal.of(Arrays.asList("TS"));
+    }
+}
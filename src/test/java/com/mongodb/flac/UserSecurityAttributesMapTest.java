@@ -4,9 +4,15 @@ import com.mongodb.flac.UserSecurityAttributesMap;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import static org.junit.Assert.*;
 
@@ -55,6 +61,145 @@ public class UserSecurityAttributesMapTest {
     }
 
 
+    @Test
+    public void testFlacEncodedStringIsReusedUntilMapChanges() throws Exception {
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap();
+        userSecurityAttributesMap.put("sci", Arrays.asList("TK"));
+
+        final String encoded1 = userSecurityAttributesMap.toFlacEncodedString();
+        Assert.assertSame(encoded1, userSecurityAttributesMap.toFlacEncodedString());
+        Assert.assertSame(userSecurityAttributesMap.getFlacEncodedTerms(), userSecurityAttributesMap.getFlacEncodedTerms());
+
+        final int version = userSecurityAttributesMap.getVersion();
+        userSecurityAttributesMap.put("c", "X");
+        Assert.assertTrue(version != userSecurityAttributesMap.getVersion());
+        final String encoded2 = userSecurityAttributesMap.toFlacEncodedString();
+        Assert.assertTrue(encoded2.contains("c:\"X\""));
+        Assert.assertEquals(2, userSecurityAttributesMap.getFlacEncodedTerms().size());
+
+        userSecurityAttributesMap.remove("c");
+        Assert.assertEquals(encoded1, userSecurityAttributesMap.toFlacEncodedString());
+
+        userSecurityAttributesMap.clear();
+        Assert.assertEquals("[  ]", userSecurityAttributesMap.toFlacEncodedString());
+    }
+
+    @Test
+    public void testMarkModifiedAfterInPlaceChange() throws Exception {
+        final List<String> sci = new ArrayList<String>(Arrays.asList("TK"));
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap("sci", sci);
+        Assert.assertEquals("[ { sci:\"TK\" } ]", userSecurityAttributesMap.toFlacEncodedString());
+
+        sci.add("SI");
+        userSecurityAttributesMap.markModified();
+        Assert.assertEquals(Arrays.asList("sci:SI", "sci:TK"), userSecurityAttributesMap.getCanonicalSecurityTerms());
+        Assert.assertEquals("[ { sci:\"SI\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        Assert.assertEquals("SI", userSecurityAttributesMap.getFlacEncodedTerms().get(0).get("sci"));
+    }
+
+    @Test
+    public void testJava8MutatorsInvalidateTheEncoding() throws Exception {
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap("c", "U");
+        Assert.assertEquals("[ { c:\"U\" } ]", userSecurityAttributesMap.toFlacEncodedString());
+
+        userSecurityAttributesMap.putIfAbsent("sci", "TK");
+        Assert.assertEquals("[ { c:\"U\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.replace("sci", "SI");
+        Assert.assertEquals("[ { c:\"U\" }, { sci:\"SI\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.replace("sci", "SI", "TK");
+        Assert.assertEquals("[ { c:\"U\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.merge("c", "S", new BiFunction<Object, Object, Object>() {
+            public Object apply(Object oldValue, Object value) {
+                return Arrays.asList(oldValue, value);
+            }
+        });
+        Assert.assertEquals("[ { c:\"S\" }, { c:\"U\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.computeIfPresent("sci", new BiFunction<String, Object, Object>() {
+            public Object apply(String key, Object value) {
+                return null;
+            }
+        });
+        Assert.assertEquals("[ { c:\"S\" }, { c:\"U\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.computeIfAbsent("sci", new Function<String, Object>() {
+            public Object apply(String key) {
+                return "SI";
+            }
+        });
+        Assert.assertEquals("[ { c:\"S\" }, { c:\"U\" }, { sci:\"SI\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.replaceAll(new BiFunction<String, Object, Object>() {
+            public Object apply(String key, Object value) {
+                return "TS";
+            }
+        });
+        Assert.assertEquals("[ { c:\"TS\" }, { sci:\"TS\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.compute("c", new BiFunction<String, Object, Object>() {
+            public Object apply(String key, Object value) {
+                return "U";
+            }
+        });
+        Assert.assertEquals("[ { c:\"U\" }, { sci:\"TS\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.remove("sci", "TS");
+        Assert.assertEquals("[ { c:\"U\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+    }
+
+    @Test
+    public void testViewChangesInvalidateTheEncoding() throws Exception {
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap("c", "U");
+        userSecurityAttributesMap.put("sci", "TK");
+        userSecurityAttributesMap.put("relto", "US");
+        final Set<Map.Entry<String, Object>> entries = userSecurityAttributesMap.entrySet();
+        Assert.assertEquals("[ { c:\"U\" }, { relto:\"US\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+
+        for (Map.Entry<String, Object> entry : entries) {
+            if (entry.getKey().equals("c")) entry.setValue("TS");
+        }
+        Assert.assertEquals("[ { c:\"TS\" }, { relto:\"US\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+
+        for (Object entry : entries.toArray()) {
+            if (((Map.Entry) entry).getKey().equals("c")) ((Map.Entry) entry).setValue("S");
+        }
+        Assert.assertEquals("[ { c:\"S\" }, { relto:\"US\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+
+        userSecurityAttributesMap.keySet().remove("relto");
+        Assert.assertEquals("[ { c:\"S\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+
+        userSecurityAttributesMap.values().remove("TK");
+        Assert.assertEquals("[ { c:\"S\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+
+        final Iterator<Map.Entry<String, Object>> iterator = entries.iterator();
+        iterator.next();
+        iterator.remove();
+        Assert.assertEquals("[  ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+    }
+
+    @Test
+    public void testTermsAreExpandedOncePerChange() throws Exception {
+        final int[] expansions = new int[1];
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap("c", "TS", "sci", "TK") {
+            @Override
+            protected List<String> expandVisibilityString(String userAttrValue) {
+                expansions[0]++;
+                return super.expandVisibilityString(userAttrValue);
+            }
+        };
+        Assert.assertEquals("[ { c:\"TS\" }, { sci:\"TK\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        userSecurityAttributesMap.toFlacEncodedString();
+        Assert.assertEquals(2, expansions[0]);
+    }
+
+    @Test
+    public void testEncodingOverrideGivesThePrincipal() throws Exception {
+        UserSecurityAttributesMap userSecurityAttributesMap = new UserSecurityAttributesMap("c", "TS") {
+            @Override
+            public String encodeFlacSecurityAttributes() {
+                return "[ { c:\"TS\" }, { c:\"S\" } ]";
+            }
+        };
+        Assert.assertEquals(Arrays.asList("c:S", "c:TS"), userSecurityAttributesMap.toSecurityPrincipal().getTerms());
+        Assert.assertEquals("[ { c:\"S\" }, { c:\"TS\" } ]", userSecurityAttributesMap.toCanonicalFlacEncodedString());
+        Assert.assertEquals("[ { c:\"TS\" }, { c:\"S\" } ]", userSecurityAttributesMap.toFlacEncodedString());
+    }
+
     private void compareListsOrderNotImportant(List<String> e, List<String> actual) {
         Assert.assertEquals(new HashSet(e), new HashSet(actual));
     }
@@ -53,6 +53,27 @@ public class FLACPropertyProcessorTest {
         }
     }
 
+    /** public, so FLACAttributesProcessor generates FLACPropertyProcessorTest_TestClass2FLACAttributes for it */
+    public static class TestClass2 implements FLACPropertyProvider {
+        private final String clearance;
+        private final List<String> sci;
+
+        public TestClass2(String clearance, List<String> sci) {
+            this.clearance = clearance;
+            this.sci = sci;
+        }
+
+        @FLACProperty(attributeNameInSl = "c")
+        public String getClearance() {
+            return clearance;
+        }
+
+        @FLACProperty(attributeNameInSl = "sci")
+        public List<String> getSci() {
+            return sci;
+        }
+    }
+
     @Test
     public void testFLACPropertyProcessor() throws FLACAnnotationException {
         final TestClass1 cValue = new TestClass1("c_sl_value", Arrays.asList("TK"), Arrays.asList("US"));
@@ -66,6 +87,32 @@ public class FLACPropertyProcessorTest {
 
     }
 
+    @Test
+    public void testFLACPropertyProcessorBatch() throws FLACAnnotationException {
+        final List<TestClass1> users = Arrays.asList(
+                new TestClass1("TS", Arrays.asList("TK"), Arrays.asList("US")),
+                new TestClass1("S", Arrays.asList("SI", "G"), Arrays.asList("GBR")));
+        final List<Map<String, Object>> actual = FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(users);
+        Assert.assertEquals(2, actual.size());
+
+        Assert.assertEquals("TS", actual.get(0).get("c"));
+        Assert.assertEquals("S", actual.get(1).get("c"));
+        Assert.assertEquals(Arrays.asList("SI", "G"), actual.get(1).get("sci"));
+        Assert.assertEquals(FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(users.get(1)), actual.get(1));
+    }
+
+    @Test
+    public void testFLACPropertyProcessorGenerated() throws FLACAnnotationException {
+        Assert.assertTrue(FLACPropertyProcessor.isGenerated(TestClass2.class));
+        Assert.assertFalse(FLACPropertyProcessor.isGenerated(TestClass1.class));      // private, read by reflection
+
+        final Map<String, Object> actual = FLACPropertyProcessor.findMethodsAnnotatedPullOutSLFieldInfo(
+                new TestClass2("S", Arrays.asList("TK")));
+        Assert.assertEquals(2, actual.size());
+        Assert.assertEquals("S", actual.get("c"));
+        Assert.assertEquals(Arrays.asList("TK"), actual.get("sci"));
+    }
+
     private static class TestRepr1 {
 
         public TestRepr1() throws Exception {
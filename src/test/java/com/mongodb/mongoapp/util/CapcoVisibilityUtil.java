@@ -1,5 +1,7 @@
 package com.mongodb.mongoapp.util;
 
+import com.mongodb.flac.LabelHierarchy;
+
 import java.util.*;
 
 /**
@@ -66,6 +68,9 @@ public class CapcoVisibilityUtil {
 
     public static final boolean EXPAND_CAPCO_AS_TREE_OF_VISIBILITY = true;
 
+    /** the CAPCO classifications, TS implies S implies C implies U */
+    public static final LabelHierarchy CAPCO_HIERARCHY = new LabelHierarchy.Builder().chain("c", "TS", "S", "C", "U").build();
+
     /** Recursively Expand Capco Visibility, as c:TS implies c:S etc
      *
      * @param userCapcoVisibilityEncodedString specifies a user security encoded value, e.g. considering a sample
@@ -96,28 +101,13 @@ public class CapcoVisibilityUtil {
 
         final HashSet<String> capco = new LinkedHashSet<String>();
         if (EXPAND_CAPCO_AS_TREE_OF_VISIBILITY) {
-
+            final List<String> classifications = new ArrayList<String>(userCapcoVisibilityEncodedStrings.size());
             for (String c : userCapcoVisibilityEncodedStrings) {
-
-                if ("c:TS".equalsIgnoreCase(c)) {
-                    capco.add("c:TS");
-                    capco.add("c:S");
-                    capco.add("c:C");
-                    capco.add("c:U");
-                } else if ("c:S".equalsIgnoreCase(c)) {
-                    capco.add("c:S");
-                    capco.add("c:C");
-                    capco.add("c:U");
-                } else if ("c:C".equalsIgnoreCase(c)) {
-                    capco.add("c:C");
-                    capco.add("c:U");
-                } else if ("c:U".equalsIgnoreCase(c)) {
-                    capco.add("c:U");
-                } else {
-                    capco.add(c);
-                }
-                break;
+                // classifications are matched ignoring case, e.g. c:ts is taken as c:TS
+                final String classification = "c:" + c.substring(c.indexOf(':') + 1).toUpperCase(Locale.ENGLISH);
+                classifications.add(c.regionMatches(true, 0, "c:", 0, 2) && CAPCO_HIERARCHY.contains(classification) ? classification : c);
             }
+            capco.addAll(CAPCO_HIERARCHY.expand(classifications));
         } else {
             capco.addAll(userCapcoVisibilityEncodedStrings);
         }